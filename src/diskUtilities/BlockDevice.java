@@ -0,0 +1,88 @@
+package diskUtilities;
+
+import java.io.IOException;
+
+/**
+ * Specifies the storage operations a disk unit needs from the file that holds its blocks.
+ * Every access is positional: the byte offset inside the file is given on each call, so
+ * no shared file pointer is kept between operations.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public interface BlockDevice {
+
+	/**
+	 * Copies length bytes, starting at the given position of the device, into dst.
+	 * @param position byte offset inside the device
+	 * @param dst array where the bytes are copied
+	 * @param offset first index of dst to fill
+	 * @param length number of bytes to read
+	 * @throws IOException
+	 */
+	void read(long position, byte[] dst, int offset, int length) throws IOException;
+
+	/**
+	 * Copies length bytes from src into the device, starting at the given position.
+	 * @param position byte offset inside the device
+	 * @param src array with the bytes to write
+	 * @param offset first index of src to write
+	 * @param length number of bytes to write
+	 * @throws IOException
+	 */
+	void write(long position, byte[] src, int offset, int length) throws IOException;
+
+	/**
+	 * @param position byte offset inside the device
+	 * @return the byte stored at position
+	 * @throws IOException
+	 */
+	byte readByte(long position) throws IOException;
+
+	/**
+	 * @param position byte offset inside the device
+	 * @param value byte to store at position (only the low 8 bits are used)
+	 * @throws IOException
+	 */
+	void writeByte(long position, int value) throws IOException;
+
+	/**
+	 * Reads a big-endian integer, the same layout RandomAccessFile.readInt uses.
+	 * @param position byte offset inside the device
+	 * @return the integer stored at position
+	 * @throws IOException
+	 */
+	int readInt(long position) throws IOException;
+
+	/**
+	 * Writes a big-endian integer, the same layout RandomAccessFile.writeInt uses.
+	 * @param position byte offset inside the device
+	 * @param value integer to store at position
+	 * @throws IOException
+	 */
+	void writeInt(long position, int value) throws IOException;
+
+	/**
+	 * @return current size of the device in bytes
+	 * @throws IOException
+	 */
+	long length() throws IOException;
+
+	/**
+	 * Grows or shrinks the device to the given number of bytes.
+	 * @param length new size in bytes
+	 * @throws IOException
+	 */
+	void setLength(long length) throws IOException;
+
+	/**
+	 * Forces every pending write to reach the underlying file.
+	 * @throws IOException
+	 */
+	void force() throws IOException;
+
+	/**
+	 * Forces pending writes and releases the underlying file.
+	 * @throws IOException
+	 */
+	void close() throws IOException;
+}
@@ -0,0 +1,67 @@
+package diskUtilities;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool of the block buffers of one disk. Every thread keeps its own list of free blocks,
+ * so leasing and returning a block take no lock, and once a thread has as many blocks as
+ * it uses at the same time the block paths allocate nothing. A leased block must be given
+ * back by the thread that leased it, once nothing refers to it; it comes out of the pool
+ * holding whatever its last user left in it.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class BlockPool {
+
+	private static final int MAX_FREE = 16;   // free blocks kept by each thread
+
+	private final int blockSize;
+	private final ThreadLocal<ArrayDeque<VirtualDiskBlock>> free =
+			new ThreadLocal<ArrayDeque<VirtualDiskBlock>>() {
+		protected ArrayDeque<VirtualDiskBlock> initialValue() {
+			return new ArrayDeque<VirtualDiskBlock>();
+		}
+	};
+
+	/**
+	 * @param blockSize size of the blocks of the disk
+	 */
+	public BlockPool(int blockSize) {
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * @return a block of the disk's size, taken from the calling thread's free blocks or
+	 * allocated if it has none
+	 */
+	public VirtualDiskBlock lease() {
+		VirtualDiskBlock b = free.get().pollFirst();
+		return b != null ? b : new VirtualDiskBlock(blockSize);
+	}
+
+	/**
+	 * @return a block of the disk's size filled with zeroes
+	 */
+	public VirtualDiskBlock leaseCleared() {
+		VirtualDiskBlock b = lease();
+		b.clear();
+		return b;
+	}
+
+	/**
+	 * Gives a leased block back to the calling thread's free blocks.
+	 * @param b block no longer used
+	 */
+	public void release(VirtualDiskBlock b) {
+		ArrayDeque<VirtualDiskBlock> blocks = free.get();
+		if (b.getCapacity() == blockSize && blocks.size() < MAX_FREE)
+			blocks.addFirst(b);
+	}
+
+	/**
+	 * @return size of the blocks of the pool
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+}
@@ -0,0 +1,481 @@
+package diskUtilities;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Bounded write-back cache of disk blocks, keyed by block number. Blocks are kept in
+ * least recently used order; when the cache is full the least recently used block is
+ * dropped, and written back first if it was modified. Modified blocks are otherwise only
+ * written to the device when the cache is flushed.
+ * When the disk has a journal, blocks modified through write, writeBytes, writeByte and
+ * writeInt are metadata: they are held in the cache, whatever its capacity, until the
+ * journal transaction logging them is forced (see takeTransaction and release). Blocks
+ * written with writeData are file content and are written back as usual.
+ * Flushes and prefetches go through an IOScheduler, so their blocks reach the device in
+ * block number order with consecutive blocks in a single transfer.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class BufferCache {
+
+	private static final int DEFAULT_CAPACITY = 256;  // default number of cached blocks
+
+	/**
+	 * A cached block and whether it differs from its copy on the device.
+	 */
+	private static class Buffer {
+		byte[] data;
+		boolean dirty;
+		boolean changed;   // modified since the last transaction was taken
+		boolean pinned;    // must not reach the device before its transaction is forced
+
+		Buffer(byte[] data) {
+			this.data = data;
+		}
+	}
+
+	private BlockDevice device;
+	private IOScheduler scheduler;
+	private int blockSize;
+	private int capacity;
+	private LinkedHashMap<Integer, Buffer> buffers;
+	private long hits;
+	private long misses;
+	private boolean journaled;   // metadata blocks are held for the journal
+	private int changedCount;
+
+	/**
+	 * Creates a cache with the default capacity in front of the given device.
+	 * @param device device holding the blocks
+	 * @param blockSize number of bytes per block
+	 */
+	public BufferCache(BlockDevice device, int blockSize) {
+		this(device, blockSize, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param device device holding the blocks
+	 * @param blockSize number of bytes per block
+	 * @param capacity maximum number of blocks kept in memory
+	 */
+	public BufferCache(BlockDevice device, int blockSize, int capacity) {
+		this.device = device;
+		this.scheduler = new IOScheduler(device, blockSize);
+		this.blockSize = blockSize;
+		this.capacity = Math.max(1, capacity);
+		this.buffers = new LinkedHashMap<Integer, Buffer>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Integer, Buffer> eldest) {
+				if (size() <= BufferCache.this.capacity || eldest.getValue().pinned)
+					return false;
+				writeBack(eldest.getKey(), eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached copy of the given block, loading it from the device on a miss.
+	 * The array returned is the cache's own buffer.
+	 * @param bn block number
+	 * @return cached content of the block
+	 */
+	private Buffer load(int bn) {
+		Buffer buf = buffers.get(bn);
+		if (buf != null) {
+			hits++;
+			return buf;
+		}
+		misses++;
+		buf = new Buffer(new byte[blockSize]);
+		try {
+			device.read((long) bn * blockSize, buf.data, 0, blockSize);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		buffers.put(bn, buf);
+		return buf;
+	}
+
+	/**
+	 * Writes the buffer to the device if it was modified.
+	 * @param bn block number of the buffer
+	 * @param buf cached block
+	 */
+	private void writeBack(int bn, Buffer buf) {
+		if (!buf.dirty)
+			return;
+		try {
+			device.write((long) bn * blockSize, buf.data, 0, blockSize);
+			buf.dirty = false;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Copies the content of the given block into dst.
+	 * @param bn block number
+	 * @param dst array of at least blockSize bytes
+	 */
+	public synchronized void read(int bn, byte[] dst) {
+		System.arraycopy(load(bn).data, 0, dst, 0, blockSize);
+	}
+
+	/**
+	 * Replaces the content of the given block with src. The device is not touched
+	 * until the block is evicted or the cache is flushed.
+	 * @param bn block number
+	 * @param src array of at least blockSize bytes
+	 */
+	public synchronized void write(int bn, byte[] src) {
+		Buffer buf = buffers.get(bn);
+		if (buf == null) {
+			buf = new Buffer(new byte[blockSize]);
+			buffers.put(bn, buf);
+		}
+		System.arraycopy(src, 0, buf.data, 0, blockSize);
+		modified(buf);
+	}
+
+	/**
+	 * Replaces the content of the given block with file content. Unlike write, the block
+	 * is not logged in the journal and may be written back at any time.
+	 * @param bn block number
+	 * @param src array of at least blockSize bytes
+	 */
+	public synchronized void writeData(int bn, byte[] src) {
+		Buffer buf = buffers.get(bn);
+		if (buf == null) {
+			buf = new Buffer(new byte[blockSize]);
+			buffers.put(bn, buf);
+		}
+		System.arraycopy(src, 0, buf.data, 0, blockSize);
+		buf.dirty = true;
+	}
+
+	/**
+	 * Marks a buffer as modified metadata.
+	 */
+	private void modified(Buffer buf) {
+		buf.dirty = true;
+		if (journaled && !buf.changed) {
+			buf.changed = true;
+			buf.pinned = true;
+			changedCount++;
+		}
+	}
+
+	/**
+	 * Copies count consecutive blocks starting at src to the blocks starting at dst,
+	 * moving as many blocks as fit in chunk with each device read and write. Modified
+	 * cached copies of the source blocks are used over the device content, and cached
+	 * copies of the destination blocks are dropped since they are overwritten. The two
+	 * ranges must not overlap.
+	 * @param src first block to copy
+	 * @param dst first block to copy to
+	 * @param count number of blocks
+	 * @param chunk buffer of at least one block, reused for the whole copy
+	 */
+	public synchronized void copy(int src, int dst, int count, byte[] chunk) {
+		int per = Math.max(1, chunk.length / blockSize);
+		for (int done = 0; done < count; ) {
+			int n = Math.min(per, count - done);
+			try {
+				device.read((long) (src + done) * blockSize, chunk, 0, n * blockSize);
+				for (int i = 0; i < n; i++) {
+					Buffer buf = buffers.get(src + done + i);
+					if (buf != null && buf.dirty)
+						System.arraycopy(buf.data, 0, chunk, i * blockSize, blockSize);
+					Buffer old = buffers.remove(dst + done + i);
+					if (old != null && old.changed)
+						changedCount--;
+				}
+				device.write((long) (dst + done) * blockSize, chunk, 0, n * blockSize);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			done += n;
+		}
+	}
+
+	/**
+	 * Drops the cached copies of count consecutive blocks starting at first without
+	 * writing them back, for blocks whose content on the device replaces them.
+	 * @param first first block to drop
+	 * @param count number of blocks
+	 */
+	public synchronized void discard(int first, int count) {
+		Iterator<Map.Entry<Integer, Buffer>> it = buffers.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Integer, Buffer> e = it.next();
+			if (e.getKey() < first || e.getKey() - first >= count)
+				continue;
+			if (e.getValue().changed)
+				changedCount--;
+			it.remove();
+		}
+	}
+
+	/**
+	 * Copies length bytes starting at the given byte position of the disk into dst.
+	 * The range may span several blocks.
+	 * @param position byte offset inside the disk
+	 * @param dst destination array
+	 * @param offset first index of dst to fill
+	 * @param length number of bytes to copy
+	 */
+	public synchronized void readBytes(long position, byte[] dst, int offset, int length) {
+		while (length > 0) {
+			int bn = (int) (position / blockSize);
+			int inBlock = (int) (position % blockSize);
+			int n = Math.min(length, blockSize - inBlock);
+			System.arraycopy(load(bn).data, inBlock, dst, offset, n);
+			position += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Copies length bytes from src to the given byte position of the disk.
+	 * The range may span several blocks.
+	 * @param position byte offset inside the disk
+	 * @param src source array
+	 * @param offset first index of src to copy
+	 * @param length number of bytes to copy
+	 */
+	public synchronized void writeBytes(long position, byte[] src, int offset, int length) {
+		while (length > 0) {
+			int bn = (int) (position / blockSize);
+			int inBlock = (int) (position % blockSize);
+			int n = Math.min(length, blockSize - inBlock);
+			Buffer buf = load(bn);
+			System.arraycopy(src, offset, buf.data, inBlock, n);
+			modified(buf);
+			position += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * @param position byte offset inside the disk
+	 * @return byte stored at position
+	 */
+	public synchronized byte readByte(long position) {
+		return load((int) (position / blockSize)).data[(int) (position % blockSize)];
+	}
+
+	/**
+	 * @param position byte offset inside the disk
+	 * @param value byte to store at position
+	 */
+	public synchronized void writeByte(long position, int value) {
+		Buffer buf = load((int) (position / blockSize));
+		buf.data[(int) (position % blockSize)] = (byte) value;
+		modified(buf);
+	}
+
+	/**
+	 * Reads a big-endian integer that may span two blocks.
+	 * @param position byte offset inside the disk
+	 * @return integer stored at position
+	 */
+	public synchronized int readInt(long position) {
+		byte[] b = new byte[4];
+		readBytes(position, b, 0, 4);
+		return ((b[0] & 0xff) << 24) | ((b[1] & 0xff) << 16) | ((b[2] & 0xff) << 8) | (b[3] & 0xff);
+	}
+
+	/**
+	 * Writes a big-endian integer that may span two blocks.
+	 * @param position byte offset inside the disk
+	 * @param value integer to store at position
+	 */
+	public synchronized void writeInt(long position, int value) {
+		byte[] b = {(byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value};
+		writeBytes(position, b, 0, 4);
+	}
+
+	/**
+	 * Writes every modified block back to the device, in block number order. The blocks
+	 * stay cached.
+	 */
+	public synchronized void flush() {
+		ArrayList<Integer> dirty = new ArrayList<Integer>();
+		for (Map.Entry<Integer, Buffer> e : buffers.entrySet())
+			if (e.getValue().dirty)
+				dirty.add(e.getKey());
+		writeBack(dirty);
+	}
+
+	/**
+	 * Writes back, in block number order, every modified block that is not held for the
+	 * journal. The blocks stay cached.
+	 */
+	public synchronized void flushReleased() {
+		ArrayList<Integer> dirty = new ArrayList<Integer>();
+		for (Map.Entry<Integer, Buffer> e : buffers.entrySet())
+			if (e.getValue().dirty && !e.getValue().pinned)
+				dirty.add(e.getKey());
+		writeBack(dirty);
+	}
+
+	/**
+	 * Writes the given modified blocks back in one dispatch of the scheduler. A block
+	 * stays modified if its transfer fails.
+	 * @param dirty block numbers of cached modified blocks
+	 */
+	private void writeBack(ArrayList<Integer> dirty) {
+		ArrayList<CompletableFuture<byte[]>> done = new ArrayList<CompletableFuture<byte[]>>();
+		for (int bn : dirty)
+			done.add(scheduler.write(bn, buffers.get(bn).data));
+		scheduler.dispatch();
+		for (int i = 0; i < dirty.size(); i++) {
+			try {
+				done.get(i).join();
+				buffers.get(dirty.get(i)).dirty = false;
+			} catch (CompletionException e) {
+				e.getCause().printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Loads the given blocks that are not cached yet, all in one dispatch of the
+	 * scheduler, for a caller about to read them in some other order, such as a walk of a
+	 * directory tree. At most half the capacity is loaded, so a prefetch does not evict
+	 * the blocks it was made for. Blocks that cannot be read are left out.
+	 * @param blocks block numbers, in any order
+	 */
+	public synchronized void prefetch(Collection<Integer> blocks) {
+		LinkedHashMap<Integer, CompletableFuture<byte[]>> queued =
+				new LinkedHashMap<Integer, CompletableFuture<byte[]>>();
+		int limit = Math.max(1, capacity / 2);
+		for (int bn : blocks) {
+			if (queued.size() == limit)
+				break;
+			if (bn > 0 && !buffers.containsKey(bn) && !queued.containsKey(bn))
+				queued.put(bn, scheduler.read(bn));
+		}
+		if (queued.isEmpty())
+			return;
+		scheduler.dispatch();
+		for (Map.Entry<Integer, CompletableFuture<byte[]>> e : queued.entrySet()) {
+			try {
+				byte[] data = e.getValue().join();
+				misses++;
+				buffers.put(e.getKey(), new Buffer(data));
+			} catch (CompletionException ex) {
+				// the block is read again, and the failure reported, if it is used
+			}
+		}
+	}
+
+	/**
+	 * Starts or stops holding metadata blocks for the journal.
+	 * @param journaled true if the disk has a journal
+	 */
+	public synchronized void setJournaled(boolean journaled) {
+		this.journaled = journaled;
+	}
+
+	/**
+	 * @return number of metadata blocks modified since the last transaction was taken
+	 */
+	public synchronized int getChangedCount() {
+		return changedCount;
+	}
+
+	/**
+	 * Takes the metadata blocks modified since the last call as a journal transaction.
+	 * They are still held until release is called.
+	 * @param blocks list where the block numbers are added, in increasing order
+	 * @param images list where a copy of the content of each block is added
+	 */
+	public synchronized void takeTransaction(ArrayList<Integer> blocks, ArrayList<byte[]> images) {
+		for (Map.Entry<Integer, Buffer> e : buffers.entrySet())
+			if (e.getValue().changed)
+				blocks.add(e.getKey());
+		Collections.sort(blocks);
+		for (int bn : blocks) {
+			Buffer buf = buffers.get(bn);
+			images.add(buf.data.clone());
+			buf.changed = false;
+		}
+		changedCount = 0;
+	}
+
+	/**
+	 * Lets every block of the transactions taken so far be written back, once they are
+	 * forced in the journal, and evicts blocks until the cache is back to its capacity.
+	 */
+	public synchronized void release() {
+		for (Buffer buf : buffers.values())
+			if (!buf.changed)
+				buf.pinned = false;
+		setCapacity(capacity);
+	}
+
+	/**
+	 * Changes the maximum number of cached blocks, evicting the least recently used
+	 * ones if needed.
+	 * @param capacity new maximum number of cached blocks
+	 */
+	public synchronized void setCapacity(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		Iterator<Map.Entry<Integer, Buffer>> it = buffers.entrySet().iterator();
+		while (buffers.size() > this.capacity && it.hasNext()) {
+			Map.Entry<Integer, Buffer> e = it.next();
+			if (e.getValue().pinned)
+				continue;
+			writeBack(e.getKey(), e.getValue());
+			it.remove();
+		}
+	}
+
+	/**
+	 * @return maximum number of cached blocks
+	 */
+	public synchronized int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return number of block lookups served from memory
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return number of block lookups that had to read the device
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return number of block reads and writes sent to the device through the scheduler
+	 */
+	public long getScheduledBlocks() {
+		return scheduler.getRequests();
+	}
+
+	/**
+	 * @return number of device transfers the scheduled blocks were merged into
+	 */
+	public long getTransfers() {
+		return scheduler.getTransfers();
+	}
+}
@@ -0,0 +1,147 @@
+package diskUtilities;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Device of a live disk that has snapshots. Reads go straight to the underlying device;
+ * before any write reaches it, every block the write touches is offered to each snapshot
+ * of the disk (see Snapshot.preserve), which keeps the old content of the block the first
+ * time it changes. Without snapshots writes cost nothing extra. Every write of the disk,
+ * including the write-back of its buffer cache, goes through this device.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class CopyOnWriteBlockDevice implements BlockDevice {
+
+	private BlockDevice device;
+	private int blockSize;
+	// written while blocks are being written back, read on every write
+	private CopyOnWriteArrayList<Snapshot> snapshots = new CopyOnWriteArrayList<Snapshot>();
+	private byte[] buffer;
+
+	/**
+	 * @param device device holding the live disk
+	 * @param blockSize size of the blocks of the disk
+	 */
+	public CopyOnWriteBlockDevice(BlockDevice device, int blockSize) {
+		this.device = device;
+		this.blockSize = blockSize;
+		this.buffer = new byte[blockSize];
+	}
+
+	/**
+	 * @return the device holding the live disk, with no copy on write
+	 */
+	public BlockDevice getDevice() {
+		return device;
+	}
+
+	/**
+	 * @return snapshots currently attached to the disk
+	 */
+	public List<Snapshot> getSnapshots() {
+		return snapshots;
+	}
+
+	/**
+	 * Starts preserving the blocks the disk changes into the given snapshot.
+	 * @param s snapshot of the disk
+	 */
+	public void attach(Snapshot s) {
+		snapshots.add(s);
+	}
+
+	/**
+	 * Stops preserving blocks into the given snapshot.
+	 * @param s snapshot of the disk
+	 */
+	public void detach(Snapshot s) {
+		snapshots.remove(s);
+	}
+
+	/**
+	 * @param name name of a snapshot
+	 * @return the attached snapshot with that name, or null if there is none
+	 */
+	public Snapshot find(String name) {
+		for (Snapshot s : snapshots)
+			if (s.getName().equals(name))
+				return s;
+		return null;
+	}
+
+	/**
+	 * Lets every snapshot keep the blocks of [position, position + length) that are
+	 * about to be overwritten. Writes from several threads take turns here, since
+	 * they share the buffer.
+	 */
+	private synchronized void preserve(long position, long length) throws IOException {
+		if (snapshots.isEmpty() || length <= 0)
+			return;
+		int first = (int) (position / blockSize);
+		int last = (int) ((position + length - 1) / blockSize);
+		for (Snapshot s : snapshots)
+			for (int bn = first; bn <= last; bn++)
+				s.preserve(bn, device, buffer);
+	}
+
+	public void read(long position, byte[] dst, int offset, int length) throws IOException {
+		device.read(position, dst, offset, length);
+	}
+
+	public void write(long position, byte[] src, int offset, int length) throws IOException {
+		preserve(position, length);
+		device.write(position, src, offset, length);
+	}
+
+	public byte readByte(long position) throws IOException {
+		return device.readByte(position);
+	}
+
+	public void writeByte(long position, int value) throws IOException {
+		preserve(position, 1);
+		device.writeByte(position, value);
+	}
+
+	public int readInt(long position) throws IOException {
+		return device.readInt(position);
+	}
+
+	public void writeInt(long position, int value) throws IOException {
+		preserve(position, 4);
+		device.writeInt(position, value);
+	}
+
+	public long length() throws IOException {
+		return device.length();
+	}
+
+	/**
+	 * Cutting the disk loses the blocks past the new length, so they are preserved first.
+	 */
+	public void setLength(long length) throws IOException {
+		long old = device.length();
+		if (length < old)
+			preserve(length, old - length);
+		device.setLength(length);
+	}
+
+	/**
+	 * Forces the snapshot stores before the disk, so no block of the disk is changed on
+	 * the file before its old content is kept.
+	 */
+	public void force() throws IOException {
+		for (Snapshot s : snapshots)
+			s.force();
+		device.force();
+	}
+
+	public void close() throws IOException {
+		for (Snapshot s : snapshots)
+			s.close();
+		snapshots.clear();
+		device.close();
+	}
+}
@@ -0,0 +1,115 @@
+package diskUtilities;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded in-memory cache of directory entries of a mounted disk, keyed by the inode of
+ * the directory and the name looked up. Each entry holds the inode the name refers to, or
+ * NEGATIVE when the directory is known not to have the name, so repeated lookups of
+ * missing names are answered without reading the directory either. Entries are kept in
+ * least recently used order and the least recently used one is dropped when the cache is
+ * full. DirectoryFile keeps the cache up to date on every insertion and removal. Every
+ * method is synchronized, since lookups in different directories run at once.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class DentryCache {
+
+	public static final int NEGATIVE = -1;   // the directory has no such name
+
+	/**
+	 * Inode of a directory and a name inside it.
+	 */
+	private static class Key {
+		int dir;
+		String name;
+
+		Key(int dir, String name) {
+			this.dir = dir;
+			this.name = name;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return dir == k.dir && name.equals(k.name);
+		}
+
+		public int hashCode() {
+			return 31 * dir + name.hashCode();
+		}
+	}
+
+	private int capacity;
+	private LinkedHashMap<Key, Integer> entries;
+	private long hits;
+	private long misses;
+
+	/**
+	 * @param capacity maximum number of entries kept in memory
+	 */
+	public DentryCache(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		this.entries = new LinkedHashMap<Key, Integer>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Key, Integer> eldest) {
+				return size() > DentryCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * @param dir inode index of a directory
+	 * @param name name looked up in the directory
+	 * @return inode index the name refers to, NEGATIVE if the directory is known not to
+	 * have the name, or null if the cache knows nothing about it
+	 */
+	public synchronized Integer get(int dir, String name) {
+		Integer node = entries.get(new Key(dir, name));
+		if (node == null)
+			misses++;
+		else
+			hits++;
+		return node;
+	}
+
+	/**
+	 * Records what a name of a directory refers to.
+	 * @param dir inode index of a directory
+	 * @param name name in the directory
+	 * @param node inode index the name refers to, or NEGATIVE if there is no such name
+	 */
+	public synchronized void put(int dir, String name, int node) {
+		entries.put(new Key(dir, name), node);
+	}
+
+	/**
+	 * Forgets every entry of a directory, used once the directory is removed so its
+	 * inode can be reused.
+	 * @param dir inode index of the directory
+	 */
+	public synchronized void dropDirectory(int dir) {
+		Iterator<Key> it = entries.keySet().iterator();
+		while (it.hasNext())
+			if (it.next().dir == dir)
+				it.remove();
+	}
+
+	/**
+	 * @return number of lookups answered by the cache
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return number of lookups the cache could not answer
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+}
@@ -25,193 +25,59 @@ public class Directory {
 	/**
 	 * Travels recursively through every non empty directory. First it verifies if content of directory is 
 	 * file or directory. If it is a directory it verifies if it is empty, if it is empty it deletes it, if it is not empty 
-	 * the method calls itself. If it is a file it simply deletes it
-	 * @param files an array list with the content of the current directory the method is verifying
+	 * the method calls itself. If it is a file it simply deletes it. Directories are passed by inode index, so the 
+	 * current directory of the user is never moved
+	 * @param files an array list with the content of the directory the method is verifying
 	 * @param d an instance of the current disk 
-	 * @param inodeDir inode index of the next directory the method is moving to
-	 * @param currentDir inode index of the previous directory 
+	 * @param inodeDir inode index of the directory holding the files
 	 *   
 	**/
-	public void deleteFiles(ArrayList<String> files, DiskUnit d, int inodeDir, int currentDir) {
-    	d.pushDir(currentDir);
-    	d.setDirectory(inodeDir);
+	public void deleteFiles(ArrayList<String> files, DiskUnit d, int inodeDir) {
+		new Find().prefetch(files, d, inodeDir, false); //every file is read to be freed
 		for (String file : files) {
-	        if (isDirectory(file, d)) {
-	        	int inode = this.findFile(file, d);
+	        if (isDirectory(file, d, inodeDir)) {
+	        	int inode = this.findFile(file, d, inodeDir);
 	        	if(d.getInodeSize(inode)>1){
-		            deleteFiles(this.createList(inode, d),d, inode, inodeDir); // Calls same method again.
+		            deleteFiles(this.createList(inode, d),d, inode); // Calls same method again.
 	        	}
-		        deleteDir(file, d);
+		        deleteDir(file, d, inodeDir);
 	        } else {
-	        	deleteFile(file, d);
+	        	deleteFile(file, d, inodeDir);
 	        }
 	    }
-		int oldDir = d.popDir();
-		d.setDirectory(oldDir);
 	}
 
 	/**
-	 * Removes target file from current directory and disk 
+	 * Removes target file from a directory and disk 
 	 * (works exactly like the RemoveFileProcessor in the SystemCommandsProcessor class)
 	 * @param name name of the target file to remove
 	 * @param d an instance of the current disk 
+	 * @param dir inode index of the directory holding the file
 	 *   
 	**/
-	public void deleteFile(String name, DiskUnit d){
-	    
-	    String nme = "";
-	    Utils util = new Utils();
-	    int directoryFirst = d.getInodeFBlock(d.getcurrentDir());
-	    
-		VirtualDiskBlock vdm = new VirtualDiskBlock(d.getBlockSize());
-	    VirtualDiskBlock vdb = new VirtualDiskBlock(d.getBlockSize());
-		
-		int inodeIndex=0;
-		int prev=0;
-		int next;
-		int prevInode;
-	    int sizeD= d.getInodeSize(d.getcurrentDir());
-		int bn = d.getInodeFBlock(d.getcurrentDir()); //finds file on directory
-	
-		while (bn != 0) { //find and erase from directory
-			d.read(bn, vdb);  
-			nme=util.stringFromVirtualDiskBlock(bn, vdb);
-			next= util.getNextBNFromBlock(vdb);
-			
-			if(nme.equals(name) && bn==directoryFirst && next==0){
-				inodeIndex = util.getIntFromBlock(vdb, (d.getBlockSize()-8));
-				d.registerFB(bn);
-				d.setInode(d.getcurrentDir(), 1, 0);
-				break;
-			}
-			
-			if(nme.equals(name)&& bn==directoryFirst){
-				inodeIndex = util.getIntFromBlock(vdb, (d.getBlockSize()-8));
-				d.registerFB(bn);
-				bn = util.getNextBNFromBlock(vdb);
-				d.setInode(d.getcurrentDir(), sizeD-d.getBlockSize(), bn);
-				break;
-			}
-			
-			if(nme.equals(name)&& next==0){
-				inodeIndex = util.getIntFromBlock(vdb, (d.getBlockSize()-8));
-				d.registerFB(bn);
-				d.read(prev, vdb);
-				util.copyNextBNToBlock(vdb, 0);
-				d.write(prev, vdb);
-				d.setInode(d.getcurrentDir(), sizeD-d.getBlockSize());
-				break;
-			}
-			
-			if(nme.equals(name)){
-				inodeIndex = util.getIntFromBlock(vdb, (d.getBlockSize()-8));
-				d.registerFB(bn);
-				d.read(prev, vdb);
-				util.copyNextBNToBlock(vdb, next);
-				d.write(prev, vdb);
-				d.setInode(d.getcurrentDir(), sizeD-d.getBlockSize());
-				break;
-			}
-			prev=bn;
-			bn = util.getNextBNFromBlock(vdb);
-		}
-		
-		int fileStart = d.getInodeFBlock(inodeIndex); //!!!!!!!!
-		int fileStart2 = fileStart;
-		d.registerFB(fileStart);
-		
-		int counter=d.getBlockSize()-20;
-		int b2=0;
-		int b1=5;
-		d.read(fileStart, vdm);
-		
-		while (fileStart2!=0) {//finds file on disk using inode
-			b2++;
-			fileStart2 = util.getNextBNFromBlock2(vdm, counter);
-			if(fileStart2!=0){
-				d.registerFB(fileStart2);
-			}
-			counter+=4;
-			if(b2>=b1-1){
-				fileStart = util.getNextBNFromBlock2(vdm, counter);
-				d.read(fileStart, vdm);
-				if(fileStart!=0){
-					d.registerFB(fileStart);
-				}
-				counter=0;
-				b2=0;
-				b1=(d.getBlockSize()/4);
-			}
+	public void deleteFile(String name, DiskUnit d, int dir){
+		int inodeIndex = new DirectoryFile(d, dir).remove(name); //erases file from directory
+		if(inodeIndex==-1){
+			return;
 		}
-		
+		FileMap.open(d, inodeIndex).free(); //registers every block the file uses as free
 		d.setInode(inodeIndex, 1, 1);
-		d.setInodeToDirectory(d.getcurrentDir());
 	}
 	
 	/**
-	 * Removes target directory from current directory and disk 
+	 * Removes target directory from a directory and disk 
 	 * (works exactly like the RemoveDirectoryProcessor in the SystemCommandsProcessor class)
 	 * @param name name of the target directory to remove
 	 * @param d an instance of the current disk 
+	 * @param dir inode index of the directory holding it
 	 *   
 	**/
-	public void deleteDir(String name, DiskUnit d){
-		VirtualDiskBlock vdb = new VirtualDiskBlock(d.getBlockSize());
-	    Utils util = new Utils();
-		String nme = "";
-		int directoryFirst = d.getInodeFBlock(d.getcurrentDir());
-		int inodeIndex = this.findFile(name, d);
-		int prev=0;
-		int next;
-		int prevInode;
-	    int sizeD= d.getInodeSize(d.getcurrentDir());
-		int bn = d.getInodeFBlock(d.getcurrentDir()); //finds file on directory
-		
-		while (bn != 0) { //find and erase from directory
-			d.read(bn, vdb);  
-			nme=util.stringFromVirtualDiskBlock(bn, vdb);
-			next= util.getNextBNFromBlock(vdb);
-			
-			if(nme.equals(name) && bn==directoryFirst && next==0){
-				inodeIndex = util.getIntFromBlock(vdb, (d.getBlockSize()-8));
-				d.registerFB(bn);
-				d.setInode(d.getcurrentDir(), 1, 0);
-				break;
-			}
-			
-			if(nme.equals(name)&& bn==directoryFirst){
-				inodeIndex = util.getIntFromBlock(vdb, (d.getBlockSize()-8));
-				d.registerFB(bn);
-				bn = util.getNextBNFromBlock(vdb);
-				d.setInode(d.getcurrentDir(), sizeD-d.getBlockSize(), bn);
-				break;
-			}
-			
-			if(nme.equals(name)&& next==0){
-				inodeIndex = util.getIntFromBlock(vdb, (d.getBlockSize()-8));
-				d.registerFB(bn);
-				d.read(prev, vdb);
-				util.copyNextBNToBlock(vdb, 0);
-				d.write(prev, vdb);
-				d.setInode(d.getcurrentDir(), sizeD-d.getBlockSize());
-				break;
-			}
-			
-			if(nme.equals(name)){
-				inodeIndex = util.getIntFromBlock(vdb, (d.getBlockSize()-8));
-				d.registerFB(bn);
-				d.read(prev, vdb);
-				util.copyNextBNToBlock(vdb, next);
-				d.write(prev, vdb);
-				d.setInode(d.getcurrentDir(), sizeD-d.getBlockSize());
-				break;
-			}
-			prev=bn;
-			bn = util.getNextBNFromBlock(vdb);
+	public void deleteDir(String name, DiskUnit d, int dir){
+		int inodeIndex = new DirectoryFile(d, dir).remove(name); //erases directory from directory
+		if(inodeIndex==-1){
+			return;
 		}
-		
 		d.setInode(inodeIndex, 1, 1);
-		d.setInodeToDirectory(d.getcurrentDir());
 	}
 	
 	/** 
@@ -219,10 +85,11 @@ public class Directory {
      * @return true if file is directory, false otherwise
 	 * @param name name of the target to determine if it is directory or file
 	 * @param d an instance of the current disk 
+	 * @param dir inode index of the directory holding it
 	**/
-	public boolean isDirectory(String name, DiskUnit d){
-		int inodeIndex=this.findFile(name, d);
-		if(d.getInodeType(inodeIndex)==0){
+	public boolean isDirectory(String name, DiskUnit d, int dir){
+		int inodeIndex=this.findFile(name, d, dir);
+		if(inodeIndex!=-1 && d.isDirectory(inodeIndex)){
 			return true;
 		}
 		return false;
@@ -233,30 +100,10 @@ public class Directory {
      * @return target directory or file inode index, return -1 if file is not found
 	 * @param name name of the target to find
 	 * @param d an instance of the current disk 
+	 * @param dir inode index of the directory to look in
 	**/
-	public int findFile(String name, DiskUnit d){
-		
-		int bn = d.getInodeFBlock(d.getcurrentDir());
-		int inodeIndex=0;	
-		VirtualDiskBlock vdb = new VirtualDiskBlock(d.getBlockSize());
-	    String nme = "";
-	    Utils util = new Utils();
-	    
-		while (bn != 0) { //finds file in directory
-			d.read(bn, vdb); 
-			nme=util.stringFromVirtualDiskBlock(bn, vdb);
-			if(nme.equals(name)){
-				inodeIndex = util.getIntFromBlock(vdb, (d.getBlockSize()-8));
-				break;
-			}
-			bn = util.getNextBNFromBlock(vdb);
-		}
-		
-		if(bn==0){
-			return -1;
-		}
-		
-		return inodeIndex;
+	public int findFile(String name, DiskUnit d, int dir){
+		return new DirectoryFile(d, dir).lookup(name);
 	}
 	
 	/** 
@@ -266,20 +113,7 @@ public class Directory {
 	 * @param d an instance of the current disk 
 	**/
 	public ArrayList<String> createList(int inodeIndex,  DiskUnit d){
-		
-		ArrayList<String> list = new ArrayList<String>();
-		VirtualDiskBlock vdb = new VirtualDiskBlock(d.getBlockSize());
-		int bn = d.getInodeFBlock(inodeIndex);	
-	    String nme = "";
-	    Utils util = new Utils();
-	    
-		while (bn != 0) { //finds file in directory
-			d.read(bn, vdb); 
-			nme=util.stringFromVirtualDiskBlock(bn, vdb);
-			list.add(nme);
-			bn = util.getNextBNFromBlock(vdb);
-		}
-		return list;
+		return new DirectoryFile(d, inodeIndex).names();
 	}
 
 }
@@ -0,0 +1,198 @@
+package diskUtilities;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A directory block holding many entries, laid out as a slotted page. Bytes 0-3 hold the
+ * next block of the directory (0 in the last one), bytes 4-5 the number of entries and
+ * bytes 6-7 the number of bytes taken by entries. The slot array follows the header, one
+ * 2 byte offset per entry; entries are packed from the end of the block towards the slots
+ * and each is the inode index (4 bytes), the name length (1 byte) and the name. The space
+ * between the last slot and the first entry is the free space of the block, and it is
+ * kept contiguous by compacting the entries on every removal.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class DirectoryBlock {
+
+	public static final int HEADER = 8;        // next block, entry count, bytes in use
+	public static final int SLOT = 2;          // offset of an entry
+	public static final int ENTRY_HEADER = 5;  // inode index and name length
+
+	private VirtualDiskBlock vdb;
+	private int blockSize;
+
+	/**
+	 * @param blockSize size of the blocks of the disk
+	 */
+	public DirectoryBlock(int blockSize) {
+		this(new VirtualDiskBlock(blockSize));
+	}
+
+	/**
+	 * @param vdb block holding the directory block, such as one leased from the disk's
+	 * BlockPool
+	 */
+	public DirectoryBlock(VirtualDiskBlock vdb) {
+		this.blockSize = vdb.getCapacity();
+		this.vdb = vdb;
+	}
+
+	/**
+	 * @return the block as read from and written to the disk
+	 */
+	public VirtualDiskBlock getBlock() {
+		return vdb;
+	}
+
+	/**
+	 * @param blockSize size of the blocks of the disk
+	 * @return length of the longest name a directory block can hold
+	 */
+	public static int maxNameLength(int blockSize) {
+		return Math.min(255, blockSize - HEADER - SLOT - ENTRY_HEADER);
+	}
+
+	/**
+	 * @param nameLength length of a name
+	 * @return bytes of a block taken by an entry with a name of that length
+	 */
+	public static int entrySize(int nameLength) {
+		return SLOT + ENTRY_HEADER + nameLength;
+	}
+
+	/**
+	 * Turns the block into an empty directory block.
+	 */
+	public void clear() {
+		vdb.clear();
+	}
+
+	/**
+	 * @return next block of the directory, 0 if this is the last one
+	 */
+	public int getNext() {
+		return Utils.getIntFromBlock(vdb, 0);
+	}
+
+	/**
+	 * @param next next block of the directory, 0 if this is the last one
+	 */
+	public void setNext(int next) {
+		Utils.copyIntToBlock(vdb, 0, next);
+	}
+
+	/**
+	 * @return number of entries in the block
+	 */
+	public int getCount() {
+		return getShort(4);
+	}
+
+	/**
+	 * @return number of free bytes in the block
+	 */
+	public int getFreeSpace() {
+		return blockSize - HEADER - getCount() * SLOT - getUsed();
+	}
+
+	/**
+	 * @param slot index of an entry of the block
+	 * @return inode index of the entry
+	 */
+	public int getInode(int slot) {
+		return Utils.getIntFromBlock(vdb, offset(slot));
+	}
+
+	/**
+	 * @param slot index of an entry of the block
+	 * @return name of the entry
+	 */
+	public String getName(int slot) {
+		int p = offset(slot);
+		int length = vdb.getElement(p + 4) & 0xff;
+		return new String(vdb.block, p + ENTRY_HEADER, length, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Finds an entry by comparing the stored bytes, no name is decoded.
+	 * @param name bytes of the name looked for
+	 * @return index of the entry with that name, or -1 if there is none
+	 */
+	public int find(byte[] name) {
+		int count = getCount();
+		for (int slot = 0; slot < count; slot++) {
+			int p = offset(slot);
+			if ((vdb.getElement(p + 4) & 0xff) != name.length)
+				continue;
+			int i = 0;
+			while (i < name.length && vdb.getElement(p + ENTRY_HEADER + i) == name[i])
+				i++;
+			if (i == name.length)
+				return slot;
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds an entry at the end of the block if there is room for it.
+	 * @param name bytes of the name
+	 * @param inode inode index the name refers to
+	 * @return false if the block has no room for the entry
+	 */
+	public boolean add(byte[] name, int inode) {
+		int size = ENTRY_HEADER + name.length;
+		if (getFreeSpace() < SLOT + size)
+			return false;
+		int count = getCount();
+		int used = getUsed() + size;
+		int p = blockSize - used;
+		Utils.copyIntToBlock(vdb, p, inode);
+		vdb.setElement(p + 4, (byte) name.length);
+		System.arraycopy(name, 0, vdb.block, p + ENTRY_HEADER, name.length);
+		putShort(HEADER + count * SLOT, p);
+		putShort(4, count + 1);
+		putShort(6, used);
+		return true;
+	}
+
+	/**
+	 * Removes an entry, moving the entries stored before it so the free space of the
+	 * block stays in one piece.
+	 * @param slot index of the entry to remove
+	 */
+	public void remove(int slot) {
+		int count = getCount();
+		int p = offset(slot);
+		int size = ENTRY_HEADER + (vdb.getElement(p + 4) & 0xff);
+		int heap = blockSize - getUsed();
+		System.arraycopy(vdb.block, heap, vdb.block, heap + size, p - heap);
+		for (int i = heap; i < heap + size; i++)
+			vdb.setElement(i, (byte) 0);
+		for (int s = slot; s < count - 1; s++)
+			putShort(HEADER + s * SLOT, getShort(HEADER + (s + 1) * SLOT));
+		for (int s = 0; s < count - 1; s++)
+			if (offset(s) < p)
+				putShort(HEADER + s * SLOT, offset(s) + size);
+		putShort(HEADER + (count - 1) * SLOT, 0);
+		putShort(4, count - 1);
+		putShort(6, getUsed() - size);
+	}
+
+	private int offset(int slot) {
+		return getShort(HEADER + slot * SLOT);
+	}
+
+	private int getUsed() {
+		return getShort(6);
+	}
+
+	private int getShort(int p) {
+		return ((vdb.getElement(p) & 0xff) << 8) | (vdb.getElement(p + 1) & 0xff);
+	}
+
+	private void putShort(int p, int value) {
+		vdb.setElement(p, (byte) (value >> 8));
+		vdb.setElement(p + 1, (byte) value);
+	}
+}
@@ -0,0 +1,35 @@
+package diskUtilities;
+
+/**
+ * A name inside a directory and the inode it refers to.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class DirectoryEntry {
+
+	private String name;
+	private int inode;
+
+	/**
+	 * @param name name of the file or directory
+	 * @param inode inode index of the file or directory
+	 */
+	public DirectoryEntry(String name, int inode) {
+		this.name = name;
+		this.inode = inode;
+	}
+
+	/**
+	 * @return name of the file or directory
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return inode index of the file or directory
+	 */
+	public int getInode() {
+		return inode;
+	}
+}
@@ -0,0 +1,396 @@
+package diskUtilities;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import exceptions.FullDiskException;
+
+/**
+ * The entries of a directory as they are stored on disk. Directories in the original
+ * format take one block per entry; they are still read as they are, give back the block
+ * of an entry removed, and are rewritten in packed format (see DirectoryBlock) the first
+ * time an entry is added. A packed directory that outgrows its blocks gets a hashed index
+ * (see DirectoryIndex), so lookups in large directories read a few blocks instead of all
+ * of them. Every lookup, listing, insertion and removal of directory entries goes through
+ * this class, which keeps the dentry cache of the disk (see DentryCache) in step with
+ * them. The size of a directory is the number of bytes of its blocks, or 1 when it is
+ * empty and has no blocks.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class DirectoryFile {
+
+	private DiskUnit d;
+	private int inode;
+	private int blockSize;
+	private DentryCache dentries;
+	private BlockPool pool;
+
+	/**
+	 * @param d disk holding the directory
+	 * @param inode inode index of the directory
+	 */
+	public DirectoryFile(DiskUnit d, int inode) {
+		this.d = d;
+		this.inode = inode;
+		this.blockSize = d.getBlockSize();
+		this.dentries = d.getDentryCache();
+		this.pool = d.getBlockPool();
+	}
+
+	/**
+	 * @return inode index of the directory
+	 */
+	public int getInode() {
+		return inode;
+	}
+
+	/**
+	 * @return true if the directory has no entries
+	 */
+	public boolean isEmpty() {
+		return d.getInodeSize(inode) <= 1;
+	}
+
+	/**
+	 * @param name a name
+	 * @return true if a directory entry can hold the name
+	 */
+	public boolean fits(String name) {
+		return name.length() <= DirectoryBlock.maxNameLength(blockSize);
+	}
+
+	private boolean isPacked() {
+		return d.getInodeType(inode) == DiskUnit.TYPE_PACKED_DIRECTORY;
+	}
+
+	private boolean isIndexed() {
+		return d.getInodeType(inode) == DiskUnit.TYPE_INDEXED_DIRECTORY;
+	}
+
+	/**
+	 * Finds the inode a name of the directory refers to, asking the dentry cache first.
+	 * @param name name looked for
+	 * @return inode index of the entry, or -1 if the directory has no such name
+	 */
+	public int lookup(String name) {
+		Integer cached = dentries.get(inode, name);
+		if (cached != null)
+			return cached;
+		int node = find(name);
+		dentries.put(inode, name, node);
+		return node;
+	}
+
+	private int find(String name) {
+		if (isEmpty())
+			return -1;
+		if (isIndexed())
+			return new DirectoryIndex(d, inode).lookup(name.getBytes(StandardCharsets.ISO_8859_1));
+		if (!isPacked()) {
+			for (DirectoryEntry e : read())
+				if (e.getName().equals(name))
+					return e.getInode();
+			return -1;
+		}
+		byte[] key = name.getBytes(StandardCharsets.ISO_8859_1);
+		DirectoryBlock db = new DirectoryBlock(pool.lease());
+		try {
+			for (int bn = d.getInodeFBlock(inode); bn != 0; bn = db.getNext()) {
+				d.read(bn, db.getBlock());
+				int slot = db.find(key);
+				if (slot != -1)
+					return db.getInode(slot);
+			}
+			return -1;
+		} finally {
+			pool.release(db.getBlock());
+		}
+	}
+
+	/**
+	 * @return every entry of the directory, in the order they were added, or in hash
+	 * order for an indexed directory. The entries are recorded in the dentry cache, so
+	 * looking up each of them afterwards does not read the directory again.
+	 */
+	public ArrayList<DirectoryEntry> entries() {
+		ArrayList<DirectoryEntry> list = read();
+		for (DirectoryEntry e : list)
+			dentries.put(inode, e.getName(), e.getInode());
+		return list;
+	}
+
+	private ArrayList<DirectoryEntry> read() {
+		ArrayList<DirectoryEntry> list = new ArrayList<DirectoryEntry>();
+		if (isEmpty())
+			return list;
+		if (isIndexed())
+			return new DirectoryIndex(d, inode).entries();
+		VirtualDiskBlock vdb = pool.lease();
+		if (!isPacked()) {
+			for (int bn = d.getInodeFBlock(inode); bn != 0; bn = Utils.getNextBNFromBlock(vdb)) {
+				d.read(bn, vdb);
+				list.add(new DirectoryEntry(Utils.stringFromVirtualDiskBlock(bn, vdb),
+						vdb.getInt(blockSize - 8)));
+			}
+			pool.release(vdb);
+			return list;
+		}
+		DirectoryBlock db = new DirectoryBlock(vdb);
+		for (int bn = d.getInodeFBlock(inode); bn != 0; bn = db.getNext()) {
+			d.read(bn, vdb);
+			for (int slot = 0; slot < db.getCount(); slot++)
+				list.add(new DirectoryEntry(db.getName(slot), db.getInode(slot)));
+		}
+		pool.release(vdb);
+		return list;
+	}
+
+	/**
+	 * @return the names of every entry of the directory
+	 */
+	public ArrayList<String> names() {
+		ArrayList<String> list = new ArrayList<String>();
+		for (DirectoryEntry e : entries())
+			list.add(e.getName());
+		return list;
+	}
+
+	/**
+	 * Adds an entry to the first block of the directory with room for it. When no block
+	 * has room, an empty directory gets its first block and any other directory is
+	 * rebuilt with a hashed index.
+	 * @param name name of the new entry
+	 * @param node inode index the name refers to
+	 * @throws FullDiskException whenever a new block is needed and the disk is full
+	 */
+	public void add(String name, int node) throws FullDiskException {
+		insert(name, node);
+		dentries.put(inode, name, node);
+	}
+
+	private void insert(String name, int node) throws FullDiskException {
+		byte[] key = name.getBytes(StandardCharsets.ISO_8859_1);
+		if (isIndexed()) {
+			new DirectoryIndex(d, inode).add(key, node);
+			return;
+		}
+		if (!isPacked())
+			convert();
+		DirectoryBlock db = new DirectoryBlock(pool.lease());
+		try {
+			int last = 0;
+			for (int bn = d.getInodeFBlock(inode); bn != 0; bn = db.getNext()) {
+				d.read(bn, db.getBlock());
+				if (db.add(key, node)) {
+					d.write(bn, db.getBlock());
+					return;
+				}
+				last = bn;
+			}
+			if (last != 0) {
+				ArrayList<DirectoryEntry> list = read();
+				list.add(new DirectoryEntry(name, node));
+				ArrayList<Integer> old = new ArrayList<Integer>();
+				for (int bn = d.getInodeFBlock(inode); bn != 0; bn = db.getNext()) {
+					d.read(bn, db.getBlock());
+					old.add(bn);
+				}
+				long size = d.getInodeSize(inode);
+				try {
+					DirectoryIndex.build(d, inode, list);
+				} catch (FullDiskException e) {
+					d.setPackedDirectoryInode(inode, size, old.get(0));   // still as it was
+					throw e;
+				}
+				for (int bn : old)
+					d.registerFB(bn);
+				return;
+			}
+			int block = d.getFreeBN();
+			db.clear();
+			db.add(key, node);
+			d.write(block, db.getBlock());
+			link(last, block);
+		} finally {
+			pool.release(db.getBlock());
+		}
+	}
+
+	/**
+	 * Removes the entry with the given name. A block left without entries is unlinked
+	 * from the directory and registered as free.
+	 * @param name name of the entry to remove
+	 * @return inode index the removed entry referred to, or -1 if there was no such name
+	 */
+	public int remove(String name) {
+		if (lookup(name) == -1)
+			return -1;
+		int node = delete(name);
+		dentries.put(inode, name, DentryCache.NEGATIVE);
+		if (d.isDirectory(node)) {
+			dentries.dropDirectory(node);
+			d.markRemovedDirectory(node);
+		}
+		return node;
+	}
+
+	private int delete(String name) {
+		byte[] key = name.getBytes(StandardCharsets.ISO_8859_1);
+		if (isIndexed())
+			return new DirectoryIndex(d, inode).remove(key);
+		if (!isPacked())
+			return deleteOriginal(name);
+		DirectoryBlock db = new DirectoryBlock(pool.lease());
+		try {
+			int prev = 0;
+			for (int bn = d.getInodeFBlock(inode); bn != 0; bn = db.getNext()) {
+				d.read(bn, db.getBlock());
+				int slot = db.find(key);
+				if (slot == -1) {
+					prev = bn;
+					continue;
+				}
+				int node = db.getInode(slot);
+				db.remove(slot);
+				if (db.getCount() > 0)
+					d.write(bn, db.getBlock());
+				else
+					unlink(prev, bn, db.getNext());
+				return node;
+			}
+			return -1;
+		} finally {
+			pool.release(db.getBlock());
+		}
+	}
+
+	/**
+	 * Takes the block of an entry out of a directory in the original one block per entry
+	 * format, which is kept in that format, so removing never needs a free block.
+	 */
+	private int deleteOriginal(String name) {
+		VirtualDiskBlock vdb = pool.lease();
+		try {
+			int prev = 0;
+			for (int bn = d.getInodeFBlock(inode); bn != 0; bn = Utils.getNextBNFromBlock(vdb)) {
+				d.read(bn, vdb);
+				if (!Utils.stringFromVirtualDiskBlock(bn, vdb).equals(name)) {
+					prev = bn;
+					continue;
+				}
+				int node = vdb.getInt(blockSize - 8);
+				int next = Utils.getNextBNFromBlock(vdb);
+				long size = d.getInodeSize(inode) - blockSize;
+				if (prev == 0)
+					d.setDirectoryInode(inode, size > 0 ? size : 1, next);
+				else {
+					d.read(prev, vdb);
+					Utils.copyNextBNToBlock(vdb, next);
+					d.write(prev, vdb);
+					d.setDirectoryInode(inode, size, d.getInodeFBlock(inode));
+				}
+				d.registerFB(bn);
+				return node;
+			}
+			return -1;
+		} finally {
+			pool.release(vdb);
+		}
+	}
+
+	/**
+	 * Links a new block after the given one, or as the first block of an empty directory.
+	 */
+	private void link(int last, int block) {
+		long size = d.getInodeSize(inode);
+		if (last == 0) {
+			d.setPackedDirectoryInode(inode, blockSize, block);
+			return;
+		}
+		DirectoryBlock db = new DirectoryBlock(pool.lease());
+		d.read(last, db.getBlock());
+		db.setNext(block);
+		d.write(last, db.getBlock());
+		pool.release(db.getBlock());
+		d.setPackedDirectoryInode(inode, size + blockSize, d.getInodeFBlock(inode));
+	}
+
+	/**
+	 * Takes an empty block out of the directory and registers it as free.
+	 */
+	private void unlink(int prev, int bn, int next) {
+		long size = d.getInodeSize(inode) - blockSize;
+		if (prev == 0)
+			d.setPackedDirectoryInode(inode, size > 0 ? size : 1, next);
+		else {
+			DirectoryBlock db = new DirectoryBlock(pool.lease());
+			d.read(prev, db.getBlock());
+			db.setNext(next);
+			d.write(prev, db.getBlock());
+			pool.release(db.getBlock());
+			d.setPackedDirectoryInode(inode, size, d.getInodeFBlock(inode));
+		}
+		d.registerFB(bn);
+	}
+
+	/**
+	 * Rewrites a directory in the original one block per entry format as a packed
+	 * directory holding the same entries in the same order. Every block of the packed
+	 * directory is taken before the old ones are registered as free, so on a full disk
+	 * the directory is left as it was.
+	 * @throws FullDiskException whenever the disk does not have the blocks needed
+	 */
+	private void convert() throws FullDiskException {
+		ArrayList<DirectoryEntry> list = read();
+		ArrayList<Integer> old = new ArrayList<Integer>();
+		VirtualDiskBlock vdb = pool.lease();
+		if (!isEmpty())
+			for (int bn = d.getInodeFBlock(inode); bn != 0; bn = Utils.getNextBNFromBlock(vdb)) {
+				d.read(bn, vdb);
+				old.add(bn);
+			}
+
+		DirectoryBlock db = new DirectoryBlock(vdb);
+		int needed = 0;   // packs the entries once without writing to count the blocks
+		for (DirectoryEntry e : list) {
+			byte[] key = e.getName().getBytes(StandardCharsets.ISO_8859_1);
+			if (needed > 0 && db.add(key, e.getInode()))
+				continue;
+			needed++;
+			db.clear();
+			db.add(key, e.getInode());
+		}
+		ArrayList<Integer> blocks = new ArrayList<Integer>();
+		try {
+			while (blocks.size() < needed)
+				blocks.add(d.getFreeBN());
+		} catch (FullDiskException e) {
+			for (int bn : blocks)
+				d.returnFB(bn);
+			pool.release(vdb);
+			throw e;
+		}
+
+		int current = -1;
+		for (DirectoryEntry e : list) {
+			byte[] key = e.getName().getBytes(StandardCharsets.ISO_8859_1);
+			if (current != -1 && db.add(key, e.getInode()))
+				continue;
+			if (current != -1) {
+				db.setNext(blocks.get(current + 1));
+				d.write(blocks.get(current), db.getBlock());
+			}
+			current++;
+			db.clear();
+			db.add(key, e.getInode());
+		}
+		if (current != -1)
+			d.write(blocks.get(current), db.getBlock());
+		pool.release(vdb);
+		d.setPackedDirectoryInode(inode, needed > 0 ? needed * blockSize : 1,
+				needed > 0 ? blocks.get(0) : 0);
+		for (int bn : old)
+			d.registerFB(bn);
+	}
+}
@@ -0,0 +1,572 @@
+package diskUtilities;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import exceptions.FullDiskException;
+
+/**
+ * Hashed index of a large directory, in the manner of the ext4 htree. The inode of the
+ * directory holds the root of a tree of index nodes; every index node takes one block:
+ * bytes 0-3 hold its level (0 when its children are leaves), bytes 4-7 the number of
+ * entries, followed by (hash, child block) entries sorted by hash. A child holds the names
+ * whose hash lies between its own hash and the hash of the next entry. Leaves are packed
+ * directory blocks (see DirectoryBlock) whose next pointer links overflow blocks holding
+ * more names of the same hash range. Names sharing a hash are never split between leaves,
+ * so looking up a name reads one block per level plus its leaf.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class DirectoryIndex {
+
+	private static final int HEADER = 8;   // level and entry count
+	private static final int ENTRY = 8;    // hash and child block
+
+	/**
+	 * An index node held in memory while it is searched or changed.
+	 */
+	private static class Node {
+		int block;
+		int level;
+		int count;
+		int[] hash;
+		int[] child;
+	}
+
+	private DiskUnit d;
+	private int inode;
+	private int blockSize;
+	private int capacity;   // entries per index node
+	private BlockPool pool;
+	private ArrayList<Integer> reserved = new ArrayList<Integer>();   // taken ahead by reserve
+	private ArrayList<Integer> taken;   // every block allocated, kept while building
+
+	/**
+	 * @param d disk holding the directory
+	 * @param inode inode index of the directory
+	 */
+	public DirectoryIndex(DiskUnit d, int inode) {
+		this.d = d;
+		this.inode = inode;
+		this.blockSize = d.getBlockSize();
+		this.capacity = (blockSize - HEADER) / ENTRY;
+		this.pool = d.getBlockPool();
+	}
+
+	/**
+	 * FNV-1a hash of a name, kept positive.
+	 * @param name bytes of the name
+	 * @return hash of the name
+	 */
+	public static int hash(byte[] name) {
+		int h = 0x811c9dc5;
+		for (byte b : name) {
+			h ^= b & 0xff;
+			h *= 0x01000193;
+		}
+		return h & 0x7fffffff;
+	}
+
+	private static int hash(DirectoryEntry e) {
+		return hash(e.getName().getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	/**
+	 * Finds the inode a name of the directory refers to.
+	 * @param key bytes of the name looked for
+	 * @return inode index of the entry, or -1 if the directory has no such name
+	 */
+	public int lookup(byte[] key) {
+		ArrayList<Node> path = new ArrayList<Node>();
+		ArrayList<Integer> positions = new ArrayList<Integer>();
+		int leaf = descend(hash(key), path, positions);
+		DirectoryBlock db = new DirectoryBlock(pool.lease());
+		try {
+			for (int bn = leaf; bn != 0; bn = db.getNext()) {
+				d.read(bn, db.getBlock());
+				int slot = db.find(key);
+				if (slot != -1)
+					return db.getInode(slot);
+			}
+			return -1;
+		} finally {
+			pool.release(db.getBlock());
+		}
+	}
+
+	/**
+	 * @return every entry of the directory, in hash order
+	 */
+	public ArrayList<DirectoryEntry> entries() {
+		ArrayList<DirectoryEntry> list = new ArrayList<DirectoryEntry>();
+		collect(d.getInodeFBlock(inode), list);
+		return list;
+	}
+
+	private void collect(int bn, ArrayList<DirectoryEntry> list) {
+		Node node = readNode(bn);
+		DirectoryBlock db = new DirectoryBlock(pool.lease());
+		for (int i = 0; i < node.count; i++) {
+			if (node.level > 0) {
+				collect(node.child[i], list);
+				continue;
+			}
+			for (int leaf = node.child[i]; leaf != 0; leaf = db.getNext()) {
+				d.read(leaf, db.getBlock());
+				for (int slot = 0; slot < db.getCount(); slot++)
+					list.add(new DirectoryEntry(db.getName(slot), db.getInode(slot)));
+			}
+		}
+		pool.release(db.getBlock());
+	}
+
+	/**
+	 * Adds an entry to the leaf its hash belongs to. A full leaf is split in two at a
+	 * hash boundary and the new leaf is added to its index node, splitting index nodes
+	 * up to the root as needed; a full leaf whose names all share one hash gets an
+	 * overflow block instead. Every block a split needs is taken before the split starts,
+	 * so on a full disk the directory is left as it was.
+	 * @param key bytes of the name
+	 * @param node inode index the name refers to
+	 * @throws exceptions.FullDiskException whenever a new block is needed and the disk is full
+	 */
+	public void add(byte[] key, int node) {
+		int h = hash(key);
+		ArrayList<Node> path = new ArrayList<Node>();
+		ArrayList<Integer> positions = new ArrayList<Integer>();
+		int leaf = descend(h, path, positions);
+		DirectoryBlock db = new DirectoryBlock(pool.lease());
+		try {
+			ArrayList<Integer> chain = new ArrayList<Integer>();
+			for (int bn = leaf; bn != 0; bn = db.getNext()) {
+				d.read(bn, db.getBlock());
+				if (db.add(key, node)) {
+					d.write(bn, db.getBlock());
+					return;
+				}
+				chain.add(bn);
+			}
+
+			ArrayList<DirectoryEntry> list = readChain(leaf);
+			list.add(new DirectoryEntry(new String(key, StandardCharsets.ISO_8859_1), node));
+			sortByHash(list);
+			int k = splitPoint(list);
+			if (k == -1) {
+				// every name has the same hash: chain an overflow block
+				int block = allocate();
+				db.clear();
+				db.add(key, node);
+				d.write(block, db.getBlock());
+				int last = chain.get(chain.size() - 1);
+				d.read(last, db.getBlock());
+				db.setNext(block);
+				d.write(last, db.getBlock());
+				return;
+			}
+			reserve(blocksFor(list.subList(0, k)) + blocksFor(list.subList(k, list.size()))
+					- chain.size() + splits(path));
+			ArrayList<Integer> spare = new ArrayList<Integer>(chain.subList(1, chain.size()));
+			writeChain(leaf, new ArrayList<DirectoryEntry>(list.subList(0, k)), spare);
+			int right = spare.isEmpty() ? allocate() : spare.remove(0);
+			writeChain(right, new ArrayList<DirectoryEntry>(list.subList(k, list.size())), spare);
+			for (int bn : spare)
+				release(bn);
+			insert(path, positions, path.size() - 1, hash(list.get(k)), right);
+		} finally {
+			unreserve();
+			pool.release(db.getBlock());
+		}
+	}
+
+	/**
+	 * Removes the entry with the given name. Empty overflow blocks and leaves are freed,
+	 * and index nodes left without children are removed from their parents. Once the last
+	 * entry is gone the directory goes back to an empty packed directory.
+	 * @param key bytes of the name
+	 * @return inode index the removed entry referred to, or -1 if there was no such name
+	 */
+	public int remove(byte[] key) {
+		ArrayList<Node> path = new ArrayList<Node>();
+		ArrayList<Integer> positions = new ArrayList<Integer>();
+		int leaf = descend(hash(key), path, positions);
+		DirectoryBlock db = new DirectoryBlock(pool.lease());
+		try {
+			int prev = 0;
+			for (int bn = leaf; bn != 0; bn = db.getNext()) {
+				d.read(bn, db.getBlock());
+				int slot = db.find(key);
+				if (slot == -1) {
+					prev = bn;
+					continue;
+				}
+				int node = db.getInode(slot);
+				db.remove(slot);
+				if (db.getCount() > 0)
+					d.write(bn, db.getBlock());
+				else if (prev != 0) {
+					int next = db.getNext();
+					d.read(prev, db.getBlock());
+					db.setNext(next);
+					d.write(prev, db.getBlock());
+					release(bn);
+				}
+				else if (db.getNext() != 0) {
+					int next = db.getNext();
+					d.read(next, db.getBlock());
+					d.write(bn, db.getBlock());
+					release(next);
+				}
+				else {
+					release(bn);
+					delete(path, positions, path.size() - 1);
+				}
+				return node;
+			}
+			return -1;
+		} finally {
+			pool.release(db.getBlock());
+		}
+	}
+
+	/**
+	 * Writes a new index holding the given entries and makes it the content of the
+	 * directory. Leaves are filled completely, except that names sharing a hash always
+	 * go to the same leaf. No block of the directory is written over: if the disk gets
+	 * full the blocks taken are given back and the caller may restore the inode.
+	 * @param d disk holding the directory
+	 * @param inode inode index of the directory
+	 * @param entries entries of the directory, in any order
+	 * @throws exceptions.FullDiskException whenever the index needs a block and the disk is full
+	 */
+	public static void build(DiskUnit d, int inode, ArrayList<DirectoryEntry> entries) {
+		if (entries.isEmpty()) {
+			d.setPackedDirectoryInode(inode, 1, 0);
+			return;
+		}
+		DirectoryIndex index = new DirectoryIndex(d, inode);
+		index.taken = new ArrayList<Integer>();
+		try {
+			index.write(entries);
+		} catch (FullDiskException e) {
+			for (int bn : index.taken)
+				d.returnFB(bn);
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes the index of build, taking every block it needs from the disk.
+	 */
+	private void write(ArrayList<DirectoryEntry> entries) {
+		d.setIndexedDirectoryInode(inode, 0, 0);
+		ArrayList<DirectoryEntry> list = new ArrayList<DirectoryEntry>(entries);
+		sortByHash(list);
+
+		ArrayList<int[]> level = new ArrayList<int[]>();   // (lowest hash, block)
+		ArrayList<DirectoryEntry> leaf = new ArrayList<DirectoryEntry>();
+		int room = blockSize - DirectoryBlock.HEADER;
+		int used = 0;
+		for (int i = 0; i <= list.size(); i++) {
+			DirectoryEntry e = i < list.size() ? list.get(i) : null;
+			int size = e == null ? 0 : DirectoryBlock.entrySize(e.getName().length());
+			boolean close = e == null || (used + size > room && hash(e) != hash(leaf.get(leaf.size() - 1)));
+			if (close && !leaf.isEmpty()) {
+				int block = allocate();
+				writeChain(block, leaf, new ArrayList<Integer>());
+				level.add(new int[] {level.isEmpty() ? 0 : hash(leaf.get(0)), block});
+				leaf = new ArrayList<DirectoryEntry>();
+				used = 0;
+			}
+			if (e != null) {
+				leaf.add(e);
+				used += size;
+			}
+		}
+
+		for (int height = 0; height == 0 || level.size() > 1; height++) {
+			ArrayList<int[]> upper = new ArrayList<int[]>();
+			for (int i = 0; i < level.size(); i += capacity) {
+				Node node = new Node();
+				node.block = allocate();
+				node.level = height;
+				node.count = Math.min(capacity, level.size() - i);
+				node.hash = new int[capacity + 1];
+				node.child = new int[capacity + 1];
+				for (int j = 0; j < node.count; j++) {
+					node.hash[j] = level.get(i + j)[0];
+					node.child[j] = level.get(i + j)[1];
+				}
+				writeNode(node);
+				upper.add(new int[] {node.hash[0], node.block});
+			}
+			level = upper;
+		}
+		d.setIndexedDirectoryInode(inode, d.getInodeSize(inode), level.get(0)[1]);
+	}
+
+	/**
+	 * Walks from the root to the leaf whose hash range holds h.
+	 * @param h hash looked for
+	 * @param path receives the index nodes visited, root first
+	 * @param positions receives the entry taken in each node of the path
+	 * @return first block of the leaf
+	 */
+	private int descend(int h, ArrayList<Node> path, ArrayList<Integer> positions) {
+		int bn = d.getInodeFBlock(inode);
+		while (true) {
+			Node node = readNode(bn);
+			// last entry whose hash is not greater than h
+			int low = 1, high = node.count - 1, pos = 0;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (node.hash[mid] <= h) {
+					pos = mid;
+					low = mid + 1;
+				}
+				else
+					high = mid - 1;
+			}
+			path.add(node);
+			positions.add(pos);
+			if (node.level == 0)
+				return node.child[pos];
+			bn = node.child[pos];
+		}
+	}
+
+	/**
+	 * Adds (h, child) right after the entry taken in path[i], splitting the node when it
+	 * is full and moving up the path; a split root gets a new root above it.
+	 */
+	private void insert(ArrayList<Node> path, ArrayList<Integer> positions, int i, int h, int child) {
+		Node node = path.get(i);
+		int pos = positions.get(i) + 1;
+		System.arraycopy(node.hash, pos, node.hash, pos + 1, node.count - pos);
+		System.arraycopy(node.child, pos, node.child, pos + 1, node.count - pos);
+		node.hash[pos] = h;
+		node.child[pos] = child;
+		node.count++;
+		if (node.count <= capacity) {
+			writeNode(node);
+			return;
+		}
+		Node right = new Node();
+		right.block = allocate();
+		right.level = node.level;
+		right.count = node.count / 2;
+		right.hash = new int[capacity + 1];
+		right.child = new int[capacity + 1];
+		node.count -= right.count;
+		System.arraycopy(node.hash, node.count, right.hash, 0, right.count);
+		System.arraycopy(node.child, node.count, right.child, 0, right.count);
+		writeNode(node);
+		writeNode(right);
+		if (i > 0) {
+			insert(path, positions, i - 1, right.hash[0], right.block);
+			return;
+		}
+		Node root = new Node();
+		root.block = allocate();
+		root.level = node.level + 1;
+		root.count = 2;
+		root.hash = new int[capacity + 1];
+		root.child = new int[capacity + 1];
+		root.hash[0] = node.hash[0];
+		root.child[0] = node.block;
+		root.hash[1] = right.hash[0];
+		root.child[1] = right.block;
+		writeNode(root);
+		d.setIndexedDirectoryInode(inode, d.getInodeSize(inode), root.block);
+	}
+
+	/**
+	 * Removes the entry taken in path[i]. The range it covered goes to its left
+	 * neighbour, or to its right one when it was the first entry. A node left empty is
+	 * removed from its parent in turn; when the root is left empty the directory is empty.
+	 */
+	private void delete(ArrayList<Node> path, ArrayList<Integer> positions, int i) {
+		Node node = path.get(i);
+		int pos = positions.get(i);
+		if (node.count == 1) {
+			release(node.block);
+			if (i > 0)
+				delete(path, positions, i - 1);
+			else
+				d.setPackedDirectoryInode(inode, 1, 0);
+			return;
+		}
+		if (pos == 0)
+			node.hash[1] = node.hash[0];
+		System.arraycopy(node.hash, pos + 1, node.hash, pos, node.count - pos - 1);
+		System.arraycopy(node.child, pos + 1, node.child, pos, node.count - pos - 1);
+		node.count--;
+		writeNode(node);
+	}
+
+	/**
+	 * @return every entry stored in the leaf starting at the given block
+	 */
+	private ArrayList<DirectoryEntry> readChain(int leaf) {
+		ArrayList<DirectoryEntry> list = new ArrayList<DirectoryEntry>();
+		DirectoryBlock db = new DirectoryBlock(pool.lease());
+		for (int bn = leaf; bn != 0; bn = db.getNext()) {
+			d.read(bn, db.getBlock());
+			for (int slot = 0; slot < db.getCount(); slot++)
+				list.add(new DirectoryEntry(db.getName(slot), db.getInode(slot)));
+		}
+		pool.release(db.getBlock());
+		return list;
+	}
+
+	/**
+	 * Writes entries as a leaf starting at head, taking overflow blocks from spare, or
+	 * from the disk once spare is empty.
+	 */
+	private void writeChain(int head, ArrayList<DirectoryEntry> entries, ArrayList<Integer> spare) {
+		DirectoryBlock db = new DirectoryBlock(pool.lease());
+		int current = head;
+		db.clear();
+		for (DirectoryEntry e : entries) {
+			byte[] key = e.getName().getBytes(StandardCharsets.ISO_8859_1);
+			if (db.add(key, e.getInode()))
+				continue;
+			int block = spare.isEmpty() ? allocate() : spare.remove(0);
+			db.setNext(block);
+			d.write(current, db.getBlock());
+			current = block;
+			db.clear();
+			db.add(key, e.getInode());
+		}
+		d.write(current, db.getBlock());
+		pool.release(db.getBlock());
+	}
+
+	/**
+	 * @return index of the entry where the sorted list is split in two, at a change of
+	 * hash as close to the middle as possible, or -1 if every entry has the same hash
+	 */
+	private static int splitPoint(ArrayList<DirectoryEntry> list) {
+		int[] h = new int[list.size()];
+		for (int i = 0; i < h.length; i++)
+			h[i] = hash(list.get(i));
+		for (int k = h.length / 2; k < h.length; k++)
+			if (k > 0 && h[k] != h[k - 1])
+				return k;
+		for (int k = h.length / 2 - 1; k > 0; k--)
+			if (h[k] != h[k - 1])
+				return k;
+		return -1;
+	}
+
+	private static void sortByHash(ArrayList<DirectoryEntry> list) {
+		Collections.sort(list, new Comparator<DirectoryEntry>() {
+			public int compare(DirectoryEntry a, DirectoryEntry b) {
+				return Integer.compare(hash(a), hash(b));
+			}
+		});
+	}
+
+	private Node readNode(int bn) {
+		VirtualDiskBlock vdb = pool.lease();
+		d.read(bn, vdb);
+		Node node = new Node();
+		node.block = bn;
+		node.level = vdb.getInt(0);
+		node.count = vdb.getInt(4);
+		node.hash = new int[capacity + 1];
+		node.child = new int[capacity + 1];
+		for (int i = 0; i < node.count; i++) {
+			node.hash[i] = vdb.getInt(HEADER + i * ENTRY);
+			node.child[i] = vdb.getInt(HEADER + i * ENTRY + 4);
+		}
+		pool.release(vdb);
+		return node;
+	}
+
+	private void writeNode(Node node) {
+		VirtualDiskBlock vdb = pool.leaseCleared();
+		vdb.putInt(0, node.level);
+		vdb.putInt(4, node.count);
+		for (int i = 0; i < node.count; i++) {
+			vdb.putInt(HEADER + i * ENTRY, node.hash[i]);
+			vdb.putInt(HEADER + i * ENTRY + 4, node.child[i]);
+		}
+		d.write(node.block, vdb);
+		pool.release(vdb);
+	}
+
+	/**
+	 * @return number of index nodes that split, a new root included, when a child is
+	 * added under the last node of the path
+	 */
+	private int splits(ArrayList<Node> path) {
+		int i = path.size() - 1;
+		while (i >= 0 && path.get(i).count == capacity)
+			i--;
+		return path.size() - 1 - i + (i < 0 ? 1 : 0);
+	}
+
+	/**
+	 * @return number of blocks of a leaf holding the given entries
+	 */
+	private int blocksFor(List<DirectoryEntry> entries) {
+		int room = blockSize - DirectoryBlock.HEADER;
+		int blocks = 1;
+		int used = 0;
+		for (DirectoryEntry e : entries) {
+			int size = DirectoryBlock.entrySize(e.getName().length());
+			if (used + size > room) {
+				blocks++;
+				used = 0;
+			}
+			used += size;
+		}
+		return blocks;
+	}
+
+	/**
+	 * Takes count free blocks ahead for allocate, so a change fails before writing
+	 * anything when the disk cannot provide them all.
+	 */
+	private void reserve(int count) {
+		try {
+			while (reserved.size() < count)
+				reserved.add(d.getFreeBN());
+		} catch (FullDiskException e) {
+			unreserve();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gives back the reserved blocks allocate did not use.
+	 */
+	private void unreserve() {
+		for (int bn : reserved)
+			d.returnFB(bn);
+		reserved.clear();
+	}
+
+	/**
+	 * Takes a free block for the directory, a reserved one first, counting it in the
+	 * directory size.
+	 */
+	private int allocate() {
+		int bn = reserved.isEmpty() ? d.getFreeBN() : reserved.remove(reserved.size() - 1);
+		if (taken != null)
+			taken.add(bn);
+		d.setIndexedDirectoryInode(inode, d.getInodeSize(inode) + blockSize, d.getInodeFBlock(inode));
+		return bn;
+	}
+
+	/**
+	 * Gives a block of the directory back to the disk.
+	 */
+	private void release(int bn) {
+		d.registerFB(bn);
+		d.setIndexedDirectoryInode(inode, d.getInodeSize(inode) - blockSize, d.getInodeFBlock(inode));
+	}
+}
@@ -0,0 +1,194 @@
+package diskUtilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import exceptions.NonExistingDiskException;
+
+/**
+ * Path of a file or directory on one of the mounted disks, written disk:/dir/name. The
+ * disk part may be left out to refer to the current disk, and a path without the leading
+ * slash starts at the current directory of its disk instead of the root. As in the names
+ * the shell shows, an absolute path may start with root, which names the root directory.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class DiskPath {
+
+	public static final char DISK_SEPARATOR = ':';
+	private static final String ROOT = "root";
+
+	private String diskName;                  // null for the current disk
+	private boolean absolute;
+	private ArrayList<String> names = new ArrayList<String>();
+
+	// set by resolve
+	private DiskUnit disk;
+	private int directory;
+
+	// set by lock
+	private int inode = -1;
+
+	private DiskPath() {
+	}
+
+	/**
+	 * @param path a path, disk:/dir/name, /dir/name, dir/name or name
+	 * @return the parsed path, or null if it has an empty disk name or an empty name
+	 * between two slashes
+	 */
+	public static DiskPath parse(String path) {
+		DiskPath p = new DiskPath();
+		int colon = path.indexOf(DISK_SEPARATOR);
+		if (colon != -1) {
+			p.diskName = path.substring(0, colon);
+			if (p.diskName.length() == 0)
+				return null;
+			path = path.substring(colon + 1);
+		}
+		p.absolute = path.startsWith("/");
+		if (p.absolute)
+			path = path.substring(1);
+		if (path.length() == 0)
+			return p.diskName == null && !p.absolute ? null : p;
+		for (String name : path.split("/", -1)) {
+			if (name.length() == 0 || name.indexOf(DISK_SEPARATOR) != -1)
+				return null;
+			p.names.add(name);
+		}
+		if (p.absolute && p.names.get(0).equals(ROOT))
+			p.names.remove(0);
+		return p;
+	}
+
+	/**
+	 * @return name of the disk given in the path, null if the path is on the current disk
+	 */
+	public String getDiskName() {
+		return diskName;
+	}
+
+	/**
+	 * @return true if the path starts at the root directory of its disk
+	 */
+	public boolean isAbsolute() {
+		return absolute;
+	}
+
+	/**
+	 * @return the names of the path after the disk, the root left out
+	 */
+	public ArrayList<String> getNames() {
+		return names;
+	}
+
+	/**
+	 * @return last name of the path, null if the path names the root or the current
+	 * directory of a disk
+	 */
+	public String getName() {
+		return names.isEmpty() ? null : names.get(names.size() - 1);
+	}
+
+	/**
+	 * Finds the disk of the path and the directory holding its last name.
+	 * @param mounts disks mounted
+	 * @param session session the path is given in, with the current disk and directories
+	 * @return false if a name before the last one is not a directory of the disk, or the
+	 * path starts in a directory another session removed
+	 * @throws NonExistingDiskException if the disk of the path is not mounted
+	 */
+	public boolean resolve(MountTable mounts, Session session) throws NonExistingDiskException {
+		disk = diskName == null ? session.getDisk() : mounts.get(diskName);
+		if (disk == null)
+			throw new NonExistingDiskException(diskName == null ? "No disk mounted" :
+				"Disk is not mounted : " + diskName);
+		directory = absolute ? 0 : session.getDirectory(disk);
+		for (int i = 0; i < names.size() - 1; i++) {
+			InodeLocks.Held held = disk.getInodeLocks().read(directory);
+			int inode;
+			try {
+				if (disk.isRemovedDirectory(directory))
+					return false;
+				inode = new DirectoryFile(disk, directory).lookup(names.get(i));
+			} finally {
+				held.release();
+			}
+			if (inode == -1 || !disk.isDirectory(inode))
+				return false;
+			directory = inode;
+		}
+		return true;
+	}
+
+	/**
+	 * Looks the last name of the path up, with its directory locked for reading meanwhile.
+	 * @return inode index the name refers to, -1 if the directory does not have it or was
+	 * removed
+	 */
+	public int lookup() {
+		InodeLocks.Held held = disk.getInodeLocks().read(directory);
+		try {
+			if (disk.isRemovedDirectory(directory))
+				return -1;
+			return new DirectoryFile(disk, directory).lookup(getName());
+		} finally {
+			held.release();
+		}
+	}
+
+	/**
+	 * Locks the directory of the resolved path and the inode its last name refers to,
+	 * both at once. If the name changed before they were locked it is looked up and
+	 * locked again, so once this returns the name refers to getInode until the locks are
+	 * released. The directory is checked once locked, since another session may have
+	 * removed it after the path was resolved.
+	 * @param writeDirectory true if the directory is changed
+	 * @param writeInode true if the inode is changed
+	 * @param others other inodes of the disk changed by the command, locked with them
+	 * @return the locks held, released by the caller, or null if the directory was
+	 * removed, then nothing is left locked
+	 */
+	public InodeLocks.Held lock(boolean writeDirectory, boolean writeInode, int... others) {
+		int[] write = Arrays.copyOf(others, others.length + 2);
+		while (true) {
+			int found = lookup();
+			write[others.length] = writeDirectory ? directory : -1;
+			write[others.length + 1] = writeInode ? found : -1;
+			InodeLocks.Held held = disk.getInodeLocks().acquire(
+					new int[] {writeDirectory ? -1 : directory, writeInode ? -1 : found}, write);
+			if (disk.isRemovedDirectory(directory)) {
+				held.release();
+				inode = -1;
+				return null;
+			}
+			inode = new DirectoryFile(disk, directory).lookup(getName());
+			if (inode == found)
+				return held;
+			held.release();
+		}
+	}
+
+	/**
+	 * @return inode index the last name refers to, -1 if there is no such name, once
+	 * locked
+	 */
+	public int getInode() {
+		return inode;
+	}
+
+	/**
+	 * @return disk of the path, once resolved
+	 */
+	public DiskUnit getDisk() {
+		return disk;
+	}
+
+	/**
+	 * @return inode index of the directory holding the last name, or of the directory the
+	 * path names if it has no names, once resolved
+	 */
+	public int getDirectory() {
+		return directory;
+	}
+}
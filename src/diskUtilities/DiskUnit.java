@@ -6,12 +6,13 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
-import java.util.Stack;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-import exceptions.EmptyStackException;
 import exceptions.ExistingDiskException;
 import exceptions.FullDiskException;
 import exceptions.InvalidBlockException;
@@ -28,26 +29,108 @@ public class DiskUnit {
 	    DEFAULT_CAPACITY = 1024;  // default number of blocks 	
 	  private static final int
 	    DEFAULT_BLOCK_SIZE = 256; // default number of bytes per block
+	  private static final int
+	    MIN_BLOCK_SIZE = 32;      // block 0 must hold every disk parameter
+	  static final int
+	    LAYOUT_MAGIC = 0x56444C59; // marks the block that locates the free space map
+	  private static final int
+	    REFCOUNT_MAGIC = 0x56445243; // marks that the layout block locates a reference count table
+	  private static final int
+	    FORMAT_CHUNK = 1 << 20;   // bytes written at a time when a disk is formatted
+	  private static final int
+	    FORMAT_VERSION = 2;       // format of new disks: inodes with 64-bit file sizes
+	  private static final int
+	    MAX_INODES = 1 << 22;     // inodes of a new disk at most, however large it is
+
+	  // inode types
+	  public static final int TYPE_DIRECTORY = 0;
+	  public static final int TYPE_FILE = 1;         // file stored in a block chain
+	  public static final int TYPE_EXTENT_FILE = 2;  // file stored in extents
+	  public static final int TYPE_PACKED_DIRECTORY = 3; // directory with many entries per block
+	  public static final int TYPE_INDEXED_DIRECTORY = 4; // directory with a hashed index
 
 	  private int capacity;     	// number of blocks of current disk instance
 	  private int blockSizes; 	// size of each block of current disk instance
 	  private int numNodes;
+	  private int version;        // format version, 1 for disks with 32-bit file sizes
 	  private int firstFLB;
 	  private int firstFLBPos;
 	  private int nextFreeNode;
+	  private int layoutBlock;    // block locating the free space map, 0 on free list disks
+	  private int bitmapStart;    // first block of the free space map
 	  private String diskName;
-	  private int currentDir;
-	  private String currentName;
-
-
-	  Stack directoryStack = new Stack();
-	  Stack <String> nameStack = new Stack<String>();
-	  private static iNodeList listNodes;
 	  
 		
-	  // the file representing the simulated  disk, where all the disk blocks
+	  // the device representing the simulated  disk, where all the disk blocks
 	  // are stored
-	  private static RandomAccessFile disk;
+	  private BlockDevice disk;
+
+	  // write-back cache of the disk blocks, every instance access goes through it
+	  private BufferCache cache;
+
+	  // in-memory copy of the inode table, loaded at mount and written back on sync
+	  private InodeTable inodes;
+
+	  // in-memory free space map, loaded at mount and written back on sync
+	  private FreeSpaceBitmap freeMap;
+
+	  // reference counts of the blocks shared by cloned files, written back on sync
+	  private RefCountTable refs = new RefCountTable();
+
+	  // cache of directory lookups, (directory inode, name) -> inode
+	  private DentryCache dentries;
+
+	  // directories removed since the disk was mounted, until their inode is given out again;
+	  // a session may still be in one of them
+	  private Set<Integer> removedDirectories =
+			  Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+	  // block buffers leased by the operations on this disk instead of allocating them
+	  private BlockPool blocks;
+
+	  // read/write locks of the inodes, taken by the commands using the disk, and the
+	  // disk lock commits take so no transaction holds half of a change
+	  private final InodeLocks locks = new InodeLocks();
+
+	  // guards the allocators, the free space map, reference counts, next free inode and
+	  // the blocks waiting to be freed, together with the journal state tied to them
+	  private final Object allocator = new Object();
+
+	  // the device of a live disk, keeping the blocks its snapshots need before they change
+	  private CopyOnWriteBlockDevice snapshots;
+
+	  // true for a snapshot mounted next to its live disk
+	  private boolean readOnly;
+
+	  // write-ahead journal of the metadata blocks, null if the disk has none
+	  private Journal journal;
+	  private int pendingCommits;     // transactions logged since the last force
+	  private long firstPending;      // time the oldest of them was logged
+	  // blocks freed by the running transaction and by the logged ones not forced yet; they
+	  // are free on disk once their transaction is, but are not reused before it is durable
+	  private ArrayList<Integer> freedNow = new ArrayList<Integer>();
+	  private ArrayList<Integer> freedLogged = new ArrayList<Integer>();
+	  private boolean starved;        // an allocation failed while freed blocks were waiting
+
+	  // the following are read once from the system properties and apply to every disk
+	  // mounted by the process; no disk changes them, so instances share no state
+
+	  // number of blocks kept in the cache of a disk
+	  private static final int cacheCapacity = Integer.getInteger("diskUnit.cacheBlocks", 256);
+
+	  // number of directory entries kept in the dentry cache of a disk
+	  private static final int dentryCapacity = Integer.getInteger("diskUnit.dentryEntries", 4096);
+
+	  // kind of device used to open disks: "mapped" (default) or "raf"
+	  private static final String deviceType = System.getProperty("diskUnit.device", "mapped");
+
+	  // blocks of the journal given to disks that have none, -1 to size it after the
+	  // capacity of the disk, 0 to leave disks without journal
+	  private static final int journalBlocks = Integer.getInteger("diskUnit.journalBlocks", -1);
+
+	  // transactions forced together, and longest time a logged transaction waits for the force
+	  private static final int groupCommit = Integer.getInteger("diskUnit.groupCommit", 8);
+	  private static final int groupCommitMillis = Integer.getInteger("diskUnit.groupCommitMillis", 50);
 
 	  // the constructor -- PRIVATE
 	  /**
@@ -55,7 +138,7 @@ public class DiskUnit {
 	  **/
 	  public DiskUnit(String name) {
 	     try {
-	         disk = new RandomAccessFile("DiskUnits/"+name, "rw");
+	         disk = openDevice("DiskUnits/"+name);
 	         diskName=name;
 	     }
 	     catch (IOException e) {
@@ -64,22 +147,337 @@ public class DiskUnit {
 	     }
 	  }
 
-	  /** Simulates shutting-off the disk. Just closes the corresponding RAF 
-	   * and saves important disk parameters in block 0. If program is closed 
-	   * and this method was not executed the disk is compromised and should be deleted.
+	  /**
+	    @param name is the name of the disk
+	    @param device device holding the blocks of the disk
 	  **/
-	  public void shutdown() {
+	  private DiskUnit(String name, BlockDevice device) {
+	     disk = device;
+	     diskName = name;
+	  }
+
+	  /**
+	   * Opens the file with the given path using the current device type. A FileChannel
+	   * memory mapped device is used unless the RandomAccessFile one was selected.
+	   * @param path path of the file representing the disk
+	   * @return the device giving access to the file
+	   * @throws IOException
+	  **/
+	  private static BlockDevice openDevice(String path) throws IOException {
+		  if (deviceType.equals("raf"))
+			  return new RandomAccessBlockDevice(path);
+		  return new MappedBlockDevice(path);
+	  }
+
+	  /**
+	   * Saves important disk parameters in block 0 and writes every modified cached
+	   * block back to the disk file. On a disk with a journal the pending changes are
+	   * committed first, and the journal is left empty.
+	  **/
+	  public void sync() {
+		  locks.lockDisk();
+		  try {
+			  synchronized (allocator) {
+				  stageMetadata();
+				  if (journal != null) {
+					  commitTransaction();
+					  checkpoint();
+					  return;
+				  }
+				  cache.flush();
+				  try {
+					  disk.force();
+				  } catch (IOException e) {
+					  e.printStackTrace();
+				  }
+			  }
+		  } finally {
+			  locks.unlockDisk();
+		  }
+	  }
+
+	  /**
+	   * Ends the running transaction: every metadata block changed since the previous
+	   * commit, the in-memory inode table, free space map and disk parameters included,
+	   * is logged in the journal as one transaction. Transactions are forced in groups:
+	   * once groupCommit of them are waiting, or the oldest one has waited
+	   * groupCommitMillis, a single force of the disk file makes all of them durable. The
+	   * group is also forced when the blocks waiting for it are needed: an allocation
+	   * failed for want of them, or they outnumber the blocks that are free.
+	   * Does nothing on a disk without journal, whose changes reach the disk file on sync.
+	   * Waits for the commands changing the disk to end, the caller must not be one of them.
+	  **/
+	  public void commit() {
+		  if (journal == null)
+			  return;
+		  locks.lockDisk();
 		  try {
-			  disk.seek(0);
-			  disk.writeInt(capacity);  
-			  disk.writeInt(blockSizes);
-			  disk.writeInt(firstFLB);
-			  disk.writeInt(firstFLBPos);
-		      disk.writeInt(nextFreeNode);
-			  disk.writeInt(numNodes);
+			  synchronized (allocator) {
+				  stageMetadata();
+				  commitTransaction();
+				  if (starved || freedLogged.size() > freeMap.getFreeCount() ||
+						  pendingCommits >= groupCommit || (pendingCommits > 0 &&
+						  System.currentTimeMillis() - firstPending >= groupCommitMillis))
+					  forceGroup();
+				  starved = false;
+			  }
+		  } finally {
+			  locks.unlockDisk();
+		  }
+	  }
+
+	  /**
+	   * Writes the disk parameters and the modified parts of the inode table, free space
+	   * map and reference count table into the cached blocks holding them.
+	  **/
+	  private void stageMetadata() {
+		  int refStart = refs.flush(this);
+		  stageInt((long) layoutBlock*blockSizes + 8, REFCOUNT_MAGIC);
+		  stageInt((long) layoutBlock*blockSizes + 12, refStart);
+		  inodes.flush(cache);
+		  freeMap.flush(cache, (long) bitmapStart*blockSizes);
+		  for (int bn : freedNow)
+			  stageFree(bn);
+		  for (int bn : freedLogged)
+			  stageFree(bn);
+		  stageInt(0, capacity);  
+		  stageInt(4, blockSizes);
+		  stageInt(8, firstFLB);
+		  stageInt(12, firstFLBPos);
+		  stageInt(16, nextFreeNode);
+		  stageInt(20, numNodes);
+		  stageInt(24, layoutBlock);
+		  if (version > 1)
+			  stageInt(28, version);
+	  }
+
+	  /**
+	   * Writes an integer in the cache unless it already holds it, so unchanged blocks
+	   * are not logged again.
+	  **/
+	  private void stageInt(long position, int value) {
+		  if (cache.readInt(position) != value)
+			  cache.writeInt(position, value);
+	  }
+
+	  /**
+	   * Clears the bit of a freed block in the cached free space map, the in-memory map
+	   * keeps it in use until the transaction freeing it is forced.
+	  **/
+	  private void stageFree(int bn) {
+		  long position = (long) bitmapStart*blockSizes + bn / 8;
+		  byte old = cache.readByte(position);
+		  byte bits = (byte) (old & ~(1 << (bn & 7)));
+		  if (bits != old)
+			  cache.writeByte(position, bits);
+	  }
+
+	  /**
+	   * Logs the metadata blocks changed since the last transaction. File content written
+	   * meanwhile is written back first, so no committed block refers to content that is
+	   * not on the disk file. A transaction larger than the whole journal is written in
+	   * place after a checkpoint instead.
+	  **/
+	  private void commitTransaction() {
+		  int count = cache.getChangedCount();
+		  if (count == 0)
+			  return;
+		  if (!journal.hasRoom(count))
+			  checkpoint();
+		  ArrayList<Integer> blocks = new ArrayList<Integer>();
+		  ArrayList<byte[]> images = new ArrayList<byte[]>();
+		  cache.takeTransaction(blocks, images);
+		  freedLogged.addAll(freedNow);
+		  freedNow.clear();
+		  if (!journal.fits(blocks.size())) {
+			  cache.release();
+			  checkpoint();
+			  return;
+		  }
+		  cache.flushReleased();
+		  try {
+			  journal.append(blocks, images);
+		  } catch (IOException e) {
+			  e.printStackTrace();
+		  }
+		  if (pendingCommits++ == 0)
+			  firstPending = System.currentTimeMillis();
+	  }
+
+	  /**
+	   * Forces the transactions logged since the last force, after which their blocks
+	   * may be written in place.
+	  **/
+	  private void forceGroup() {
+		  if (pendingCommits == 0)
+			  return;
+		  try {
+			  disk.force();
 		  } catch (IOException e) {
 			  e.printStackTrace();
-		  } 	
+		  }
+		  cache.release();
+		  pendingCommits = 0;
+		  releaseFreed();
+	  }
+
+	  /**
+	   * @return true if an allocation failed since the last commit while blocks freed by
+	   * transactions not yet durable were waiting; the next commit makes them reusable
+	  **/
+	  public boolean isShortOfBlocks() {
+		  synchronized (allocator) {
+			  return starved;
+		  }
+	  }
+
+	  /**
+	   * Lets the blocks freed by durable transactions be reused.
+	  **/
+	  private void releaseFreed() {
+		  for (int bn : freedLogged)
+			  freeMap.markFree(bn);
+		  freedLogged.clear();
+	  }
+
+	  /**
+	   * Writes every logged block in place and empties the journal.
+	  **/
+	  private void checkpoint() {
+		  forceGroup();
+		  cache.flushReleased();
+		  try {
+			  disk.force();
+			  journal.checkpoint();
+		  } catch (IOException e) {
+			  e.printStackTrace();
+		  }
+		  releaseFreed();
+	  }
+
+	  /**
+	   * @return number of block accesses served by the cache
+	  **/
+	  public long getCacheHits() {
+		  return cache.getHits();
+	  }
+
+	  /**
+	   * @return number of block accesses that had to read the disk file
+	  **/
+	  public long getCacheMisses() {
+		  return cache.getMisses();
+	  }
+
+	  /**
+	   * @return number of blocks the cache wrote back or prefetched
+	  **/
+	  public long getScheduledBlocks() {
+		  return cache.getScheduledBlocks();
+	  }
+
+	  /**
+	   * @return number of disk file transfers those blocks took, runs of consecutive
+	   * blocks being done at once
+	  **/
+	  public long getTransfers() {
+		  return cache.getTransfers();
+	  }
+
+	  /**
+	   * Loads into the cache, in one sweep of the disk file, blocks about to be read in
+	   * an order of their own, such as the first blocks of the files of a directory tree
+	   * being walked. Invalid block numbers are left out.
+	   * @param blocks block numbers, in any order
+	  **/
+	  public void prefetch(ArrayList<Integer> blocks) {
+		  ArrayList<Integer> valid = new ArrayList<Integer>();
+		  for (int bn : blocks)
+			  if (bn > 0 && bn < capacity)
+				  valid.add(bn);
+		  cache.prefetch(valid);
+	  }
+
+	  /**
+	   * @return free space map of the disk, as kept in memory
+	  **/
+	  FreeSpaceBitmap getFreeSpaceMap() {
+		  return freeMap;
+	  }
+
+	  /**
+	   * @return reference counts of the blocks shared by cloned files
+	  **/
+	  RefCountTable getReferenceCounts() {
+		  return refs;
+	  }
+
+	  /**
+	   * @return runs of blocks holding the structures of the disk, as {first block, count}:
+	   * block 0 and the inode table, the layout block, the free space map, the reference
+	   * count table and the journal
+	  **/
+	  ArrayList<int[]> getSystemRuns() {
+		  ArrayList<int[]> runs = new ArrayList<int[]>();
+		  int inodeEnd = (int) ((blockSizes + (long) numNodes*InodeTable.recordSize(version) + blockSizes - 1) / blockSizes);
+		  runs.add(new int[] {0, version > 1 ? inodeEnd : Math.max(inodeEnd, numNodes/(blockSizes/9) + 2)});
+		  runs.add(new int[] {layoutBlock, 1});
+		  runs.add(new int[] {bitmapStart, FreeSpaceBitmap.blocksFor(capacity, blockSizes)});
+		  for (int bn : refs.getBlocks())
+			  runs.add(new int[] {bn, 1});
+		  long layout = (long) layoutBlock*blockSizes;
+		  if (cache.readInt(layout + 16) == Journal.MAGIC)   // a mounted snapshot keeps it closed
+			  runs.add(new int[] {cache.readInt(layout + 20), cache.readInt(layout + 24)});
+		  return runs;
+	  }
+
+	  /**
+	   * @return cache of the directory lookups made on this disk
+	  **/
+	  public DentryCache getDentryCache() {
+		  return dentries;
+	  }
+
+	  /**
+	   * Records that a directory was removed, so paths and sessions still holding its
+	   * inode index no longer use it. Called with the directory locked for writing.
+	   * @param dir inode index of the directory
+	  **/
+	  public void markRemovedDirectory(int dir) {
+		  removedDirectories.add(dir);
+	  }
+
+	  /**
+	   * @param dir inode index of a directory
+	   * @return true if the directory was removed; to be sure it is not being removed
+	   * meanwhile, the caller holds a lock of the directory
+	  **/
+	  public boolean isRemovedDirectory(int dir) {
+		  return removedDirectories.contains(dir);
+	  }
+
+	  /**
+	   * @return pool of block buffers of the size of this disk's blocks
+	  **/
+	  public BlockPool getBlockPool() {
+		  return blocks;
+	  }
+
+	  /**
+	   * @return read/write locks of the inodes of this disk
+	  **/
+	  public InodeLocks getInodeLocks() {
+		  return locks;
+	  }
+
+	  /** Simulates shutting-off the disk. Saves important disk parameters in block 0,
+	   * writes back the cached blocks and closes the corresponding device. If program is closed 
+	   * and this method was not executed the changes not committed are lost, and a disk
+	   * without journal may be left inconsistent: Fsck finds and repairs its free space.
+	  **/
+	  public void shutdown() {
+		  if (!readOnly)
+			  sync();
 		  	
 	    try {
 	       disk.close();
@@ -110,21 +508,231 @@ public class DiskUnit {
 	         throw new NonExistingDiskException("No disk has name : " + name);
 	    
 	     DiskUnit dUnit = new DiskUnit(name);
-	     	
-	     // get the capacity and the block size of the disk from the file
-	     // representing the disk
+	     dUnit.readParameters();
+	     dUnit.snapshots = new CopyOnWriteBlockDevice(dUnit.disk, dUnit.blockSizes);
+	     dUnit.disk = dUnit.snapshots;
+	     for (String snap : Snapshot.list(name)) {
+	    	 try {
+	    		 Snapshot s = Snapshot.open(name, snap, dUnit.snapshots.getDevice());
+	    		 if (s != null)
+	    			 dUnit.snapshots.attach(s);
+	    	 } catch (IOException e) {
+	    		 e.printStackTrace();
+	    	 }
+	     }
+	     if (dUnit.recoverJournal())
+	    	 dUnit.readParameters();   // block 0 may have been replayed
+	     dUnit.load();
+	     if (dUnit.journal == null)
+	    	 dUnit.createJournal();
+	     dUnit.cache.setJournaled(dUnit.journal != null);
+	     return dUnit;     	
+	  }
+
+	  /**
+	   * Opens the journal of the disk, if it has one, replaying the transactions that may
+	   * not have been written in place when the disk was last used.
+	   * @return true if the disk has a journal
+	  */
+	  private boolean recoverJournal() {
+		  try {
+			  int layout = disk.readInt(24);
+			  long pos = (long) layout*blockSizes;
+			  if (layout <= 0 || layout >= capacity || disk.readInt(pos) != LAYOUT_MAGIC ||
+					  disk.readInt(pos + 16) != Journal.MAGIC)
+				  return false;
+			  int start = disk.readInt(pos + 20);
+			  int length = disk.readInt(pos + 24);
+			  if (start <= 0 || length < 4 || start + length > capacity)
+				  return false;
+			  journal = Journal.open(snapshots.getDevice(), disk, blockSizes, start, length);
+		  } catch (IOException e) {
+			  e.printStackTrace();
+		  }
+		  return journal != null;
+	  }
+
+	  /**
+	   * Gives the disk a journal in a run of free blocks, located by the layout block.
+	   * A disk with no such run keeps working without journal.
+	  */
+	  private void createJournal() {
+		  int length = journalBlocks >= 0 ? journalBlocks : Math.min(Math.max(capacity / 64, 16), 8192);
+		  if (length < 4)
+			  return;
+		  int run = freeMap.allocateRun(length);
+		  if (run == -1)
+			  return;
+		  Journal j;
+		  try {
+			  j = Journal.create(snapshots.getDevice(), blockSizes, run, length);
+		  } catch (IOException e) {
+			  e.printStackTrace();
+			  for (int i = 0; i < length; i++)
+				  freeMap.markFree(run + i);
+			  return;
+		  }
+		  cache.writeInt((long) layoutBlock*blockSizes + 16, Journal.MAGIC);
+		  cache.writeInt((long) layoutBlock*blockSizes + 20, run);
+		  cache.writeInt((long) layoutBlock*blockSizes + 24, length);
+		  sync();
+		  journal = j;
+	  }
+
+	  /**
+	   * Gets the capacity and the block size of the disk, as well as the rest of its
+	   * parameters, from block 0 of the device representing the disk. Disks written
+	   * before the format had a version keep version 1: their 9 byte inodes are read and
+	   * written as they are, which limits their files to 2 GB.
+	  */
+	  private void readParameters() {
 	     try {
-	    	 dUnit.disk.seek(0);
-	         dUnit.capacity = dUnit.disk.readInt();
-	         dUnit.blockSizes = dUnit.disk.readInt();
-	         dUnit.firstFLB = dUnit.disk.readInt();
-	         dUnit.firstFLBPos = dUnit.disk.readInt();
-	         dUnit.nextFreeNode = dUnit.disk.readInt();
-	         dUnit.numNodes=dUnit.disk.readInt();
+	         capacity = disk.readInt(0);
+	         blockSizes = disk.readInt(4);
+	         firstFLB = disk.readInt(8);
+	         firstFLBPos = disk.readInt(12);
+	         nextFreeNode = disk.readInt(16);
+	         numNodes = disk.readInt(20);
+	         version = disk.readInt(28) == FORMAT_VERSION ? FORMAT_VERSION : 1;
 	     } catch (IOException e) {
 	    	 e.printStackTrace();
 	     }
-	     return dUnit;     	
+	  }
+
+	  /**
+	   * Sets up the cache of the disk and loads its inode table and free space map.
+	  */
+	  private void load() {
+	     blocks = new BlockPool(blockSizes);
+	     cache = new BufferCache(disk, blockSizes, cacheCapacity);
+	     inodes = new InodeTable(numNodes, blockSizes, InodeTable.recordSize(version));
+	     inodes.load(cache);
+	     dentries = new DentryCache(dentryCapacity);
+	     loadFreeSpaceMap();
+	  }
+
+	  /**
+	   * Takes a snapshot of the disk. The disk is synced and, from then on, every block
+	   * that was in use is copied to the snapshot store the first time it is overwritten;
+	   * no block is copied now.
+	   * @param name name of the snapshot
+	   * @throws ExistingDiskException whenever the disk already has a snapshot with that name
+	   * @throws InvalidParameterException whenever the name cannot be used for a snapshot
+	  */
+	  public void createSnapshot(String name)
+	  throws ExistingDiskException, InvalidParameterException
+	  {
+		  if (!Snapshot.isValidName(name))
+			  throw new InvalidParameterException("Invalid snapshot name: " + name);
+		  if (new File(Snapshot.path(diskName, name)).exists())
+			  throw new ExistingDiskException("Snapshot name is already used: " + name);
+		  locks.lockDisk();   // no change between the sync and the snapshot
+		  try {
+			  sync();
+			  snapshots.attach(Snapshot.create(diskName, name, blockSizes, capacity, freeMap.toBytes()));
+		  } catch (IOException e) {
+			  e.printStackTrace();
+		  } finally {
+			  locks.unlockDisk();
+		  }
+	  }
+
+	  /**
+	   * @return the snapshots of the disk
+	  */
+	  public ArrayList<Snapshot> getSnapshots() {
+		  return snapshots == null ? new ArrayList<Snapshot>() : new ArrayList<Snapshot>(snapshots.getSnapshots());
+	  }
+
+	  /**
+	   * Mounts a snapshot of the disk, read-only, next to the disk itself. Blocks the disk
+	   * changed after the snapshot are read from the snapshot store, the rest from the disk.
+	   * @param name name of the snapshot
+	   * @return the disk unit showing the disk as it was when the snapshot was taken
+	   * @throws NonExistingDiskException whenever the disk has no snapshot with that name
+	  */
+	  public DiskUnit mountSnapshot(String name) throws NonExistingDiskException {
+		  Snapshot s = snapshots == null ? null : snapshots.find(name);
+		  if (s == null)
+			  throw new NonExistingDiskException("No snapshot has name : " + name);
+		  DiskUnit sUnit = new DiskUnit(diskName + Snapshot.SEPARATOR + name,
+				  new SnapshotBlockDevice(s, snapshots.getDevice()));
+		  sUnit.readOnly = true;
+		  sUnit.readParameters();
+		  sUnit.load();
+		  return sUnit;
+	  }
+
+	  /**
+	   * Deletes a snapshot of the disk along with its store.
+	   * @param name name of the snapshot
+	   * @return true if the snapshot existed and was deleted
+	  */
+	  public boolean deleteSnapshot(String name) {
+		  Snapshot s = snapshots == null ? null : snapshots.find(name);
+		  if (s == null)
+			  return false;
+		  snapshots.detach(s);
+		  try {
+			  return s.delete();
+		  } catch (IOException e) {
+			  e.printStackTrace();
+			  return false;
+		  }
+	  }
+
+	  /**
+	   * @return true if the disk is a snapshot, which cannot be modified
+	  */
+	  public boolean isReadOnly() {
+		  return readOnly;
+	  }
+
+	  /**
+	   * Loads the free space map of the disk. Disks that still keep their free blocks
+	   * in the old free list stack are converted: the map is rebuilt from the list and
+	   * stored in a run of free blocks, the list is not used again.
+	   * @throws FullDiskException whenever there is no room left to store the map
+	  */
+	  private void loadFreeSpaceMap() throws FullDiskException {
+		  freeMap = new FreeSpaceBitmap(capacity);
+		  layoutBlock = cache.readInt(24);
+		  if (layoutBlock > 0 && layoutBlock < capacity &&
+				  cache.readInt((long) layoutBlock*blockSizes) == LAYOUT_MAGIC) {
+			  bitmapStart = cache.readInt((long) layoutBlock*blockSizes + 4);
+			  freeMap.load(cache, (long) bitmapStart*blockSizes);
+			  if (cache.readInt((long) layoutBlock*blockSizes + 8) == REFCOUNT_MAGIC)
+				  refs.load(this, cache.readInt((long) layoutBlock*blockSizes + 12));
+			  return;
+		  }
+		  
+		  // every block is in use except the ones found in the free list
+		  freeMap.markUsed(0, capacity);
+		  VirtualDiskBlock vdb = blocks.lease();
+		  int bn = firstFLB;
+		  int pos = firstFLBPos;
+		  for (int visited = 0; bn > 0 && bn < capacity && visited < capacity; visited++) {
+			  freeMap.markFree(bn);
+			  this.read(bn, vdb);
+			  for (int i = 1; i <= pos; i++) {
+				  int fb = vdb.getInt(i * 4);
+				  if (fb > 0 && fb < capacity)
+					  freeMap.markFree(fb);
+			  }
+			  bn = vdb.getInt(0);
+			  pos = (blockSizes/4) - 1;
+		  }
+		  blocks.release(vdb);
+		  
+		  int mapBlocks = FreeSpaceBitmap.blocksFor(capacity, blockSizes);
+		  int run = freeMap.allocateRun(mapBlocks + 1);
+		  if (run == -1)
+			  throw new FullDiskException("Disk is too full to store its free space map.");
+		  layoutBlock = run;
+		  bitmapStart = run + 1;
+		  cache.writeInt((long) layoutBlock*blockSizes, LAYOUT_MAGIC);
+		  cache.writeInt((long) layoutBlock*blockSizes + 4, bitmapStart);
+		  freeMap.markAllDirty();
 	  }
 	     
 	  /***
@@ -161,26 +769,24 @@ public class DiskUnit {
 	      if (file.exists())
 	         throw new ExistingDiskException("Disk name is already used: " + name);
 	     	
-	      RandomAccessFile disk = null;
-	      if (capacity < 0 || blockSize < 8 ||
-	           !Utils.powerOf2(capacity) || !Utils.powerOf2(blockSize))
+	      BlockDevice disk = null;
+	      if (capacity < 0 || blockSize < MIN_BLOCK_SIZE ||
+	           !Utils.powerOf2(capacity) || !Utils.powerOf2(blockSize) ||
+	           dataStart(capacity, blockSize) >= capacity)
 	         throw new InvalidParameterException("Invalid values: " +
 	     		   " capacity = " + capacity + " block size = " +
 	     		   blockSize);
 	      // disk parameters are valid... hence create the file to represent the
-	      // disk unit.
+	      // disk unit. It is only written sequentially, so it is not mapped.
 	      try {
-	          disk = new RandomAccessFile("DiskUnits/"+name, "rw");
+	          disk = new RandomAccessBlockDevice("DiskUnits/"+name);
 	      }
 	      catch (IOException e) {
 	          System.err.println ("Unable to start the disk");
 	          System.exit(1);
 	      }
 	      
-	      reserveDiskSpace(disk, capacity, blockSize);
-	      
-	      writeNodes(disk, capacity, blockSize);
-	      
+	      format(disk, capacity, blockSize);
 	      
 	      // after creation, just leave it in shutdown mode - just
 	      // close the corresponding file
@@ -189,46 +795,123 @@ public class DiskUnit {
 	      } catch (IOException e) {
 	          e.printStackTrace();
 	      }
-	      
-		  DiskUnit dUnit = mount(name);
-		  for(int i = dUnit.firstFLB; i < dUnit.capacity; i++) {
-			  dUnit.registerFB(i);
-		  }
-		  dUnit.shutdown();
 	  }
 	  
 	  /**
-	   * Sets the amount of available space for the new disk as specified by the capacity 
-	   * and the block size. Afterwards the disk parameters are written in block 0
-	   * @param disk the new disk unit to set its available space
+	   * @param capacity number of blocks in a disk
+	   * @param blockSize size per block in the disk
+	   * @return number of inodes of the disk, enough for one percent of its bytes up to
+	   * MAX_INODES
+	  */
+	  private static int nodeCount(int capacity, int blockSize)
+	  {
+		  return (int) Math.min(MAX_INODES, (long) capacity*blockSize*(.01));
+	  }
+
+	  /**
+	   * @param capacity number of blocks in a disk
+	   * @param blockSize size per block in the disk
+	   * @return block that locates the free space map, right after the inode blocks
+	  */
+	  private static int layoutBlock(int capacity, int blockSize)
+	  {
+		  long tableEnd = blockSize + (long) nodeCount(capacity, blockSize)*InodeTable.WIDE_RECORD_SIZE;
+		  return (int) ((tableEnd + blockSize - 1) / blockSize);
+	  }
+
+	  /**
+	   * @param capacity number of blocks in a disk
+	   * @param blockSize size per block in the disk
+	   * @return first block for data, right after the free space map
+	  */
+	  private static int dataStart(int capacity, int blockSize)
+	  {
+		  return layoutBlock(capacity, blockSize) + 1 + FreeSpaceBitmap.blocksFor(capacity, blockSize);
+	  }
+
+	  /**
+	   * Lays out a new disk in the current format version: block 0 holds the disk
+	   * parameters and the version, the inode table follows it, then the layout block and
+	   * the free space map, where those blocks are marked as in use and every other block
+	   * as free. The file is first given the size of the disk
+	   * without writing it, so the data blocks are left as a hole that reads as zeroes.
+	   * The reserved blocks are then built in memory a chunk at a time and written in
+	   * order, so formatting takes about the time of a sequential write of them.
+	   * @param disk the new disk unit
 	   * @param capacity number of blocks in the new disk
 	   * @param blockSize size per block in the new disk
 	  */ 
-	  private static void reserveDiskSpace(RandomAccessFile disk, int capacity,
-              int blockSize)
+	  private static void format(BlockDevice disk, int capacity, int blockSize)
 	  {
+		  int numNode = nodeCount(capacity, blockSize);
+		  int layout = layoutBlock(capacity, blockSize);
+		  int mapStart = layout + 1;
+		  int dataStart = dataStart(capacity, blockSize);
+		  FreeSpaceBitmap map = new FreeSpaceBitmap(capacity);
+		  map.markUsed(0, dataStart);
+		  byte[] bitmap = map.toBytes();
+		  byte[] parameters = ints(capacity, blockSize,
+				  dataStart,     //First block for data
+				  0,             //FirstFLB Pos
+				  1,             //First free iNode
+				  numNode,       //Number of iNodes
+				  layout,        //Block locating the free space map
+				  FORMAT_VERSION);
+		  byte[] layoutBytes = ints(LAYOUT_MAGIC, mapStart);
+		  // the root directory, and the unused inodes that change at file creation
+		  int record = InodeTable.WIDE_RECORD_SIZE;
+		  byte[] root = new byte[record];
+		  byte[] unused = new byte[record];
+		  root[0] = TYPE_DIRECTORY;
+		  unused[0] = TYPE_FILE;
+		  System.arraycopy(ints(0, 1, blockSize), 0, root, 1, 12);
+		  System.arraycopy(ints(0, 1, blockSize), 0, unused, 1, 12);
+
+		  long end = (long) dataStart*blockSize;
+		  byte[] chunk = new byte[(int) Math.min(FORMAT_CHUNK, end)];
 		  try {
-			  disk.setLength(blockSize * capacity);
+			  disk.setLength((long) capacity*blockSize);
+			  for (long pos = 0; pos < end; pos += chunk.length) {
+				  int n = (int) Math.min(chunk.length, end - pos);
+				  Arrays.fill(chunk, 0, n, (byte) 0);
+				  place(chunk, pos, n, 0, parameters);
+				  long first = Math.max(0, (pos - blockSize) / record);
+				  for (long i = first; i < numNode && blockSize + i*record < pos + n; i++)
+					  place(chunk, pos, n, blockSize + i*record, i == 0 ? root : unused);
+				  place(chunk, pos, n, (long) layout*blockSize, layoutBytes);
+				  place(chunk, pos, n, (long) mapStart*blockSize, bitmap);
+				  disk.write(pos, chunk, 0, n);
+			  }
 		  } catch (IOException e) {
 			  e.printStackTrace();
 		  }
-		  int numNode = (int) (capacity*blockSize*(.01));
-		  int numBlock = (numNode/(blockSize/9))+2;
-		  int iNodeBlock = (numNode/(blockSize/9))+1;
-		  int temp=numBlock+1;
-		  // write disk parameters (number of blocks, bytes per block, etc) in
-		  // block 0 of disk space
-		  try {
-			  disk.seek(0);
-			  disk.writeInt(capacity);  
-			  disk.writeInt(blockSize);
-			  disk.writeInt(numBlock);     //First free block for data
-			  disk.writeInt(0);            //FirstFLB Pos
-			  disk.writeInt(1);            //First free iNode
-			  disk.writeInt(numNode);      //Number of iNodes
-		  } catch (IOException e) {
-			  e.printStackTrace();
+	  }
+
+	  /**
+	   * Copies into a chunk of the disk, holding bytes [pos, pos + n), the part of src that
+	   * falls inside it when src goes at byte at of the disk.
+	  */
+	  private static void place(byte[] chunk, long pos, int n, long at, byte[] src)
+	  {
+		  long from = Math.max(pos, at);
+		  long to = Math.min(pos + n, at + src.length);
+		  if (from < to)
+			  System.arraycopy(src, (int) (from - at), chunk, (int) (from - pos), (int) (to - from));
+	  }
+
+	  /**
+	   * @return the given integers as consecutive big-endian bytes
+	  */
+	  private static byte[] ints(int... values)
+	  {
+		  byte[] bytes = new byte[values.length*4];
+		  for (int i = 0; i < values.length; i++) {
+			  bytes[4*i] = (byte) (values[i] >> 24);
+			  bytes[4*i + 1] = (byte) (values[i] >> 16);
+			  bytes[4*i + 2] = (byte) (values[i] >> 8);
+			  bytes[4*i + 3] = (byte) values[i];
 		  }
+		  return bytes;
 	  }
 	  
 	  /**
@@ -251,12 +934,77 @@ public class DiskUnit {
 		 if(b.getCapacity()!=this.blockSizes)
 			 throw new InvalidBlockException("Block instance does not match the block size of the current disk instance");
 		 
-		  try {
-			  disk.seek(blockNum*this.blockSizes);
-			  disk.write(b.block);
-		  } catch (IOException e) {
-			  e.printStackTrace();
-		  } 	
+		  cache.write(blockNum, b.block);
+	 }
+	 
+	  /**
+	   * Copies a run of consecutive blocks to another run, straight between the
+	   * disk file and the given buffer.
+	   * @param src first block to copy
+	   * @param dst first block to copy to, the runs must not overlap
+	   * @param count number of blocks to copy
+	   * @param chunk buffer the blocks go through, reused for the whole copy
+	   * @throws InvalidBlockNumberException whenever either run goes outside the disk
+	  */
+	 public void copyBlocks(int src, int dst, int count, byte[] chunk)
+			 throws InvalidBlockNumberException{
+		 if(src<0 || dst<0 || count<0 || src+count>this.capacity || dst+count>this.capacity)
+			 throw new InvalidBlockNumberException("The block numbers attempted are not valid ones");
+		 if (journal != null)
+			 for (int i = 0; i < count; i++)
+				 if (journal.isLogged(dst + i)) {
+					 synchronized (allocator) {
+						 checkpoint();    // the journal must not overwrite the copy on replay
+					 }
+					 break;
+				 }
+		 cache.copy(src, dst, count, chunk);
+	 }
+
+	  /**
+	   * Writes file content in the given block. Unlike write, the block is not logged in
+	   * the journal, unless the journal holds an older image of it that a replay would
+	   * write over it.
+	   * @param blockNum index of the block
+	   * @param b block instance with the content to be written
+	   * @throws InvalidBlockNumberException whenever the block number attempted is
+	   * not a valid one.
+	   * @throws InvalidBlockException whenever the block instance attempted does not match the 
+	   * block size of the current disk instance
+	  */
+	 public void writeData(int blockNum, VirtualDiskBlock b) 
+			 throws InvalidBlockNumberException, InvalidBlockException{
+		 if (journal != null && journal.isLogged(blockNum)) {
+			 write(blockNum, b);
+			 return;
+		 }
+		 if(b == null)
+			 throw new InvalidBlockException("Target block is empty");
+		 if(blockNum<0 || blockNum>this.capacity-1)
+			 throw new InvalidBlockNumberException("The block number attempted is not a valid one");
+		 if(b.getCapacity()!=this.blockSizes)
+			 throw new InvalidBlockException("Block instance does not match the block size of the current disk instance");
+		 
+		  cache.writeData(blockNum, b.block);
+	 }
+	 
+	  /**
+	   * Reads a block straight from the device, bypassing the cache, so it may be called
+	   * from several threads at once. The disk must be synced first, otherwise the content
+	   * read may be older than the one in the cache.
+	   * @param blockNum index of the block
+	   * @param b block instance where the content is copied
+	   * @throws InvalidBlockNumberException whenever the block number attempted is
+	   * not a valid one.
+	  */
+	 void readDirect(int blockNum, VirtualDiskBlock b) throws InvalidBlockNumberException{
+		 if(blockNum<0 || blockNum>this.capacity-1)
+			 throw new InvalidBlockNumberException("The Block Number is not a valid one");
+		 try {
+			 disk.read((long) blockNum*blockSizes, b.block, 0, blockSizes);
+		 } catch (IOException e) {
+			 e.printStackTrace();
+		 }
 	 }
 	 
 	  /**
@@ -276,12 +1024,7 @@ public class DiskUnit {
 		 if(b.getCapacity()!=this.blockSizes)
 			 throw new InvalidBlockException("Block instance does not match the block size of the current disk instance");
 
-		 try {
-			 disk.seek(blockNum*this.blockSizes);
-			 disk.read(b.block);
-		 } catch (IOException e) {
-			 e.printStackTrace();
-		 } 	
+		 cache.read(blockNum, b.block);
 		 
 	 }
 	 
@@ -302,70 +1045,27 @@ public class DiskUnit {
 	 }
 	 
 	  /** 
-	   * Formats the disk. This operation visits every physical block, 
-	   * except block 0, in the disk and fills with zeroes all those blocks.
+	   * Formats the disk. Every block except block 0 is filled with zeroes without
+	   * writing it: the disk file is cut right after block 0 and extended back, which
+	   * leaves a hole the file system reads as zeroes. Where the file cannot be cut, the
+	   * zeroes are written a large chunk at a time. Cached copies of the blocks are dropped.
 	  */
 	 public void lowLevelFormat(){
-		 for(int i=this.blockSizes; i<this.capacity*this.blockSizes; i++){
-			 try {
-				 disk.seek(i);
-				 disk.write(0);
-			 } catch (IOException e) {
-				 System.err.println("Format was not successful");
-				 e.printStackTrace();
-			 } 	
-		 }
-	 }
-	 
-	  /** 
-	   * Creates a list of iNodes, every iNode is initialized with 1, 
-	   * they are later modified at the time of use.
-	   * @param disk current disk
-	   * @param numNode number of inodes
-	   * @param b block size
-	   * @return list of new inodes
-	  */
-	 private static iNodeList createNodes(RandomAccessFile disk, int numNode, int b){
-		 iNodeList list = new iNodeList(numNode);
-		 iNode nodeDirectory = new iNode(b, 1, 1, 0);
-		 list.add(nodeDirectory);
-		 for(int i = 1; i<numNode; i++){
-			 iNode node = new iNode(b, 1, 1, 1); //This changes at file creation
-			 list.add(node);
+		 cache.discard(1, capacity - 1);
+		 long size = (long) capacity*blockSizes;
+		 try {
+			 disk.setLength(blockSizes);
+			 disk.setLength(size);
+			 return;
+		 } catch (IOException e) {
+			 // a mapped file cannot be cut on every system
 		 }
-		 return list;
-	 }
-	 
-	  /** 
-	   * Writes every node into the disk at creation.
-	   * @param disk current disk
-	   * @param capacity disk capacity
-	   * @param blockSize block size
-	  */
-	 private static void writeNodes(RandomAccessFile disk, int capacity, int blockSize){
-	    int blockSizes = blockSize;
-	    int numNode = (int) (capacity*blockSize*(.01));  //number of inodes
-	    int numBlock = numNode/(blockSize/9);           //number of blocks for inodes
-	    int nodesPerBlock= blockSize/9;                //nodes per block 
-	    iNode node;
-		listNodes = createNodes(disk, numNode, blockSize); //receives list of nodes
-		 int index2 = 0;
-		 outerloop:
-		 for(int i=1; i<=numBlock+1; i++){
-			 for(int j=0; j<nodesPerBlock; j++){
-				 if(index2>=listNodes.length)
-					 break outerloop;
-				 try {
-					 disk.seek((i*blockSize)+(9*(j)));
-					 node=listNodes.getNode(index2);
-					 disk.write(node.getType());
-					 disk.writeInt(node.getSize());
-					 disk.writeInt(node.getfirstBlock());
-				 } catch (IOException e) {
-					 e.printStackTrace();
-				 } 
-				 index2++;
-			 }
+		 byte[] zeroes = new byte[(int) Math.min(FORMAT_CHUNK, size)];
+		 try {
+			 for (long pos = blockSizes; pos < size; pos += zeroes.length)
+				 disk.write(pos, zeroes, 0, (int) Math.min(zeroes.length, size - pos));
+		 } catch (IOException e) {
+			 e.printStackTrace();
 		 }
 	 }
 	 
@@ -375,181 +1075,136 @@ public class DiskUnit {
 	   * @param size size of file
 	   * @param firstBlock posistion of the file's first block
 	  */
-	 public void setInode(int index, int size, int firstBlock){
-		int node = this.blockSizes + (9*index);
-		 try {
-			 disk.seek(node);
-			 disk.write(1);
-			 disk.writeInt(size);
-			 disk.writeInt(firstBlock);
-		 } catch (IOException e) {
-			 e.printStackTrace();
-		 }
+	 public void setInode(int index, long size, int firstBlock){
+		 inodes.set(index, TYPE_FILE, size, firstBlock);
 	 }
 	 
-	 
 	  /** 
-	   * Modifies the file size the i node is holding
-	   * @param index inode's index
+	   * Modifies specified iNode as a file stored in extents.
+	   * @param index iNode index
 	   * @param size size of file
+	   * @param root block of the root of the file's extent tree
+	   * @throws exceptions.InvalidValueException whenever the size does not fit in the
+	   * inodes of the disk
 	  */
-	 public void setInode(int index, int size){
-		int node = this.blockSizes + (9*index);  //finde position of node on disk
-		 try {
-			 disk.seek(node);
-			 disk.write(1);
-			 disk.writeInt(size);
-		 } catch (IOException e) {
-			 e.printStackTrace();
-		 }
+	 public void setExtentFileInode(int index, long size, int root){
+		 inodes.set(index, TYPE_EXTENT_FILE, size, root);
 	 }
 	 
 	  /** 
-	   * Sets specified iNode to directory iNode
+	   * Modifies specified iNode as a directory iNode in the original format, one block
+	   * per entry.
 	   * @param index iNode index
+	   * @param size size of directory, 1 if it has no blocks
+	   * @param firstBlock posistion of the directory's first block, 0 if it has none
 	  */
-	 public void setInodeToDirectory(int index){
-		int node = this.blockSizes + (9*index);
-		 try {
-			 disk.seek(node);
-			 disk.write(0);
-		 } catch (IOException e) {
-			 e.printStackTrace();
-		 }
+	 public void setDirectoryInode(int index, long size, int firstBlock){
+		 inodes.set(index, TYPE_DIRECTORY, size, firstBlock);
 	 }
 	 
 	  /** 
-	   * Sets desired directory as current directory
-	   * @param dir iNode index of the directory to be set as current directory
+	   * Modifies specified iNode as a directory iNode in packed format.
+	   * @param index iNode index
+	   * @param size size of directory, 1 if it has no blocks
+	   * @param firstBlock posistion of the directory's first block, 0 if it has none
 	  */
-	 public void setDirectory(int dir){
-		 currentDir=dir;
+	 public void setPackedDirectoryInode(int index, long size, int firstBlock){
+		 inodes.set(index, TYPE_PACKED_DIRECTORY, size, firstBlock);
 	 }
 	 
 	  /** 
-	   * @return returns inode's type
-	   * @param index inode's index
+	   * Modifies specified iNode as a directory iNode with a hashed index.
+	   * @param index iNode index
+	   * @param size size of directory
+	   * @param root block of the root of the directory's index
 	  */
-	 public int getInodeType(int index){
-		 int node = this.blockSizes + (9*index);
-		 int type=0;
-		 try {
-			 disk.seek(node);
-			 type=disk.readByte();
-		 } catch (IOException e) {
-			 e.printStackTrace();
-		 }
-		 return type;
+	 public void setIndexedDirectoryInode(int index, long size, int root){
+		 inodes.set(index, TYPE_INDEXED_DIRECTORY, size, root);
 	 }
 	 
+	 
 	  /** 
-	   * @return size of file that inode is holding
+	   * Modifies the file size the i node is holding, its type is kept
 	   * @param index inode's index
+	   * @param size size of file
 	  */
-	 public int getInodeSize(int index){
-		 int node = this.blockSizes + (9*index);
-		 int size=0;
-		 try {
-			 disk.seek(node);
-			 disk.readByte();
-			 size=disk.readInt();
-		 } catch (IOException e) {
-			 e.printStackTrace();
-		 }
-		 
-		 return size;
+	 public void setInode(int index, long size){
+		 inodes.setSize(index, size);
 	 }
 	 
 	  /** 
-	   * @return location of the first block corresponding to this inodes file
+	   * @return returns inode's type
 	   * @param index inode's index
 	  */
-	 public int getInodeFBlock(int index){
-		 int node = this.blockSizes + (9*index);
-		 int block=0;
-		 try {
-			 disk.seek(node);
-			 disk.readByte();
-			 disk.readInt();
-			 block=disk.readInt();
-		 } catch (IOException e) {
-			 e.printStackTrace();
-		 }
-		 return block;
-	 }	 
-
-	  /** 
-	   * @return next free inode
-	  */
-	 public int getNextFreeNode(){
-		 int current = nextFreeNode;
-		 nextFreeNode++;
-		 if(nextFreeNode>(numNodes-1))
-			 nextFreeNode=0;
-		 return current;
+	 public int getInodeType(int index){
+		 return inodes.getType(index);
 	 }
 	 
 	  /** 
-	   * @return current free block
+	   * @return true if the inode holds a directory
+	   * @param index inode's index
 	  */
-	 public int getfirstFLB(){
-		 return this.firstFLB;
+	 public boolean isDirectory(int index){
+		 int type = inodes.getType(index);
+		 return type == TYPE_DIRECTORY || type == TYPE_PACKED_DIRECTORY || type == TYPE_INDEXED_DIRECTORY;
 	 }
 	 
 	  /** 
-	   * @return current directories inode index
+	   * @return size of file that inode is holding
+	   * @param index inode's index
 	  */
-	 public int getcurrentDir(){
-		 return this.currentDir;
+	 public long getInodeSize(int index){
+		 return inodes.getSize(index);
 	 }
-	 
+
 	  /** 
-	   * @return get name of current directory path
+	   * @return largest file size the inodes of the disk can hold, 2 GB on version 1 disks
 	  */
-	 public String getCurrentName(){
-		 return this.currentName;
+	 public long getMaxFileSize(){
+		 return inodes.getMaxSize();
 	 }
-	 
+
 	  /** 
-	   * Sets name of current directory path
-	   * @param name name of current directory path
+	   * @return format version of the disk
 	  */
-	 public void setCurrentName(String name){
-		  this.currentName=name;
+	 public int getVersion(){
+		 return version;
 	 }
 	 
 	  /** 
-	   * push current directory inode to stack, this is to preserve the directories order
-	   * while moving through directories
-	   * @param inodeIndex inode index of current directory
+	   * @return location of the first block corresponding to this inodes file
+	   * @param index inode's index
+	  */
+	 public int getInodeFBlock(int index){
+		 return inodes.getFirstBlock(index);
+	 }	 
+
+	  /** 
+	   * @return number of inodes of the disk
 	  */
-	 public void pushDir(int inodeIndex){ 
-		 this.directoryStack.push(new Integer(inodeIndex));
+	 public int getInodeCount(){
+		 return this.numNodes;
 	 }
-	 
+
 	  /** 
-	   * push current directory path name, this is to preserve the directories path name order
-	   * while moving forward through directories
-	   * @param name current directory path name
+	   * @return next free inode
 	  */
-	 public void pushName(String name){ 
-		 this.nameStack.push(name);
+	 public int getNextFreeNode(){
+		 synchronized (allocator) {
+			 int current = nextFreeNode;
+			 removedDirectories.remove(current);
+			 nextFreeNode++;
+			 if(nextFreeNode>(numNodes-1))
+				 nextFreeNode=0;
+			 return current;
+		 }
 	 }
 	 
 	  /** 
-	   * pop stack to obtain previous directory inode index, this is to preserve the directories order
-	   * while moving backwards through directories
-	   * @return previous directory inode index, returns -1 if stack is empty
-	  */
-	 public int popDir() throws EmptyStackException{
-		 int prevDir;
-		 if(this.directoryStack.isEmpty()){
-			 prevDir=-1;
-			 return prevDir;
-		 }
-		 prevDir = (int) this.directoryStack.pop();
-	
-		 return prevDir;
+	   * @return current free block
+	  */
+	 public int getfirstFLB(){
+		 return this.firstFLB;
 	 }
 	 
 	  /** 
@@ -559,30 +1214,18 @@ public class DiskUnit {
 		 return this.diskName;
 	 }
 	 
-	  /** 
-	   * pop stack to obtain previous directory path name, this is to preserve the directories path name order
-	   * while moving backwards through directories
-	   * @return previous directory path name, returns null if stack is empty
-	  */
-	 public String popName() throws EmptyStackException{
-		 String prevName;
-		 if(this.nameStack.isEmpty()){
-			 prevName=null;
-			 return prevName;
-		 }
-		 prevName = this.nameStack.pop();
-	
-		 return prevName;
-	 }
-	 
 	 /** 
-	   * Attempts to delete specified disk.
+	   * Attempts to delete specified disk, along with its snapshots.
 	   * @param names file's name
 	   * @return true or false depending on file deletion success
 	  */
 	 public static boolean deleteDisk(String names){
 		 File file = new File("DiskUnits/"+names);
-		 return file.delete();		 
+		 if (!file.delete())
+			 return false;
+		 for (String snap : Snapshot.list(names))
+			 new File(Snapshot.path(names, snap)).delete();
+		 return true;
 	 }
 	 
 	  /** 
@@ -590,12 +1233,16 @@ public class DiskUnit {
 	   * @return specified file block
 	  */
 	 public FileBlock getFileBlock(int i) {
-		 VirtualDiskBlock vdb = new VirtualDiskBlock(blockSizes);
-		 this.read(i, vdb);
-		 FileBlock fb = new FileBlock();
-		 fb.setData(Utils.getStringFromBlock(vdb, blockSizes - 4));
-		 fb.setNext(Utils.getIntFromBlock(vdb, vdb.getCapacity() - 4));
-		 return fb;
+		 VirtualDiskBlock vdb = blocks.lease();
+		 try {
+			 this.read(i, vdb);
+			 FileBlock fb = new FileBlock();
+			 fb.setData(Utils.getStringFromBlock(vdb, blockSizes - 4));
+			 fb.setNext(vdb.getInt(blockSizes - 4));
+			 return fb;
+		 } finally {
+			 blocks.release(vdb);
+		 }
 	 }
 	
 	  /** 
@@ -603,121 +1250,126 @@ public class DiskUnit {
 	   * @return index of next freeblock
 	  */
 	 public int getFreeBN() throws FullDiskException { 
-		 int bn; 
-		 if (firstFLB == 0) 
-	      throw new FullDiskException("Disk is full.");
-	   
-		 VirtualDiskBlock vdb = new VirtualDiskBlock(blockSizes);
-		 try{
-			 this.read(firstFLB, vdb);
-		 } catch(InvalidBlockNumberException e){
-			 throw new FullDiskException("Disk is full.");
+		 synchronized (allocator) {
+			 int bn = freeMap.allocate();
+			 if (bn == -1) 
+				 throw full("Disk is full.");
+			 return bn;     
+		 }
+	 }
+	 
+	  /** 
+	   * Takes a run of consecutive free blocks, so a large file can be stored contiguously
+	   * @param count number of blocks wanted
+	   * @return index of the first block of the run
+	   * @throws FullDiskException whenever no run of that many free blocks exists
+	  */
+	 public int getFreeRun(int count) throws FullDiskException { 
+		 synchronized (allocator) {
+			 int bn = freeMap.allocateRun(count);
+			 if (bn == -1) 
+				 throw full("Disk has no " + count + " consecutive free blocks.");
+			 return bn;     
+		 }
+	 }
+
+	  /** 
+	   * Notes a failed allocation. Blocks freed by transactions that are not durable yet
+	   * are not reclaimed here, since committing them now could log half of a command
+	   * running in another session; the commit ending the command makes them reusable.
+	   * @param message reason of the failure
+	   * @return the exception to throw
+	  */
+	 private FullDiskException full(String message) {
+		 if (!freedNow.isEmpty() || !freedLogged.isEmpty())
+			 starved = true;
+		 return new FullDiskException(message);
+	 }
+	 
+	  /** 
+	   * @return number of blocks that are not in use
+	  */
+	 public int getFreeBlockCount() { 
+		 synchronized (allocator) {
+			 return freeMap.getFreeCount() + freedNow.size() + freedLogged.size();
 		 }
-		   
-		 if (firstFLBPos != 0) { 
-			bn = Utils.getIntFromBlock(vdb, firstFLBPos * 4);
-		    firstFLBPos--; 
-		 }   
-		 else {                                  
-		    bn = firstFLB; 
-		    firstFLB = Utils.getIntFromBlock(vdb, 0);  
-		    firstFLBPos = (blockSizes/4) - 1;               
-		 } 
-		 return bn;     
 	 }
 	
 	  /** 
-	   * Registers blocks that are no longer in use as free blocks
+	   * Registers blocks that are no longer in use as free blocks. A block shared by
+	   * cloned files only loses one owner, it becomes free when its last owner frees it.
+	   * On a disk with a journal the block is not reused before the transaction freeing
+	   * it is durable, since until then a crash gives it back to its old owner
 	   * @param bn free block index
 	  */
 	 public void registerFB(int bn) { 
-		 VirtualDiskBlock vdb = new VirtualDiskBlock(blockSizes);
-		 if (firstFLB == 0)  { 
-		 	 firstFLB = bn; 
-			 Utils.copyIntToBlock(vdb, 0, 0);
-			 firstFLBPos = 0; 
-			 this.write(firstFLB, vdb);
-		 }  else if (firstFLBPos == (blockSizes/4) - 1) {  
-			 Utils.copyIntToBlock(vdb, 0, firstFLB);
-			 firstFLBPos = 0;
-			 firstFLB = bn; 
-			 this.write(firstFLB, vdb);
-		 }  else { 
-			 this.read(firstFLB, vdb);
-			 firstFLBPos++; 
-			 Utils.copyIntToBlock(vdb, firstFLBPos * 4, bn);
-			 this.write(firstFLB, vdb);
-		 } 
+		 if (bn <= 0 || bn >= capacity)
+			 return;
+		 synchronized (allocator) {
+			 if (refs.release(bn))
+				 return;    // another file still owns the block
+			 if (journal != null)
+				 freedNow.add(bn);
+			 else
+				 freeMap.markFree(bn);
+		 }
+	 }
+	 
+	  /** 
+	   * Gives back a block taken by the running command that nothing refers to yet, such
+	   * as a block reserved and not needed. Unlike registerFB the block can be reused at
+	   * once, even on a disk with a journal, since no transaction has it in use
+	   * @param bn block index
+	  */
+	 public void returnFB(int bn) { 
+		 if (bn <= 0 || bn >= capacity)
+			 return;
+		 synchronized (allocator) {
+			 freeMap.markFree(bn);
+		 }
+	 }
+	 
+	  /** 
+	   * Adds one owner to every block of a run, used when a file is cloned. The blocks
+	   * the reference count table needs to record it are taken now, so the commit
+	   * writing the table never finds the disk full
+	   * @param start first block of the run
+	   * @param length number of blocks in the run
+	   * @throws FullDiskException whenever the table needs a block and the disk is full,
+	   * the run is then left as it was
+	  */
+	 public void shareBlocks(int start, int length) throws FullDiskException { 
+		 synchronized (allocator) {
+			 refs.share(start, length);
+			 try {
+				 refs.reserve(this);
+			 } catch (FullDiskException e) {
+				 refs.unshare(start, length);
+				 throw e;
+			 }
+		 }
+	 }
+	 
+	  /** 
+	   * @param bn block index
+	   * @return true if the block is owned by more than one file and must be copied 
+	   * before it is written
+	  */
+	 public boolean isSharedBlock(int bn) { 
+		 synchronized (allocator) {
+			 return refs.isShared(bn);
+		 }
 	 }
 		
 	  /** 
-	   * Adds file information to directory and connects every directory block
-	   * so that it can be read later as a single file
+	   * Adds file information to a directory
+	   * @param dir inode index of the directory
 	   * @param name files name
-	   * @param sizeD directory current size
-	   * @param Node files inode index to write on block
-	  */
-	public void addTodirectory(int sizeD, String name, int Node){
-		int chunkSize = this.blockSizes - 4; 
-		byte[] barr = new byte[this.blockSizes];
-		String newName = name+" ";
-		VirtualDiskBlock vb = new VirtualDiskBlock(this.blockSizes);
-		Utils util = new Utils();	
-		int block = this.getFreeBN();
-		if(sizeD==1){                     //if directory is empty
-			this.setInode(this.getcurrentDir(), (this.blockSizes), block);
-			this.setInodeToDirectory(this.getcurrentDir());
-		}
-		else if(sizeD==this.blockSizes){  //if directory has 1 file, writes bock index of second file on first file
-			int prevBlock = this.getInodeFBlock(this.getcurrentDir());
-			 try {
-				 disk.seek(((this.blockSizes)*(prevBlock+1))-4);
-				 disk.writeInt(block);
-			 } catch (IOException e) {
-				 e.printStackTrace();
-			 } 		 
-			 this.setInode(this.getcurrentDir(), (this.blockSizes)*2);
-			 this.setInodeToDirectory(this.getcurrentDir());
-		}	
-		else{  //rest of the cases, writes directories next block index on previous block
-			int temp = this.getInodeFBlock(this.getcurrentDir());
-			int ind=1;
-			int prev=1;
-			while(temp!=0){
-				try {
-					disk.seek(((this.blockSizes)*(temp+1))-4);
-					temp=disk.readInt();
-					if(temp!=0){
-						prev=temp;
-					}
-				 } catch (IOException e) {
-					 e.printStackTrace();
-				 }
-				 ind++;
-			}
-			try {
-				disk.seek(((blockSizes)*(prev+1))-4);
-				disk.writeInt(block);
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-				 
-			this.setInode(this.getcurrentDir(), (this.blockSizes)*ind);
-			this.setInodeToDirectory(this.getcurrentDir());
-		}
-		//writes new file information on directory block
-		int chn = 0;
-		int b = 0; 
-		for (int i=0; i<chunkSize && chn < newName.length(); i++) { 
-			barr[i] = (byte) newName.charAt(chn); 
-			chn++; 
-			b++; 
-		}	
-		for (int i=0; i<chunkSize; i++)  
-			vb.setElement(i, barr[i]);
-
-		util.copyNodeToBlock(vb, Node); //writes files node index in directory
-		write(block, vb);
+	   * @param Node files inode index
+	   * @throws FullDiskException whenever the directory needs a new block and the disk is full
+	  */
+	public void addTodirectory(int dir, String name, int Node) throws FullDiskException {
+		new DirectoryFile(this, dir).add(name, Node);
 	}
 }
 
@@ -0,0 +1,69 @@
+package diskUtilities;
+
+/**
+ * A run of consecutive disk blocks holding consecutive blocks of a file: the file blocks
+ * logical .. logical+length-1 are stored in the disk blocks physical .. physical+length-1.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class Extent {
+
+	private int logical;   // first file block of the run
+	private int physical;  // first disk block of the run
+	private int length;    // number of blocks in the run
+
+	/**
+	 * @param logical first file block of the run
+	 * @param physical first disk block of the run
+	 * @param length number of blocks in the run
+	 */
+	public Extent(int logical, int physical, int length) {
+		this.logical = logical;
+		this.physical = physical;
+		this.length = length;
+	}
+
+	/**
+	 * @return first file block of the run
+	 */
+	public int getLogical() {
+		return logical;
+	}
+
+	/**
+	 * @return first disk block of the run
+	 */
+	public int getPhysical() {
+		return physical;
+	}
+
+	/**
+	 * @return number of blocks in the run
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @param length new number of blocks in the run
+	 */
+	public void setLength(int length) {
+		this.length = length;
+	}
+
+	/**
+	 * @param fileBlock index of a block of the file
+	 * @return true if the run holds the given file block
+	 */
+	public boolean contains(int fileBlock) {
+		return fileBlock >= logical && fileBlock - logical < length;
+	}
+
+	/**
+	 * @param fileBlock index of a block of the file held by this run
+	 * @return disk block holding the given file block
+	 */
+	public int map(int fileBlock) {
+		return physical + (fileBlock - logical);
+	}
+}
@@ -0,0 +1,132 @@
+package diskUtilities;
+
+import java.util.ArrayList;
+
+import exceptions.FullDiskException;
+
+/**
+ * Copies extent files block to block, without looking at their content. The blocks of
+ * the copy are reserved before anything is copied, in a single run whenever the disk has
+ * one long enough; then every stretch that is consecutive both in the source and in the
+ * copy is moved with one bulk transfer through a buffer reused for the whole copy.
+ * Files can also be cloned: the clone gets its own extent tree over the same data
+ * blocks, which are copied only when one of the files writes them.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class ExtentFileCopier {
+
+	private static final int CHUNK_BLOCKS = 64;   // blocks moved per device transfer
+
+	private DiskUnit d;
+	private byte[] chunk;
+
+	/**
+	 * @param d disk holding the files
+	 */
+	public ExtentFileCopier(DiskUnit d) {
+		this.d = d;
+		this.chunk = new byte[CHUNK_BLOCKS * d.getBlockSize()];
+	}
+
+	/**
+	 * Copies the data blocks of an extent file and writes an extent tree for the copy.
+	 * @param source map of the file to copy
+	 * @return block of the root of the copy's extent tree
+	 * @throws FullDiskException whenever the disk has no room for the copy, in which
+	 * case nothing is left allocated
+	 */
+	public int copy(ExtentFileMap source) throws FullDiskException {
+		ExtentTree tree = new ExtentTree(d);
+		ArrayList<Extent> from = tree.extents(source.getRoot());
+		int total = 0;
+		for (Extent e : from)
+			total += e.getLength();
+		ArrayList<Extent> to = reserve(total);
+
+		int i = 0, j = 0, doneFrom = 0, doneTo = 0;
+		while (i < from.size()) {
+			Extent a = from.get(i);
+			Extent b = to.get(j);
+			int n = Math.min(a.getLength() - doneFrom, b.getLength() - doneTo);
+			d.copyBlocks(a.getPhysical() + doneFrom, b.getPhysical() + doneTo, n, chunk);
+			doneFrom += n;
+			doneTo += n;
+			if (doneFrom == a.getLength()) {
+				i++;
+				doneFrom = 0;
+			}
+			if (doneTo == b.getLength()) {
+				j++;
+				doneTo = 0;
+			}
+		}
+		try {
+			return tree.build(to);
+		} catch (FullDiskException e) {
+			release(to);
+			throw e;
+		}
+	}
+
+	/**
+	 * Makes a clone of an extent file sharing every data block with it. Only the extent
+	 * tree is written, and each extent adds one reference to its blocks.
+	 * @param source map of the file to clone
+	 * @return block of the root of the clone's extent tree
+	 * @throws FullDiskException whenever there are no blocks left for the tree
+	 */
+	public int cloneFile(ExtentFileMap source) throws FullDiskException {
+		ExtentTree tree = new ExtentTree(d);
+		ArrayList<Extent> extents = tree.extents(source.getRoot());
+		int root = tree.build(extents);
+		int shared = 0;
+		try {
+			for (Extent e : extents) {
+				d.shareBlocks(e.getPhysical(), e.getLength());
+				shared++;
+			}
+		} catch (FullDiskException ex) {
+			// gives back the references taken so far and the tree
+			for (int i = 0; i < shared; i++)
+				for (int k = 0; k < extents.get(i).getLength(); k++)
+					d.registerFB(extents.get(i).getPhysical() + k);
+			for (int bn : tree.nodes(root))
+				d.returnFB(bn);
+			throw ex;
+		}
+		return root;
+	}
+
+	/**
+	 * Takes count free blocks, asking for all of them as one run and halving the run
+	 * asked for until the disk can provide it.
+	 * @return the blocks taken, as extents numbered from file block 0
+	 */
+	private ArrayList<Extent> reserve(int count) throws FullDiskException {
+		ArrayList<Extent> runs = new ArrayList<Extent>();
+		int taken = 0;
+		int want = count;
+		while (taken < count) {
+			want = Math.min(want, count - taken);
+			try {
+				int bn = d.getFreeRun(want);
+				runs.add(new Extent(taken, bn, want));
+				taken += want;
+			} catch (FullDiskException e) {
+				if (want == 1) {
+					release(runs);
+					throw new FullDiskException("Disk is full.");
+				}
+				want /= 2;
+			}
+		}
+		return runs;
+	}
+
+	private void release(ArrayList<Extent> runs) {
+		for (Extent e : runs)
+			for (int k = 0; k < e.getLength(); k++)
+				d.registerFB(e.getPhysical() + k);
+	}
+}
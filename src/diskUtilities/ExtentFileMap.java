@@ -0,0 +1,59 @@
+package diskUtilities;
+
+/**
+ * Map of a file stored in extents. The inode holds the root of the file's extent tree,
+ * and every data block holds blockSize bytes of the file, so the block holding any offset
+ * is found with one tree lookup. The last extent found is remembered, which makes
+ * sequential reads touch the tree once per extent.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class ExtentFileMap extends FileMap {
+
+	private ExtentTree tree;
+	private int root;
+	private Extent last;    // extent of the last lookup
+
+	/**
+	 * @param d disk holding the file
+	 * @param inode inode index of the file
+	 */
+	public ExtentFileMap(DiskUnit d, int inode) {
+		super(d, inode);
+		this.tree = new ExtentTree(d);
+		this.root = d.getInodeFBlock(inode);
+	}
+
+	/**
+	 * @return block of the root of the file's extent tree
+	 */
+	public int getRoot() {
+		return root;
+	}
+
+	public int getBlockCount() {
+		return (int) ((size + blockSize - 1) / blockSize);
+	}
+
+	public int getBlock(int index) {
+		if (last == null || !last.contains(index))
+			last = tree.find(root, index);
+		return last == null ? 0 : last.map(index);
+	}
+
+	public int indexOf(long offset) {
+		return (int) (offset / blockSize);
+	}
+
+	public long offsetOf(int index) {
+		return (long) index * blockSize;
+	}
+
+	public int dataLength(int index) {
+		return blockSize;
+	}
+
+	public void free() {
+		tree.free(root);
+	}
+}
@@ -0,0 +1,264 @@
+package diskUtilities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+
+import exceptions.FullDiskException;
+
+/**
+ * Writes a new file in extent format, or appends to an existing one. Data blocks are
+ * taken from the disk in runs of consecutive free blocks, so a file usually ends up in a
+ * handful of extents; the extent tree is written once the whole content is known. When
+ * appending, only the last data block of the file and the new blocks are written, and the
+ * new extents are added to the right edge of the file's tree.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class ExtentFileWriter {
+
+	private static final int MAX_RUN = 1024;  // most blocks reserved at once
+
+	private DiskUnit d;
+	private int blockSize;
+	private ArrayList<Extent> extents = new ArrayList<Extent>();
+	private VirtualDiskBlock block;
+	private int fill;             // bytes of block already filled
+	private long size;            // bytes written so far
+	private long expected;        // bytes the caller expects to write
+	private long maxSize;         // largest file the inodes of the disk can hold
+	private int runNext;          // next reserved block not yet used
+	private int runEnd;           // block after the last reserved one
+	private int root;             // root of the tree being appended to, 0 for a new file
+	private int firstBlock;       // file block of the first block written by this writer
+	private int tail;             // disk block of the partial last block being filled, 0 if none
+
+	/**
+	 * @param d disk where the file is written
+	 * @param expected number of bytes that are going to be written, used to reserve
+	 * runs of the right length
+	 */
+	public ExtentFileWriter(DiskUnit d, long expected) {
+		this.d = d;
+		this.blockSize = d.getBlockSize();
+		this.block = new VirtualDiskBlock(blockSize);
+		this.expected = expected;
+		this.maxSize = d.getMaxFileSize();
+	}
+
+	/**
+	 * Opens an existing extent file for appending. Its partial last block, if any, is
+	 * read so the new content first fills the rest of it; when that block is shared with
+	 * a clone of the file, the file first gets its own copy of it.
+	 * @param d disk holding the file
+	 * @param inode inode index of an extent file
+	 * @param expected number of bytes that are going to be appended
+	 * @return writer adding to the end of the file
+	 * @throws FullDiskException whenever the last block has to be copied and the disk is full
+	 */
+	public static ExtentFileWriter append(DiskUnit d, int inode, long expected) throws FullDiskException {
+		ExtentFileMap map = new ExtentFileMap(d, inode);
+		ExtentFileWriter writer = new ExtentFileWriter(d, map.getSize() + expected);
+		writer.root = map.getRoot();
+		writer.size = map.getSize();
+		writer.fill = (int) (writer.size % writer.blockSize);
+		writer.firstBlock = (int) (writer.size / writer.blockSize);
+		if (writer.fill > 0) {
+			writer.tail = map.getBlock(writer.firstBlock);
+			d.read(writer.tail, writer.block);
+			if (d.isSharedBlock(writer.tail)) {
+				int copy = d.getFreeBN();
+				d.writeData(copy, writer.block);
+				try {
+					writer.root = new ExtentTree(d).remapLast(writer.root, copy);
+				} catch (FullDiskException e) {
+					d.returnFB(copy);   // the tree is left as it was
+					throw e;
+				}
+				d.setExtentFileInode(inode, writer.size, writer.root);
+				d.registerFB(writer.tail);
+				writer.tail = copy;
+			}
+		}
+		return writer;
+	}
+
+	/**
+	 * Appends len bytes of src to the file.
+	 * @throws FullDiskException whenever the disk runs out of blocks, or the file grows
+	 * past the largest size its inode can hold
+	 */
+	public void write(byte[] src, int off, int len) throws FullDiskException {
+		checkSize(len);
+		while (len > 0) {
+			int n = Math.min(len, blockSize - fill);
+			System.arraycopy(src, off, block.block, fill, n);
+			fill += n;
+			off += n;
+			len -= n;
+			size += n;
+			if (fill == blockSize)
+				writeBlock();
+		}
+	}
+
+	/**
+	 * Appends the remaining bytes of src to the file, leaving src at its limit.
+	 * @throws FullDiskException whenever the disk runs out of blocks, or the file grows
+	 * past the largest size its inode can hold
+	 */
+	public void write(ByteBuffer src) throws FullDiskException {
+		checkSize(src.remaining());
+		while (src.hasRemaining()) {
+			int n = Math.min(src.remaining(), blockSize - fill);
+			src.get(block.block, fill, n);
+			fill += n;
+			size += n;
+			if (fill == blockSize)
+				writeBlock();
+		}
+	}
+
+	/**
+	 * Appends everything left in the channel to the file, reading it through the given
+	 * buffer. The buffer is cleared before and after, so the caller can reuse it.
+	 * @param in channel to copy
+	 * @param buffer buffer the channel is read into
+	 * @return number of bytes copied
+	 * @throws IOException whenever the channel cannot be read
+	 * @throws FullDiskException whenever the disk runs out of blocks
+	 */
+	public long copyFrom(ReadableByteChannel in, ByteBuffer buffer) throws IOException, FullDiskException {
+		long copied = 0;
+		buffer.clear();
+		while (in.read(buffer) != -1) {
+			buffer.flip();
+			copied += buffer.remaining();
+			write(buffer);
+			buffer.clear();
+		}
+		return copied;
+	}
+
+	/**
+	 * Appends everything left in the stream to the file, one block at a time.
+	 * @param in stream to copy
+	 * @return number of bytes copied
+	 * @throws IOException whenever the stream cannot be read
+	 * @throws FullDiskException whenever the disk runs out of blocks
+	 */
+	public long copyFrom(InputStream in) throws IOException, FullDiskException {
+		byte[] buf = new byte[blockSize];
+		long copied = 0;
+		int n;
+		while ((n = in.read(buf, 0, buf.length)) != -1) {
+			write(buf, 0, n);
+			copied += n;
+		}
+		return copied;
+	}
+
+	/**
+	 * @return number of bytes written so far
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Writes the last partial block and the extent tree of the file, or adds the new
+	 * extents to the tree of the file being appended to. Reserved blocks that were not
+	 * needed are given back.
+	 * @return block of the root of the file's extent tree
+	 * @throws FullDiskException whenever there are no blocks left for the tree
+	 */
+	public int finish() throws FullDiskException {
+		if (fill > 0) {
+			for (int i = fill; i < blockSize; i++)
+				block.setElement(i, (byte) 0);
+			writeBlock();
+		}
+		releaseReserved();
+		if (root != 0)
+			return new ExtentTree(d).append(root, extents);
+		return new ExtentTree(d).build(extents);
+	}
+
+	/**
+	 * Gives back every block taken so far, used when the file cannot be completed. A file
+	 * being appended to keeps its old content and size.
+	 */
+	public void abort() {
+		releaseReserved();
+		for (Extent e : extents)
+			for (int k = 0; k < e.getLength(); k++)
+				d.registerFB(e.getPhysical() + k);
+		extents.clear();
+	}
+
+	private void writeBlock() {
+		if (tail != 0) {
+			// the old last block of the file, now holding more of it
+			d.writeData(tail, block);
+			tail = 0;
+			firstBlock++;
+			fill = 0;
+			return;
+		}
+		int bn = nextBlock();
+		d.writeData(bn, block);
+		Extent last = extents.isEmpty() ? null : extents.get(extents.size() - 1);
+		if (last != null && last.getPhysical() + last.getLength() == bn)
+			last.setLength(last.getLength() + 1);
+		else
+			extents.add(new Extent(fileBlocks(), bn, 1));
+		fill = 0;
+	}
+
+	/**
+	 * @return number of data blocks already written
+	 */
+	private int fileBlocks() {
+		if (extents.isEmpty())
+			return firstBlock;
+		Extent last = extents.get(extents.size() - 1);
+		return last.getLogical() + last.getLength();
+	}
+
+	/**
+	 * Takes the next reserved block, reserving a new run when the current one is used up.
+	 * The run asked for covers the rest of the expected content and is halved until the
+	 * disk can provide it.
+	 */
+	private int nextBlock() throws FullDiskException {
+		if (runNext == runEnd) {
+			long left = (expected - size + fill + blockSize - 1) / blockSize;
+			int want = (int) Math.max(1, Math.min(MAX_RUN, left));
+			want = Math.min(want, Math.max(1, d.getFreeBlockCount()));
+			while (true) {
+				try {
+					runNext = d.getFreeRun(want);
+					runEnd = runNext + want;
+					break;
+				} catch (FullDiskException e) {
+					if (want == 1)
+						throw new FullDiskException("Disk is full.");
+					want /= 2;
+				}
+			}
+		}
+		return runNext++;
+	}
+
+	private void checkSize(int len) throws FullDiskException {
+		if (size + len > maxSize)
+			throw new FullDiskException("File is too large for the disk format.");
+	}
+
+	private void releaseReserved() {
+		while (runNext < runEnd)
+			d.returnFB(runNext++);
+	}
+}
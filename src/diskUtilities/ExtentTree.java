@@ -0,0 +1,412 @@
+package diskUtilities;
+
+import java.util.ArrayList;
+
+import exceptions.FullDiskException;
+
+/**
+ * B-tree indexing the extents of a file by their first file block. Every node takes one
+ * disk block: bytes 0-3 hold the level of the node (0 for leaves), bytes 4-7 the number
+ * of entries, followed by the entries sorted by file block. A leaf entry is an extent
+ * (file block, disk block, length), an internal entry is the first file block covered by
+ * a child and the block of that child. Finding the disk block of any offset of a file
+ * reads one node per level.
+ * Every node a change of the tree can need is taken from the disk before the change
+ * writes anything, so on a full disk the tree is left as it was.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class ExtentTree {
+
+	private static final int HEADER = 8;          // level and entry count
+	private static final int LEAF_ENTRY = 12;     // file block, disk block, length
+	private static final int INTERNAL_ENTRY = 8;  // first file block, child block
+
+	private DiskUnit d;
+	private VirtualDiskBlock node;
+	private ArrayList<Integer> reserved = new ArrayList<Integer>();   // taken ahead by reserve
+
+	/**
+	 * @param d disk holding the tree
+	 */
+	public ExtentTree(DiskUnit d) {
+		this.d = d;
+		this.node = new VirtualDiskBlock(d.getBlockSize());
+	}
+
+	/**
+	 * @return number of extents a leaf can hold
+	 */
+	public int leafCapacity() {
+		return (d.getBlockSize() - HEADER) / LEAF_ENTRY;
+	}
+
+	/**
+	 * @return number of children an internal node can hold
+	 */
+	public int internalCapacity() {
+		return (d.getBlockSize() - HEADER) / INTERNAL_ENTRY;
+	}
+
+	/**
+	 * Writes a new tree holding the given extents. Leaves are filled completely and the
+	 * levels above them are built from the bottom up until a single root is left.
+	 * @param extents extents of the file, sorted by file block
+	 * @return block of the root of the new tree
+	 * @throws exceptions.FullDiskException whenever there are no blocks left for the nodes
+	 */
+	public int build(ArrayList<Extent> extents) {
+		reserve(buildSize(extents.size()));
+		try {
+			return buildReserved(extents);
+		} finally {
+			unreserve();
+		}
+	}
+
+	private int buildReserved(ArrayList<Extent> extents) {
+		ArrayList<int[]> level = new ArrayList<int[]>();   // (first file block, node block)
+		int perLeaf = leafCapacity();
+		int i = 0;
+		do {
+			int count = Math.min(perLeaf, extents.size() - i);
+			clearNode(0, count);
+			for (int j = 0; j < count; j++) {
+				Extent e = extents.get(i + j);
+				int p = HEADER + j * LEAF_ENTRY;
+				Utils.copyIntToBlock(node, p, e.getLogical());
+				Utils.copyIntToBlock(node, p + 4, e.getPhysical());
+				Utils.copyIntToBlock(node, p + 8, e.getLength());
+			}
+			int bn = allocate();
+			d.write(bn, node);
+			level.add(new int[] {count > 0 ? extents.get(i).getLogical() : 0, bn});
+			i += count;
+		} while (i < extents.size());
+
+		int perNode = internalCapacity();
+		for (int height = 1; level.size() > 1; height++) {
+			ArrayList<int[]> upper = new ArrayList<int[]>();
+			for (i = 0; i < level.size(); i += perNode) {
+				int count = Math.min(perNode, level.size() - i);
+				clearNode(height, count);
+				for (int j = 0; j < count; j++) {
+					int p = HEADER + j * INTERNAL_ENTRY;
+					Utils.copyIntToBlock(node, p, level.get(i + j)[0]);
+					Utils.copyIntToBlock(node, p + 4, level.get(i + j)[1]);
+				}
+				int bn = allocate();
+				d.write(bn, node);
+				upper.add(new int[] {level.get(i)[0], bn});
+			}
+			level = upper;
+		}
+		return level.get(0)[1];
+	}
+
+	/**
+	 * Adds extents after the last one of the tree. Each extent goes down the rightmost
+	 * path only: it lengthens the last extent when it continues it on disk, or is added to
+	 * the last leaf; a full node gets a new sibling to its right holding just the new
+	 * entry, and a full root gets a new root above it. The rest of the tree is not read.
+	 * @param root block of the root of the tree
+	 * @param extents extents to add, sorted by file block and all after the existing ones
+	 * @return block of the root of the tree, which changes when the root is split
+	 * @throws exceptions.FullDiskException whenever there are no blocks left for the nodes
+	 */
+	public int append(int root, ArrayList<Extent> extents) {
+		reserve(appendSize(root, extents.size()));
+		try {
+			return appendReserved(root, extents);
+		} finally {
+			unreserve();
+		}
+	}
+
+	private int appendReserved(int root, ArrayList<Extent> extents) {
+		for (Extent e : extents) {
+			int[] sibling = appendTo(root, e);
+			if (sibling == null)
+				continue;
+			d.read(root, node);
+			int height = Utils.getIntFromBlock(node, 0) + 1;
+			clearNode(height, 2);
+			Utils.copyIntToBlock(node, HEADER, 0);
+			Utils.copyIntToBlock(node, HEADER + 4, root);
+			Utils.copyIntToBlock(node, HEADER + INTERNAL_ENTRY, sibling[0]);
+			Utils.copyIntToBlock(node, HEADER + INTERNAL_ENTRY + 4, sibling[1]);
+			root = allocate();
+			d.write(root, node);
+		}
+		return root;
+	}
+
+	/**
+	 * Moves the last block of the file to another disk block, used to give a file its
+	 * own copy of a shared block before writing it. The last extent loses its last block,
+	 * which is then added as an extent of its own.
+	 * @param root block of the root of a tree with at least one extent
+	 * @param bn disk block now holding the last block of the file
+	 * @return block of the root of the tree, which changes when the root is split
+	 * @throws exceptions.FullDiskException whenever there are no blocks left for the nodes
+	 */
+	public int remapLast(int root, int bn) {
+		reserve(appendSize(root, 1));
+		try {
+			return remapReserved(root, bn);
+		} finally {
+			unreserve();
+		}
+	}
+
+	private int remapReserved(int root, int bn) {
+		int leaf = root;
+		while (true) {
+			d.read(leaf, node);
+			int count = Utils.getIntFromBlock(node, 4);
+			if (Utils.getIntFromBlock(node, 0) == 0)
+				break;
+			leaf = Utils.getIntFromBlock(node, HEADER + (count - 1) * INTERNAL_ENTRY + 4);
+		}
+		int p = HEADER + (Utils.getIntFromBlock(node, 4) - 1) * LEAF_ENTRY;
+		int logical = Utils.getIntFromBlock(node, p);
+		int length = Utils.getIntFromBlock(node, p + 8);
+		if (length == 1) {
+			Utils.copyIntToBlock(node, p + 4, bn);
+			d.write(leaf, node);
+			return root;
+		}
+		Utils.copyIntToBlock(node, p + 8, length - 1);
+		d.write(leaf, node);
+		ArrayList<Extent> last = new ArrayList<Extent>();
+		last.add(new Extent(logical + length - 1, bn, 1));
+		return appendReserved(root, last);
+	}
+
+	/**
+	 * Adds an extent to the rightmost path of the subtree rooted at bn.
+	 * @return (first file block, block) of a new sibling the parent of bn has to add
+	 * to its right, or null if the subtree took the extent
+	 */
+	private int[] appendTo(int bn, Extent e) {
+		VirtualDiskBlock vdb = d.getBlockPool().lease();
+		try {
+			d.read(bn, vdb);
+			int level = Utils.getIntFromBlock(vdb, 0);
+			int count = Utils.getIntFromBlock(vdb, 4);
+			if (level == 0) {
+				if (count > 0) {
+					int p = HEADER + (count - 1) * LEAF_ENTRY;
+					int logical = Utils.getIntFromBlock(vdb, p);
+					int physical = Utils.getIntFromBlock(vdb, p + 4);
+					int length = Utils.getIntFromBlock(vdb, p + 8);
+					if (logical + length == e.getLogical() && physical + length == e.getPhysical()) {
+						Utils.copyIntToBlock(vdb, p + 8, length + e.getLength());
+						d.write(bn, vdb);
+						return null;
+					}
+				}
+				if (count < leafCapacity()) {
+					int p = HEADER + count * LEAF_ENTRY;
+					Utils.copyIntToBlock(vdb, p, e.getLogical());
+					Utils.copyIntToBlock(vdb, p + 4, e.getPhysical());
+					Utils.copyIntToBlock(vdb, p + 8, e.getLength());
+					Utils.copyIntToBlock(vdb, 4, count + 1);
+					d.write(bn, vdb);
+					return null;
+				}
+				clearNode(0, 1);
+				Utils.copyIntToBlock(node, HEADER, e.getLogical());
+				Utils.copyIntToBlock(node, HEADER + 4, e.getPhysical());
+				Utils.copyIntToBlock(node, HEADER + 8, e.getLength());
+				int leaf = allocate();
+				d.write(leaf, node);
+				return new int[] {e.getLogical(), leaf};
+			}
+			int[] child = appendTo(Utils.getIntFromBlock(vdb, HEADER + (count - 1) * INTERNAL_ENTRY + 4), e);
+			if (child == null)
+				return null;
+			if (count < internalCapacity()) {
+				int p = HEADER + count * INTERNAL_ENTRY;
+				Utils.copyIntToBlock(vdb, p, child[0]);
+				Utils.copyIntToBlock(vdb, p + 4, child[1]);
+				Utils.copyIntToBlock(vdb, 4, count + 1);
+				d.write(bn, vdb);
+				return null;
+			}
+			clearNode(level, 1);
+			Utils.copyIntToBlock(node, HEADER, child[0]);
+			Utils.copyIntToBlock(node, HEADER + 4, child[1]);
+			int sibling = allocate();
+			d.write(sibling, node);
+			return new int[] {child[0], sibling};
+		} finally {
+			d.getBlockPool().release(vdb);
+		}
+	}
+
+	/**
+	 * @return number of nodes of a tree built over count extents
+	 */
+	private int buildSize(int count) {
+		int nodes = Math.max(1, (count + leafCapacity() - 1) / leafCapacity());
+		int total = nodes;
+		while (nodes > 1) {
+			nodes = (nodes + internalCapacity() - 1) / internalCapacity();
+			total += nodes;
+		}
+		return total;
+	}
+
+	/**
+	 * @return most nodes appending count extents to the tree can add: at each level up
+	 * to the root, one node per capacity of the entries added below, and above a split
+	 * root the new levels up to a single new root
+	 */
+	private int appendSize(int root, int count) {
+		d.read(root, node);
+		int height = Utils.getIntFromBlock(node, 0);
+		int total = 0;
+		int added = count;   // entries added to the current level
+		int capacity = leafCapacity();
+		for (int level = 0; ; level++) {
+			if (level == height + 1)
+				added++;     // the old root, under the new root
+			added = (added + capacity - 1) / capacity;
+			total += added;
+			if (added == 0 || (level > height && added == 1))
+				return total;
+			capacity = internalCapacity();
+		}
+	}
+
+	/**
+	 * Takes count free blocks ahead for allocate, so a change fails before writing
+	 * anything when the disk cannot provide them all.
+	 */
+	private void reserve(int count) {
+		try {
+			while (reserved.size() < count)
+				reserved.add(d.getFreeBN());
+		} catch (FullDiskException e) {
+			unreserve();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gives back the reserved blocks allocate did not use.
+	 */
+	private void unreserve() {
+		for (int bn : reserved)
+			d.returnFB(bn);
+		reserved.clear();
+	}
+
+	/**
+	 * @return a block for a new node, a reserved one first
+	 */
+	private int allocate() {
+		return reserved.isEmpty() ? d.getFreeBN() : reserved.remove(reserved.size() - 1);
+	}
+
+	/**
+	 * Finds the extent holding a block of the file, reading one node per level.
+	 * @param root block of the root of the tree
+	 * @param fileBlock index of a block of the file
+	 * @return the extent holding the block, or null if no extent holds it
+	 */
+	public Extent find(int root, int fileBlock) {
+		int bn = root;
+		while (true) {
+			d.read(bn, node);
+			int level = Utils.getIntFromBlock(node, 0);
+			int count = Utils.getIntFromBlock(node, 4);
+			int entry = level == 0 ? LEAF_ENTRY : INTERNAL_ENTRY;
+			// last entry whose first file block is not after fileBlock
+			int low = 0, high = count - 1, found = -1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (Utils.getIntFromBlock(node, HEADER + mid * entry) <= fileBlock) {
+					found = mid;
+					low = mid + 1;
+				}
+				else
+					high = mid - 1;
+			}
+			if (found == -1)
+				return null;
+			int p = HEADER + found * entry;
+			if (level == 0) {
+				Extent e = new Extent(Utils.getIntFromBlock(node, p),
+						Utils.getIntFromBlock(node, p + 4), Utils.getIntFromBlock(node, p + 8));
+				return e.contains(fileBlock) ? e : null;
+			}
+			bn = Utils.getIntFromBlock(node, p + 4);
+		}
+	}
+
+	/**
+	 * @param root block of the root of the tree
+	 * @return every extent in the tree, sorted by file block
+	 */
+	public ArrayList<Extent> extents(int root) {
+		ArrayList<Extent> list = new ArrayList<Extent>();
+		collect(root, list, null);
+		return list;
+	}
+
+	/**
+	 * @param root block of the root of the tree
+	 * @return blocks of every node of the tree
+	 */
+	public ArrayList<Integer> nodes(int root) {
+		ArrayList<Integer> list = new ArrayList<Integer>();
+		collect(root, null, list);
+		return list;
+	}
+
+	/**
+	 * Registers every node of the tree and every block of its extents as free.
+	 * @param root block of the root of the tree
+	 */
+	public void free(int root) {
+		ArrayList<Integer> nodes = new ArrayList<Integer>();
+		ArrayList<Extent> extents = new ArrayList<Extent>();
+		collect(root, extents, nodes);
+		for (Extent e : extents)
+			for (int k = 0; k < e.getLength(); k++)
+				d.registerFB(e.getPhysical() + k);
+		for (int bn : nodes)
+			d.registerFB(bn);
+	}
+
+	/**
+	 * Walks the subtree rooted at bn, adding its extents and node blocks to the lists
+	 * given (either may be null).
+	 */
+	private void collect(int bn, ArrayList<Extent> extents, ArrayList<Integer> nodes) {
+		if (nodes != null)
+			nodes.add(bn);
+		VirtualDiskBlock vdb = d.getBlockPool().lease();
+		d.read(bn, vdb);
+		int level = vdb.getInt(0);
+		int count = vdb.getInt(4);
+		for (int j = 0; j < count; j++) {
+			if (level == 0) {
+				int p = HEADER + j * LEAF_ENTRY;
+				if (extents != null)
+					extents.add(new Extent(vdb.getInt(p), vdb.getInt(p + 4), vdb.getInt(p + 8)));
+			}
+			else
+				collect(vdb.getInt(HEADER + j * INTERNAL_ENTRY + 4), extents, nodes);
+		}
+		d.getBlockPool().release(vdb);
+	}
+
+	private void clearNode(int level, int count) {
+		node.clear();
+		node.putInt(0, level);
+		node.putInt(4, count);
+	}
+}
@@ -0,0 +1,127 @@
+package diskUtilities;
+
+/**
+ * Maps the bytes of a file to the disk blocks holding them. Each supported on-disk file
+ * format provides its own subclass; commands reach the content of a file only through
+ * this class so none of them depends on how the blocks of the file are found.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public abstract class FileMap {
+
+	protected DiskUnit d;
+	protected int blockSize;
+	protected int inode;
+	protected long size;
+	private VirtualDiskBlock buffer;
+
+	/**
+	 * @param d disk holding the file
+	 * @param inode inode index of the file
+	 */
+	protected FileMap(DiskUnit d, int inode) {
+		this.d = d;
+		this.inode = inode;
+		this.blockSize = d.getBlockSize();
+		this.size = d.getInodeSize(inode);
+		this.buffer = new VirtualDiskBlock(blockSize);
+	}
+
+	/**
+	 * Opens the map of a file according to the format its inode declares.
+	 * @param d disk holding the file
+	 * @param inode inode index of the file
+	 * @return map of the file
+	 */
+	public static FileMap open(DiskUnit d, int inode) {
+		if (d.getInodeType(inode) == DiskUnit.TYPE_EXTENT_FILE)
+			return new ExtentFileMap(d, inode);
+		return new LegacyFileMap(d, inode);
+	}
+
+	/**
+	 * @return number of bytes in the file
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return number of blocks holding the data of the file
+	 */
+	public abstract int getBlockCount();
+
+	/**
+	 * @param index index of a data block of the file, from 0 to getBlockCount()-1
+	 * @return disk block holding it, or 0 if the block is not mapped
+	 */
+	public abstract int getBlock(int index);
+
+	/**
+	 * @param offset byte offset inside the file
+	 * @return index of the data block holding that byte
+	 */
+	public abstract int indexOf(long offset);
+
+	/**
+	 * @param index index of a data block of the file
+	 * @return byte offset inside the file of the first byte stored in that block
+	 */
+	public abstract long offsetOf(int index);
+
+	/**
+	 * @param index index of a data block of the file
+	 * @return number of file bytes a full data block with that index holds
+	 */
+	public abstract int dataLength(int index);
+
+	/**
+	 * Registers every block of the file, data and metadata, as free.
+	 */
+	public abstract void free();
+
+	/**
+	 * Copies up to len bytes of the file starting at the given offset into dst. Only the
+	 * blocks holding the requested range are read.
+	 * @param offset byte offset inside the file
+	 * @param dst destination array
+	 * @param off first index of dst to fill
+	 * @param len maximum number of bytes to copy
+	 * @return number of bytes copied, or -1 if offset is at or past the end of the file
+	 */
+	public int readAt(long offset, byte[] dst, int off, int len) {
+		if (offset >= size)
+			return -1;
+		len = (int) Math.min(len, size - offset);
+		int done = 0;
+		while (done < len) {
+			int index = indexOf(offset);
+			int inBlock = (int) (offset - offsetOf(index));
+			int n = Math.min(len - done, dataLength(index) - inBlock);
+			int bn = getBlock(index);
+			if (bn == 0) {
+				for (int i = 0; i < n; i++)
+					dst[off + done + i] = 0;
+			}
+			else {
+				d.read(bn, buffer);
+				System.arraycopy(buffer.block, inBlock, dst, off + done, n);
+			}
+			offset += n;
+			done += n;
+		}
+		return done;
+	}
+
+	/**
+	 * @param offset byte offset inside the file
+	 * @param len maximum number of bytes to read
+	 * @return the bytes of the file in [offset, offset+len), cut at the end of the file
+	 */
+	public byte[] readAt(long offset, int len) {
+		byte[] bytes = new byte[(int) Math.max(0, Math.min(len, size - offset))];
+		if (bytes.length > 0)
+			readAt(offset, bytes, 0, bytes.length);
+		return bytes;
+	}
+}
@@ -19,11 +19,12 @@ public class Find {
 	 * file or directory. If it is a directory it verifies it verifies if name matches target name, if it matches it adds the path name to list. 
 	 * Then it verifies if it is empty, if it is empty it simply, goes on to the next element if it is not empty 
 	 * the method calls itself. If it is a file it simply verifies it verifies if name matches target name, 
-	 * if it matches it adds the path name to list and goes on to next element (uses stacks to move through directory).
+	 * if it matches it adds the path name to list and goes on to next element. Directories are passed by inode 
+	 * index, so the current directory of the user is never moved.
 	 * @return a list of every instance of the name it is looking for
 	 * @param files an array list with the content of the current directory the method is verifying
 	 * @param d an instance of the current disk 
-	 * @param currentDir inode index of the previous directory 
+	 * @param currentDir inode index of the directory holding the files 
 	 * @param name target name method is looking for
 	 * @param oldName previous path name
 	 * @param names list of every instance of the name
@@ -32,6 +33,7 @@ public class Find {
 	public ArrayList<String> recFiles(ArrayList<String> files, DiskUnit d, int currentDir, String name, String oldName, ArrayList<String> names) {
     	oldName=oldName+"/";
     	String fileLocation="";
+		prefetch(files, d, currentDir, true);
 		for (String file : files) {
 	        if (isDirectory(file, d, currentDir)) {
 	        	if(file.equals(name)){
@@ -40,8 +42,6 @@ public class Find {
 	        	}
 	        	int inode = this.findFile(file, d, currentDir);
 	        	if(d.getInodeSize(inode)>1){
-		    		d.pushDir(currentDir);
-		        	d.setDirectory(inode);
 		        	if(oldName.charAt(oldName.length()-1)!='/'){
 		        		oldName=oldName+"/"+file;
 		        	}
@@ -49,8 +49,6 @@ public class Find {
 		        		oldName=oldName+file;
 		        	}
 		            recFiles(this.createList(inode, d),d, inode, name, oldName, names); // Calls same method again.
-		    		int oldDir = d.popDir();
-		    		d.setDirectory(oldDir);
 	        	}
 	        } else {
 	        	if(file.equals(name)){
@@ -63,6 +61,25 @@ public class Find {
 		return names;
 	}
 	
+	/** 
+	 * Loads the first blocks of files of a directory into the cache in one sweep of the
+	 * disk, before a walk reads them one by one
+	 * @param files names of the files in the directory
+	 * @param d an instance of the current disk 
+	 * @param dir inode index of the directory
+	 * @param dirsOnly true to leave out the files that are not directories
+	**/
+	public void prefetch(ArrayList<String> files, DiskUnit d, int dir, boolean dirsOnly){
+		ArrayList<Integer> blocks = new ArrayList<Integer>();
+		for (String file : files) {
+			int inode = this.findFile(file, d, dir);
+			if(inode!=-1 && (!dirsOnly || d.isDirectory(inode))){
+				blocks.add(d.getInodeFBlock(inode));
+			}
+		}
+		d.prefetch(blocks);
+	}
+	
 	/** 
 	 * Creates an  array list with every name that the directory provided contains
      * @return array list with every content of the directory
@@ -70,20 +87,7 @@ public class Find {
 	 * @param d an instance of the current disk 
 	**/
 	public ArrayList<String> createList(int inodeIndex,  DiskUnit d){
-		
-		ArrayList<String> list = new ArrayList<String>();
-		VirtualDiskBlock vdb = new VirtualDiskBlock(d.getBlockSize());
-		int bn = d.getInodeFBlock(inodeIndex);	
-	    String nme = "";
-	    Utils util = new Utils();
-	    
-		while (bn != 0) { //finds file in directory
-			d.read(bn, vdb); 
-			nme=util.stringFromVirtualDiskBlock(bn, vdb);
-			list.add(nme);
-			bn = util.getNextBNFromBlock(vdb);
-		}
-		return list;
+		return new DirectoryFile(d, inodeIndex).names();
 	}
 	
 	/** 
@@ -94,28 +98,7 @@ public class Find {
 	 * @param current inode index of current directory 
 	**/
 	public int findFile(String name, DiskUnit d, int current){
-		
-		int bn = d.getInodeFBlock(current);
-		int inodeIndex=0;	
-		VirtualDiskBlock vdb = new VirtualDiskBlock(d.getBlockSize());
-	    String nme = "";
-	    Utils util = new Utils();
-	    
-		while (bn != 0) { //finds file in directory
-			d.read(bn, vdb); 
-			nme=util.stringFromVirtualDiskBlock(bn, vdb);
-			if(nme.equals(name)){
-				inodeIndex = util.getIntFromBlock(vdb, (d.getBlockSize()-8));
-				break;
-			}
-			bn = util.getNextBNFromBlock(vdb);
-		}
-		
-		if(bn==0){
-			return -1;
-		}
-		
-		return inodeIndex;
+		return new DirectoryFile(d, current).lookup(name);
 	}
 	
 	/** 
@@ -127,7 +110,7 @@ public class Find {
 	**/
 	public boolean isDirectory(String name, DiskUnit d, int current){
 		int inodeIndex=this.findFile(name, d, current);
-		if(d.getInodeType(inodeIndex)==0){
+		if(inodeIndex!=-1 && d.isDirectory(inodeIndex)){
 			return true;
 		}
 		return false;
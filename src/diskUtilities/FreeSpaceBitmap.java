@@ -0,0 +1,288 @@
+package diskUtilities;
+
+/**
+ * Free space map of a disk: one bit per block, set when the block is in use. The bits
+ * are kept in memory as 64 bit words so a free block is found by skipping full words and
+ * taking the lowest clear bit of the first word that has one. On disk the map is stored
+ * as consecutive bytes, block b being bit (b % 8) of byte (b / 8).
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class FreeSpaceBitmap {
+
+	private long[] words;
+	private int capacity;      // number of blocks in the disk
+	private int freeCount;
+	private int rover;         // word where the next search starts
+	private int dirtyLow = Integer.MAX_VALUE;
+	private int dirtyHigh = -1;
+
+	/**
+	 * Creates a map where every block is free.
+	 * @param capacity number of blocks in the disk
+	 */
+	public FreeSpaceBitmap(int capacity) {
+		this.capacity = capacity;
+		this.words = new long[(capacity + 63) / 64];
+		this.freeCount = capacity;
+		// bits past the last block are permanently in use
+		int extra = words.length * 64 - capacity;
+		if (extra > 0)
+			words[words.length - 1] = -1L << (64 - extra);
+	}
+
+	/**
+	 * @param capacity number of blocks in the disk
+	 * @param blockSize size of each block
+	 * @return number of blocks needed to store the map of a disk
+	 */
+	public static int blocksFor(int capacity, int blockSize) {
+		int bytes = (capacity + 7) / 8;
+		return (bytes + blockSize - 1) / blockSize;
+	}
+
+	/**
+	 * @param bn block number
+	 * @return true if the block is not in use
+	 */
+	public boolean isFree(int bn) {
+		return (words[bn >>> 6] & (1L << bn)) == 0;
+	}
+
+	/**
+	 * Marks a block as in use.
+	 * @param bn block number
+	 */
+	public void markUsed(int bn) {
+		int w = bn >>> 6;
+		if ((words[w] & (1L << bn)) == 0) {
+			words[w] |= 1L << bn;
+			freeCount--;
+			markDirty(w);
+		}
+	}
+
+	/**
+	 * Marks a block as not in use.
+	 * @param bn block number
+	 */
+	public void markFree(int bn) {
+		int w = bn >>> 6;
+		if ((words[w] & (1L << bn)) != 0) {
+			words[w] &= ~(1L << bn);
+			freeCount++;
+			markDirty(w);
+			if (w < rover)
+				rover = w;
+		}
+	}
+
+	/**
+	 * Marks a range of blocks as in use.
+	 * @param first first block of the range
+	 * @param count number of blocks in the range
+	 */
+	public void markUsed(int first, int count) {
+		for (int bn = first; bn < first + count; bn++)
+			markUsed(bn);
+	}
+
+	/**
+	 * Takes the lowest free block at or after the search hint.
+	 * @return the block number, or -1 if every block is in use
+	 */
+	public int allocate() {
+		if (freeCount == 0)
+			return -1;
+		for (int n = 0; n < words.length; n++) {
+			int w = (rover + n) % words.length;
+			if (words[w] != -1L) {
+				int bn = (w << 6) + Long.numberOfTrailingZeros(~words[w]);
+				rover = w;
+				markUsed(bn);
+				return bn;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Takes count consecutive free blocks.
+	 * @param count number of blocks wanted
+	 * @return the first block of the run, or -1 if no such run exists
+	 */
+	public int allocateRun(int count) {
+		if (count <= 0 || count > freeCount)
+			return -1;
+		int start = rover << 6;
+		int bn = findRun(start, capacity, count);
+		if (bn == -1)
+			bn = findRun(0, Math.min(capacity, start + count), count);
+		if (bn != -1) {
+			markUsed(bn, count);
+			rover = (bn + count - 1) >>> 6;
+		}
+		return bn;
+	}
+
+	/**
+	 * Looks for count consecutive free blocks that start at or after from and end
+	 * before limit.
+	 * @return first block of the run, or -1 if there is none
+	 */
+	private int findRun(int from, int limit, int count) {
+		int bn = nextFree(from);
+		while (bn != -1 && bn + count <= limit) {
+			int end = nextUsed(bn);
+			if (end - bn >= count)
+				return bn;
+			bn = nextFree(end);
+		}
+		return -1;
+	}
+
+	/**
+	 * @param from block where the search starts
+	 * @return first free block at or after from, or -1 if there is none
+	 */
+	private int nextFree(int from) {
+		if (from >= capacity)
+			return -1;
+		int w = from >>> 6;
+		long word = ~words[w] & (-1L << from);
+		while (word == 0) {
+			if (++w == words.length)
+				return -1;
+			word = ~words[w];
+		}
+		int bn = (w << 6) + Long.numberOfTrailingZeros(word);
+		return bn < capacity ? bn : -1;
+	}
+
+	/**
+	 * @param from block where the search starts
+	 * @return first block in use at or after from, or capacity if there is none
+	 */
+	private int nextUsed(int from) {
+		if (from >= capacity)
+			return capacity;
+		int w = from >>> 6;
+		long word = words[w] & (-1L << from);
+		while (word == 0) {
+			if (++w == words.length)
+				return capacity;
+			word = words[w];
+		}
+		return Math.min(capacity, (w << 6) + Long.numberOfTrailingZeros(word));
+	}
+
+	/**
+	 * @return number of free blocks
+	 */
+	public int getFreeCount() {
+		return freeCount;
+	}
+
+	/**
+	 * @return number of blocks in the disk
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @param w index of a word of the map
+	 * @return the bits of blocks 64*w to 64*w+63, bit i set when block 64*w+i is in use
+	 */
+	public long getWord(int w) {
+		return words[w];
+	}
+
+	/**
+	 * Replaces the whole map, as when it is rebuilt from the blocks actually in use.
+	 * @param inUse one bit per block, laid out as getWord returns them
+	 */
+	public void replace(long[] inUse) {
+		long last = words[words.length - 1];
+		int extra = words.length * 64 - capacity;
+		System.arraycopy(inUse, 0, words, 0, Math.min(inUse.length, words.length));
+		if (extra > 0)
+			words[words.length - 1] |= last & (-1L << (64 - extra));
+		freeCount = words.length * 64;
+		for (long w : words)
+			freeCount -= Long.bitCount(w);
+		rover = 0;
+		markAllDirty();
+	}
+
+	private void markDirty(int w) {
+		if (w < dirtyLow)
+			dirtyLow = w;
+		if (w > dirtyHigh)
+			dirtyHigh = w;
+	}
+
+	/**
+	 * Marks the whole map as modified so the next flush writes all of it.
+	 */
+	public void markAllDirty() {
+		dirtyLow = 0;
+		dirtyHigh = words.length - 1;
+	}
+
+	/**
+	 * Reads the map stored at the given byte position of the disk.
+	 * @param cache block cache of the disk
+	 * @param position byte position of the map on disk
+	 */
+	public void load(BufferCache cache, long position) {
+		byte[] bytes = new byte[(capacity + 7) / 8];
+		cache.readBytes(position, bytes, 0, bytes.length);
+		long last = words[words.length - 1];
+		int extra = words.length * 64 - capacity;
+		java.util.Arrays.fill(words, 0L);
+		for (int i = 0; i < bytes.length; i++)
+			words[i >>> 3] |= (bytes[i] & 0xffL) << ((i & 7) * 8);
+		if (extra > 0)
+			words[words.length - 1] |= last & (-1L << (64 - extra));
+		freeCount = 0;
+		for (int bn = nextFree(0); bn != -1; bn = nextFree(nextUsed(bn)))
+			freeCount += nextUsed(bn) - bn;
+		rover = 0;
+		dirtyLow = Integer.MAX_VALUE;
+		dirtyHigh = -1;
+	}
+
+	/**
+	 * Writes the modified part of the map to the given byte position of the disk.
+	 * @param cache block cache of the disk
+	 * @param position byte position of the map on disk
+	 */
+	public void flush(BufferCache cache, long position) {
+		if (dirtyHigh < 0)
+			return;
+		int totalBytes = (capacity + 7) / 8;
+		int first = dirtyLow * 8;
+		int last = Math.min(totalBytes, (dirtyHigh + 1) * 8);
+		cache.writeBytes(position + first, toBytes(first, last), 0, last - first);
+		dirtyLow = Integer.MAX_VALUE;
+		dirtyHigh = -1;
+	}
+
+	/**
+	 * @return the on-disk bytes [first, last) of the map
+	 */
+	public byte[] toBytes(int first, int last) {
+		byte[] bytes = new byte[last - first];
+		for (int i = first; i < last; i++)
+			bytes[i - first] = (byte) (words[i >>> 3] >>> ((i & 7) * 8));
+		return bytes;
+	}
+
+	/**
+	 * @return the whole map as it is stored on disk
+	 */
+	public byte[] toBytes() {
+		return toBytes(0, (capacity + 7) / 8);
+	}
+}
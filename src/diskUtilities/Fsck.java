@@ -0,0 +1,586 @@
+package diskUtilities;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import exceptions.FullDiskException;
+import exceptions.NonExistingDiskException;
+
+/**
+ * Consistency checker of a mounted disk. Starting at the root directory, every directory
+ * entry, inode and block map reachable from it is validated, and every block found is
+ * marked in a bitset of reachable blocks. The tree is walked as a ForkJoin task per inode,
+ * so directories and files are checked in parallel; blocks are read straight from the
+ * device of the disk, which is synced first, instead of through its cache, and each
+ * structure is parsed here with bounds on every pointer, so a damaged disk cannot make
+ * the check loop or fail. Once the walk ends, the bitset is compared with the free space
+ * map and the blocks found more than once with the reference count table. Repairing
+ * rebuilds both of them from what the walk found; damaged directory entries and block
+ * maps are only reported.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class Fsck {
+
+	private static final int MAX_REPORTED = 50;     // problems listed, the rest are counted
+	private static final int POINTER_AREA = 20;     // pointers at the end of a legacy file block
+	private static final int TREE_HEADER = 8;       // level and entry count of tree nodes
+	private static final int MAX_LEVEL = 32;        // deepest extent tree or directory index
+
+	private DiskUnit d;
+	private BlockPool pool;                         // leases are per thread, fit the workers
+	private int capacity;
+	private int blockSize;
+	private int nodeCount;
+	private AtomicLongArray reached;                // one bit per block found in use
+	private AtomicLongArray visited;                // one bit per inode found in use
+	// blocks found more than once -> number of times found
+	private ConcurrentHashMap<Integer, AtomicInteger> shared = new ConcurrentHashMap<Integer, AtomicInteger>();
+	private ConcurrentLinkedQueue<String> problems = new ConcurrentLinkedQueue<String>();
+	private AtomicInteger problemCount = new AtomicInteger();
+	private AtomicInteger directories = new AtomicInteger();
+	private AtomicInteger files = new AtomicInteger();
+	private HashSet<Integer> system = new HashSet<Integer>();   // blocks of the disk structures
+	private int usedBlocks;
+	private boolean checked;
+
+	/**
+	 * @param d disk to check
+	 */
+	public Fsck(DiskUnit d) {
+		this.d = d;
+		this.pool = d.getBlockPool();
+	}
+
+	/**
+	 * Checks the whole disk.
+	 * @return true if no problem was found
+	 */
+	public boolean check() {
+		d.getInodeLocks().lockDisk();   // no command changes the disk during the walk
+		try {
+			if (!d.isReadOnly())
+				d.sync();    // the device holds every change and no freed block is waiting
+			capacity = d.getCapacity();
+			blockSize = d.getBlockSize();
+			nodeCount = d.getInodeCount();
+			reached = new AtomicLongArray((capacity + 63) / 64);
+			visited = new AtomicLongArray((nodeCount + 63) / 64);
+			shared.clear();
+			problems.clear();
+			problemCount.set(0);
+			directories.set(0);
+			files.set(0);
+			system.clear();
+
+			for (int[] run : d.getSystemRuns())
+				for (int bn = run[0]; bn < run[0] + run[1] && bn < capacity; bn++) {
+					claim(bn);
+					system.add(bn);
+				}
+			if (nodeCount == 0 || !d.isDirectory(0))
+				problem("/: root inode is not a directory");
+			else {
+				mark(visited, 0);
+				ForkJoinPool.commonPool().invoke(new InodeTask(0, ""));
+			}
+
+			checkSharedBlocks();
+			checkFreeSpaceMap();
+			checked = true;
+			return problemCount.get() == 0;
+		} finally {
+			d.getInodeLocks().unlockDisk();
+		}
+	}
+
+	/**
+	 * Rebuilds the free space map and the reference count table from the blocks found
+	 * by the last check, then syncs the disk. A block found in more than one file is
+	 * kept shared by all of them, so freeing one of the files does not free it under the
+	 * others.
+	 * @return false if the disk was not checked or cannot be modified, or if the disk is
+	 * full and the rebuilt reference count table could not be written
+	 */
+	public boolean repair() {
+		if (!checked || d.isReadOnly())
+			return false;
+		d.getInodeLocks().lockDisk();
+		try {
+			long[] inUse = new long[reached.length()];
+			for (int w = 0; w < inUse.length; w++)
+				inUse[w] = reached.get(w);
+			d.getFreeSpaceMap().replace(inUse);
+			TreeMap<Integer, Integer> extra = new TreeMap<Integer, Integer>();
+			for (Map.Entry<Integer, AtomicInteger> e : shared.entrySet())
+				if (!system.contains(e.getKey()))
+					extra.put(e.getKey(), e.getValue().get() - 1);
+			d.getReferenceCounts().rebuild(extra);
+			boolean stored = true;
+			try {
+				d.getReferenceCounts().reserve(d);
+			} catch (FullDiskException e) {
+				stored = false;   // the table stays in memory until a block is free for it
+			}
+			d.sync();
+			return stored;
+		} finally {
+			d.getInodeLocks().unlockDisk();
+		}
+	}
+
+	/**
+	 * @return lines describing the result of the last check, the problems found first,
+	 * those of directories and files in no particular order
+	 */
+	public ArrayList<String> getReport() {
+		ArrayList<String> report = new ArrayList<String>(problems);
+		if (problemCount.get() > report.size())
+			report.add("... and " + (problemCount.get() - report.size()) + " more problems");
+		report.add("Checked " + directories.get() + " directories, " + files.get() + " files, " +
+				usedBlocks + " blocks in use of " + capacity);
+		if (problemCount.get() == 0)
+			report.add("Disk is consistent");
+		else
+			report.add(problemCount.get() + " problems found");
+		return report;
+	}
+
+	/**
+	 * @return number of problems found by the last check
+	 */
+	public int getProblemCount() {
+		return problemCount.get();
+	}
+
+	private void problem(String message) {
+		if (problemCount.incrementAndGet() <= MAX_REPORTED)
+			problems.add(message);
+	}
+
+	/**
+	 * Sets a bit of a bitset.
+	 * @return true if the bit was clear
+	 */
+	private static boolean mark(AtomicLongArray bits, int i) {
+		long bit = 1L << i;
+		while (true) {
+			long word = bits.get(i >>> 6);
+			if ((word & bit) != 0)
+				return false;
+			if (bits.compareAndSet(i >>> 6, word, word | bit))
+				return true;
+		}
+	}
+
+	/**
+	 * Records a block as in use, counting how many times a block shared by several
+	 * files is found.
+	 */
+	private void claim(int bn) {
+		if (mark(reached, bn))
+			return;
+		AtomicInteger count = shared.get(bn);
+		if (count == null) {
+			AtomicInteger first = new AtomicInteger(1);
+			count = shared.putIfAbsent(bn, first);
+			if (count == null)
+				count = first;
+		}
+		count.incrementAndGet();
+	}
+
+	private boolean valid(int bn) {
+		return bn > 0 && bn < capacity;
+	}
+
+	private void read(int bn, VirtualDiskBlock vdb) {
+		d.readDirect(bn, vdb);
+	}
+
+	/**
+	 * Checks an inode reached from a directory entry; a directory forks one task for
+	 * each of its entries.
+	 */
+	private class InodeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private int inode;
+		private String path;
+
+		InodeTask(int inode, String path) {
+			this.inode = inode;
+			this.path = path;
+		}
+
+		protected void compute() {
+			if (!d.isDirectory(inode)) {
+				checkFile(inode, path);
+				files.incrementAndGet();
+				return;
+			}
+			directories.incrementAndGet();
+			ArrayList<DirectoryEntry> entries = readDirectory(inode, path.isEmpty() ? "/" : path);
+			ArrayList<InodeTask> tasks = new ArrayList<InodeTask>();
+			HashSet<String> names = new HashSet<String>();
+			for (DirectoryEntry e : entries) {
+				String p = path + "/" + e.getName();
+				int node = e.getInode();
+				if (!names.add(e.getName()))
+					problem(p + ": name appears more than once in its directory");
+				if (node < 0 || node >= nodeCount) {
+					problem(p + ": entry refers to inode " + node + ", which does not exist");
+					continue;
+				}
+				int type = d.getInodeType(node);
+				if (type < DiskUnit.TYPE_DIRECTORY || type > DiskUnit.TYPE_INDEXED_DIRECTORY) {
+					problem(p + ": inode " + node + " has unknown type " + type);
+					continue;
+				}
+				if (!mark(visited, node)) {
+					problem(p + ": inode " + node + " is referenced by more than one entry");
+					continue;
+				}
+				tasks.add(new InodeTask(node, p));
+			}
+			invokeAll(tasks);
+		}
+	}
+
+	/**
+	 * Validates the block map of a file and marks its blocks.
+	 */
+	private void checkFile(int inode, String path) {
+		long size = d.getInodeSize(inode);
+		if (size < 0) {
+			problem(path + ": inode " + inode + " has negative size " + size);
+			return;
+		}
+		if (d.getInodeType(inode) == DiskUnit.TYPE_EXTENT_FILE)
+			checkExtentFile(inode, path, size);
+		else
+			checkLegacyFile(inode, path, size);
+	}
+
+	/**
+	 * Follows the block chain of a file in the original format the same way
+	 * LegacyFileMap does: the first block ends with four data pointers and an indirect
+	 * pointer, every indirect block holds data pointers and the next indirect pointer.
+	 */
+	private void checkLegacyFile(int inode, String path, long size) {
+		long first = blockSize - POINTER_AREA;
+		long count = size <= first ? 1 : 1 + (size - first + blockSize - 1) / blockSize;
+		int next = d.getInodeFBlock(inode);
+		if (!valid(next)) {
+			problem(path + ": first block " + next + " is out of range");
+			return;
+		}
+		VirtualDiskBlock pointers = pool.lease();
+		read(next, pointers);
+		boolean more = true;
+		int counter = blockSize - POINTER_AREA;
+		int inBlock = 0;
+		int perBlock = 4;
+		long found = 0;
+		while (true) {
+			claim(next);
+			if (++found == count || !more)
+				break;
+			next = Utils.getIntFromBlock(pointers, counter);
+			counter += 4;
+			inBlock++;
+			if (inBlock >= perBlock) {
+				int indirect = Utils.getIntFromBlock(pointers, counter);
+				if (valid(indirect)) {
+					claim(indirect);
+					read(indirect, pointers);
+					counter = 0;
+					inBlock = 0;
+					perBlock = blockSize / 4 - 1;
+				}
+				else
+					more = false;
+			}
+			if (!valid(next))
+				break;
+		}
+		pool.release(pointers);
+		if (found < count)
+			problem(path + ": block map holds " + found + " of the " + count + " blocks of its size");
+	}
+
+	/**
+	 * Walks the extent tree of a file, checking that its extents lie inside the disk,
+	 * are sorted, do not overlap and do not go past the end of the file.
+	 */
+	private void checkExtentFile(int inode, String path, long size) {
+		int root = d.getInodeFBlock(inode);
+		if (!valid(root)) {
+			problem(path + ": extent tree root " + root + " is out of range");
+			return;
+		}
+		long blocks = (size + blockSize - 1) / blockSize;
+		checkExtentNode(root, -1, path, blocks, new long[1]);
+	}
+
+	/**
+	 * @param level level the node must have, -1 for the root
+	 * @param end first file block not covered by the extents checked so far
+	 */
+	private void checkExtentNode(int bn, int level, String path, long blocks, long[] end) {
+		claim(bn);
+		VirtualDiskBlock node = pool.lease();
+		try {
+			read(bn, node);
+			int actual = Utils.getIntFromBlock(node, 0);
+			int count = Utils.getIntFromBlock(node, 4);
+			if (actual < 0 || actual > MAX_LEVEL || (level != -1 && actual != level)) {
+				problem(path + ": extent tree node " + bn + " has level " + actual);
+				return;
+			}
+			int entry = actual == 0 ? 12 : 8;
+			if (count < 0 || TREE_HEADER + (long) count * entry > blockSize) {
+				problem(path + ": extent tree node " + bn + " has " + count + " entries");
+				return;
+			}
+			for (int j = 0; j < count; j++) {
+				int p = TREE_HEADER + j * entry;
+				if (actual > 0) {
+					int child = Utils.getIntFromBlock(node, p + 4);
+					if (valid(child))
+						checkExtentNode(child, actual - 1, path, blocks, end);
+					else
+						problem(path + ": extent tree node " + bn + " points to block " + child);
+					continue;
+				}
+				long logical = Utils.getIntFromBlock(node, p);
+				int physical = Utils.getIntFromBlock(node, p + 4);
+				int length = Utils.getIntFromBlock(node, p + 8);
+				if (length <= 0 || !valid(physical) || (long) physical + length > capacity) {
+					problem(path + ": extent (" + logical + ", " + physical + ", " + length + ") lies outside the disk");
+					continue;
+				}
+				if (logical < end[0])
+					problem(path + ": extent at file block " + logical + " overlaps the one before it");
+				if (logical + length > blocks)
+					problem(path + ": extent at file block " + logical + " goes past the end of the file");
+				end[0] = Math.max(end[0], logical + length);
+				for (int k = 0; k < length; k++)
+					claim(physical + k);
+			}
+		} finally {
+			pool.release(node);
+		}
+	}
+
+	/**
+	 * Reads the entries of a directory in any of its formats, marking its blocks and
+	 * checking its size against them.
+	 */
+	private ArrayList<DirectoryEntry> readDirectory(int inode, String path) {
+		ArrayList<DirectoryEntry> list = new ArrayList<DirectoryEntry>();
+		long size = d.getInodeSize(inode);
+		int first = d.getInodeFBlock(inode);
+		if (size <= 1)
+			return list;
+		int type = d.getInodeType(inode);
+		if (type == DiskUnit.TYPE_DIRECTORY) {
+			readEntryChain(first, path, list);
+			return list;
+		}
+		if (!valid(first)) {
+			problem(path + ": first block " + first + " is out of range");
+			return list;
+		}
+		long limit = size / blockSize;
+		long blocks = type == DiskUnit.TYPE_INDEXED_DIRECTORY ?
+				readIndexNode(first, -1, path, list, limit) : readPackedChain(first, path, list, limit);
+		if (blocks != limit || size % blockSize != 0)
+			problem(path + ": size " + size + " does not match its " + blocks + " blocks");
+		return list;
+	}
+
+	/**
+	 * Reads a directory in the original format, one entry per block.
+	 */
+	private void readEntryChain(int first, String path, ArrayList<DirectoryEntry> list) {
+		VirtualDiskBlock vdb = pool.lease();
+		try {
+			HashSet<Integer> seen = new HashSet<Integer>();
+			for (int bn = first; bn != 0; bn = Utils.getNextBNFromBlock(vdb)) {
+				if (!valid(bn)) {
+					problem(path + ": directory chain points to block " + bn);
+					return;
+				}
+				if (!seen.add(bn)) {
+					problem(path + ": directory chain loops back to block " + bn);
+					return;
+				}
+				claim(bn);
+				read(bn, vdb);
+				list.add(new DirectoryEntry(Utils.stringFromVirtualDiskBlock(bn, vdb),
+						Utils.getIntFromBlock(vdb, blockSize - 8)));
+			}
+		} finally {
+			pool.release(vdb);
+		}
+	}
+
+	/**
+	 * Reads a chain of packed directory blocks, stopping once it is longer than the
+	 * limit given.
+	 * @return number of blocks read
+	 */
+	private long readPackedChain(int first, String path, ArrayList<DirectoryEntry> list, long limit) {
+		DirectoryBlock db = new DirectoryBlock(pool.lease());
+		long blocks = 0;
+		for (int bn = first; bn != 0; bn = db.getNext()) {
+			if (!valid(bn)) {
+				problem(path + ": directory chain points to block " + bn);
+				break;
+			}
+			if (++blocks > limit)
+				break;
+			claim(bn);
+			read(bn, db.getBlock());
+			try {
+				for (int slot = 0; slot < db.getCount(); slot++)
+					list.add(new DirectoryEntry(db.getName(slot), db.getInode(slot)));
+			} catch (RuntimeException e) {
+				problem(path + ": directory block " + bn + " is damaged");
+			}
+		}
+		pool.release(db.getBlock());
+		return blocks;
+	}
+
+	/**
+	 * Reads a node of the hashed index of a directory and the leaves below it.
+	 * @param level level the node must have, -1 for the root
+	 * @return number of blocks read, index nodes included
+	 */
+	private long readIndexNode(int bn, int level, String path, ArrayList<DirectoryEntry> list, long limit) {
+		claim(bn);
+		VirtualDiskBlock node = pool.lease();
+		try {
+			read(bn, node);
+			int actual = Utils.getIntFromBlock(node, 0);
+			int count = Utils.getIntFromBlock(node, 4);
+			if (actual < 0 || actual > MAX_LEVEL || (level != -1 && actual != level) ||
+					count < 0 || TREE_HEADER + (long) count * 8 > blockSize) {
+				problem(path + ": directory index node " + bn + " is damaged");
+				return 1;
+			}
+			long blocks = 1;
+			for (int j = 0; j < count; j++) {
+				int child = Utils.getIntFromBlock(node, TREE_HEADER + j * 8 + 4);
+				if (!valid(child)) {
+					problem(path + ": directory index node " + bn + " points to block " + child);
+					continue;
+				}
+				if (actual > 0)
+					blocks += readIndexNode(child, actual - 1, path, list, limit - blocks);
+				else
+					blocks += readPackedChain(child, path, list, limit - blocks);
+			}
+			return blocks;
+		} finally {
+			pool.release(node);
+		}
+	}
+
+	/**
+	 * Checks that every block found more than once is shared through the reference
+	 * count table as many times as it was found, and that no block the table counts
+	 * as shared is found fewer times.
+	 */
+	private void checkSharedBlocks() {
+		for (Map.Entry<Integer, AtomicInteger> e : shared.entrySet()) {
+			int bn = e.getKey();
+			int found = e.getValue().get();
+			if (system.contains(bn))
+				problem("block " + bn + " holds disk structures and is used by files too");
+			else if (d.getReferenceCounts().getExtraReferences(bn) + 1 != found)
+				problem("block " + bn + " is used " + found + " times but has " +
+						(d.getReferenceCounts().getExtraReferences(bn) + 1) + " owners");
+		}
+		SortedMap<Integer, int[]> runs = d.getReferenceCounts().getRuns();
+		for (Map.Entry<Integer, int[]> e : runs.entrySet())
+			for (int bn = e.getKey(); bn < e.getKey() + e.getValue()[0]; bn++)
+				if (!shared.containsKey(bn))
+					problem("block " + bn + " has " + (e.getValue()[1] + 1) + " owners but is used " +
+							(bn >= 0 && bn < capacity && isReached(bn) ? 1 : 0) + " times");
+	}
+
+	private boolean isReached(int bn) {
+		return (reached.get(bn >>> 6) & (1L << bn)) != 0;
+	}
+
+	/**
+	 * Compares the blocks found with the free space map, a word of 64 blocks at a time.
+	 */
+	private void checkFreeSpaceMap() {
+		FreeSpaceBitmap map = d.getFreeSpaceMap();
+		int markedFree = 0;
+		int leaked = 0;
+		usedBlocks = 0;
+		for (int w = 0; w < reached.length(); w++) {
+			long found = reached.get(w);
+			long diff = found ^ map.getWord(w);
+			usedBlocks += Long.bitCount(found);
+			if (w == reached.length() - 1 && capacity % 64 != 0)
+				diff &= -1L >>> (64 - capacity % 64);    // bits past the last block
+			for (; diff != 0; diff &= diff - 1) {
+				int bn = (w << 6) + Long.numberOfTrailingZeros(diff);
+				if (isReached(bn)) {
+					if (markedFree++ < 10)
+						problem("block " + bn + " is in use but marked free");
+				}
+				else if (leaked++ < 10)
+					problem("block " + bn + " is marked in use but nothing refers to it");
+			}
+		}
+		if (markedFree > 10)
+			problem((markedFree - 10) + " more blocks in use are marked free");
+		if (leaked > 10)
+			problem((leaked - 10) + " more blocks are marked in use but nothing refers to them");
+	}
+
+	/**
+	 * Checks, and with "repair" repairs, a disk from the command line.
+	 * @param args name of the disk, optionally followed by "repair"
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out.println("Usage: Fsck disk_name [repair]");
+			return;
+		}
+		DiskUnit d;
+		try {
+			d = DiskUnit.mount(args[0]);
+		} catch (NonExistingDiskException e) {
+			System.out.println(e.getMessage());
+			return;
+		}
+		Fsck fsck = new Fsck(d);
+		long start = System.nanoTime();
+		fsck.check();
+		for (String line : fsck.getReport())
+			System.out.println(line);
+		System.out.println("Checked in " + (System.nanoTime() - start) / 1000000 + " ms");
+		if (args.length > 1 && args[1].equals("repair") && fsck.getProblemCount() > 0) {
+			fsck.repair();
+			System.out.println("Free space map and reference counts have been rebuilt");
+		}
+		d.shutdown();
+	}
+}
@@ -0,0 +1,165 @@
+package diskUtilities;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Queue of block reads and writes in front of a device, served elevator style: requests
+ * are collected until dispatch, then sorted by block number, and runs of consecutive
+ * blocks are done as a single transfer, so a batch of scattered requests becomes one
+ * sweep across the disk file. Writes are done before reads, so a read sees every write
+ * queued with it, and of two writes of the same block the one queued last is kept. Each
+ * request completes through its future once its transfer is done.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class IOScheduler {
+
+	private static final int MAX_RUN = 64;   // blocks per transfer
+
+	/**
+	 * A queued request for one block.
+	 */
+	private static class Request {
+		final int bn;
+		final int order;        // keeps requests for the same block in queue order
+		byte[] data;            // content to write, or where the block is read
+		final CompletableFuture<byte[]> done = new CompletableFuture<byte[]>();
+
+		Request(int bn, int order, byte[] data) {
+			this.bn = bn;
+			this.order = order;
+			this.data = data;
+		}
+	}
+
+	private static final Comparator<Request> BY_BLOCK = new Comparator<Request>() {
+		public int compare(Request a, Request b) {
+			return a.bn != b.bn ? Integer.compare(a.bn, b.bn) : Integer.compare(a.order, b.order);
+		}
+	};
+
+	private BlockDevice device;
+	private int blockSize;
+	private ArrayList<Request> reads = new ArrayList<Request>();
+	private ArrayList<Request> writes = new ArrayList<Request>();
+	private int queued;
+	private long requests;
+	private long transfers;
+
+	/**
+	 * @param device device the blocks are read from and written to
+	 * @param blockSize number of bytes per block
+	 */
+	public IOScheduler(BlockDevice device, int blockSize) {
+		this.device = device;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Queues the read of a block.
+	 * @param bn block number
+	 * @return future completed with a new array holding the content of the block
+	 */
+	public synchronized CompletableFuture<byte[]> read(int bn) {
+		Request r = new Request(bn, queued++, null);
+		reads.add(r);
+		return r.done;
+	}
+
+	/**
+	 * Queues the write of a block. The array is written as it is at dispatch, so it must
+	 * not be changed before then.
+	 * @param bn block number
+	 * @param data new content of the block, blockSize bytes
+	 * @return future completed with data once the block is written
+	 */
+	public synchronized CompletableFuture<byte[]> write(int bn, byte[] data) {
+		Request r = new Request(bn, queued++, data);
+		writes.add(r);
+		return r.done;
+	}
+
+	/**
+	 * Does every queued request, writes first, in block number order and merging
+	 * consecutive blocks, and completes their futures. A transfer that fails completes
+	 * the futures of its requests exceptionally, the others go on.
+	 */
+	public synchronized void dispatch() {
+		ArrayList<Request> w = writes;
+		ArrayList<Request> r = reads;
+		writes = new ArrayList<Request>();
+		reads = new ArrayList<Request>();
+		queued = 0;
+		requests += w.size() + r.size();
+		Collections.sort(w, BY_BLOCK);
+		Collections.sort(r, BY_BLOCK);
+		for (int i = 0; i < w.size(); )
+			i = dispatchRun(w, i, true);
+		for (int i = 0; i < r.size(); )
+			i = dispatchRun(r, i, false);
+	}
+
+	/**
+	 * Does the transfer of the run of consecutive blocks starting at request first.
+	 * @return index of the first request after the run
+	 */
+	private int dispatchRun(ArrayList<Request> list, int first, boolean write) {
+		// requests for the same block as the one after them: a write is superseded, a
+		// read shares the transfer
+		int start = list.get(first).bn;
+		int end = first;
+		int blocks = 1;
+		while (end + 1 < list.size()) {
+			int next = list.get(end + 1).bn;
+			if (next == list.get(end).bn) {
+				end++;
+				continue;
+			}
+			if (next != start + blocks || blocks == MAX_RUN)
+				break;
+			blocks++;
+			end++;
+		}
+		byte[] run = new byte[blocks * blockSize];
+		transfers++;
+		try {
+			if (write) {
+				for (int i = first; i <= end; i++)   // later writes of a block overwrite earlier ones
+					System.arraycopy(list.get(i).data, 0, run, (list.get(i).bn - start) * blockSize, blockSize);
+				device.write((long) start * blockSize, run, 0, run.length);
+			}
+			else {
+				device.read((long) start * blockSize, run, 0, run.length);
+				for (int i = first; i <= end; i++) {
+					Request req = list.get(i);
+					req.data = new byte[blockSize];
+					System.arraycopy(run, (req.bn - start) * blockSize, req.data, 0, blockSize);
+				}
+			}
+			for (int i = first; i <= end; i++)
+				list.get(i).done.complete(list.get(i).data);
+		} catch (IOException e) {
+			for (int i = first; i <= end; i++)
+				list.get(i).done.completeExceptionally(e);
+		}
+		return end + 1;
+	}
+
+	/**
+	 * @return number of requests dispatched so far
+	 */
+	public synchronized long getRequests() {
+		return requests;
+	}
+
+	/**
+	 * @return number of device transfers the dispatched requests took
+	 */
+	public synchronized long getTransfers() {
+		return transfers;
+	}
+}
@@ -0,0 +1,144 @@
+package diskUtilities;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read/write locks of the inodes of a mounted disk, striped: an inode is guarded by the
+ * lock of its stripe, so commands on different files and directories almost never wait
+ * for each other while memory stays fixed however many inodes the disk has. A command
+ * takes every lock it needs at once through acquire, which locks the stripes in
+ * increasing order, so two commands never end up each waiting for the other.
+ * Every command that changes the disk also holds the disk lock shared, and a commit holds
+ * it exclusively, so a journal transaction never logs half of a change.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class InodeLocks {
+
+	private static final int STRIPES = 64;   // power of two
+	private static final int[] NONE = new int[0];
+
+	private final ReentrantReadWriteLock[] stripes = new ReentrantReadWriteLock[STRIPES];
+	private final ReentrantReadWriteLock changes = new ReentrantReadWriteLock();
+
+	public InodeLocks() {
+		for (int i = 0; i < STRIPES; i++)
+			stripes[i] = new ReentrantReadWriteLock();
+	}
+
+	/**
+	 * Locks held by one command, released together by the thread that took them.
+	 */
+	public class Held {
+		private int[] locked;        // stripes, in the order they were locked
+		private boolean[] write;
+		private boolean changing;
+
+		private Held(int[] locked, boolean[] write, boolean changing) {
+			this.locked = locked;
+			this.write = write;
+			this.changing = changing;
+		}
+
+		/**
+		 * Releases every lock, in the reverse order they were taken.
+		 */
+		public void release() {
+			for (int i = locked.length - 1; i >= 0; i--) {
+				if (write[i])
+					stripes[locked[i]].writeLock().unlock();
+				else
+					stripes[locked[i]].readLock().unlock();
+			}
+			if (changing)
+				changes.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Locks inodes for reading and for writing, waiting until every lock is free. An
+	 * inode given in both lists, or sharing a stripe with one to write, is locked for
+	 * writing. Negative inode indexes are left out. The thread must not hold other locks
+	 * of the disk taken before.
+	 * @param read inodes that are only read
+	 * @param write inodes that are changed
+	 * @return the locks held
+	 */
+	public Held acquire(int[] read, int[] write) {
+		boolean[] wanted = new boolean[STRIPES];
+		boolean[] exclusive = new boolean[STRIPES];
+		boolean changing = false;
+		for (int inode : read)
+			if (inode >= 0)
+				wanted[stripe(inode)] = true;
+		for (int inode : write)
+			if (inode >= 0) {
+				wanted[stripe(inode)] = true;
+				exclusive[stripe(inode)] = true;
+				changing = true;
+			}
+		int count = 0;
+		for (boolean w : wanted)
+			if (w)
+				count++;
+		int[] locked = new int[count];
+		boolean[] modes = new boolean[count];
+		if (changing)
+			changes.readLock().lock();
+		for (int s = 0, i = 0; s < STRIPES; s++) {
+			if (!wanted[s])
+				continue;
+			if (exclusive[s])
+				stripes[s].writeLock().lock();
+			else
+				stripes[s].readLock().lock();
+			locked[i] = s;
+			modes[i++] = exclusive[s];
+		}
+		return new Held(locked, modes, changing);
+	}
+
+	/**
+	 * @param inodes inodes that are only read
+	 * @return the locks held
+	 */
+	public Held read(int... inodes) {
+		return acquire(inodes, NONE);
+	}
+
+	/**
+	 * @param inodes inodes that are changed
+	 * @return the locks held
+	 */
+	public Held write(int... inodes) {
+		return acquire(NONE, inodes);
+	}
+
+	/**
+	 * Locks every inode of the disk, for a command that walks or changes a whole tree.
+	 * @param write true if the command changes the disk
+	 * @return the locks held
+	 */
+	public Held all(boolean write) {
+		int[] inodes = new int[STRIPES];
+		for (int s = 0; s < STRIPES; s++)
+			inodes[s] = s;
+		return write ? acquire(NONE, inodes) : acquire(inodes, NONE);
+	}
+
+	/**
+	 * Waits until no command is changing the disk and keeps new changes from starting,
+	 * until unlockDisk. Commands only reading the disk go on.
+	 */
+	public void lockDisk() {
+		changes.writeLock().lock();
+	}
+
+	public void unlockDisk() {
+		changes.writeLock().unlock();
+	}
+
+	private static int stripe(int inode) {
+		return inode & (STRIPES - 1);
+	}
+}
@@ -0,0 +1,193 @@
+package diskUtilities;
+
+import exceptions.InvalidValueException;
+
+/**
+ * In-memory copy of the inode table of a mounted disk. Every inode is a record on disk
+ * made of its type, file size and first block: 9 bytes with a 4 byte size on version 1
+ * disks, 13 bytes with an 8 byte size from version 2 on. Here each field is kept in its
+ * own primitive array so reading or changing an inode is an array access. Changed inodes
+ * are tracked as a single dirty range that is written back in bulk. The methods changing
+ * the table are synchronized, so commands on different inodes can change them at once;
+ * the inode locks of the disk keep commands on the same inode apart.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class InodeTable {
+
+	public static final int RECORD_SIZE = 9;        // bytes per inode on version 1 disks
+	public static final int WIDE_RECORD_SIZE = 13;  // bytes per inode from version 2 on
+
+	private byte[] type;
+	private long[] size;
+	private int[] firstBlock;
+	private long start;                       // byte position of inode 0 on disk
+	private int recordSize;
+	private int dirtyLow = Integer.MAX_VALUE;
+	private int dirtyHigh = -1;
+
+	/**
+	 * @param numNodes number of inodes in the disk
+	 * @param start byte position of the first inode on disk
+	 * @param recordSize bytes per inode on disk, RECORD_SIZE or WIDE_RECORD_SIZE
+	 */
+	public InodeTable(int numNodes, long start, int recordSize) {
+		this.type = new byte[numNodes];
+		this.size = new long[numNodes];
+		this.firstBlock = new int[numNodes];
+		this.start = start;
+		this.recordSize = recordSize;
+	}
+
+	/**
+	 * @param version format version of a disk
+	 * @return bytes per inode on disks of that version
+	 */
+	public static int recordSize(int version) {
+		return version < 2 ? RECORD_SIZE : WIDE_RECORD_SIZE;
+	}
+
+	/**
+	 * Reads the whole inode table from the disk in a single pass.
+	 * @param cache block cache of the disk
+	 */
+	public synchronized void load(BufferCache cache) {
+		byte[] records = new byte[type.length * recordSize];
+		cache.readBytes(start, records, 0, records.length);
+		for (int i = 0, p = 0; i < type.length; i++, p += recordSize) {
+			type[i] = records[p];
+			if (recordSize == RECORD_SIZE)
+				size[i] = getInt(records, p + 1);
+			else
+				size[i] = ((long) getInt(records, p + 1) << 32) | (getInt(records, p + 5) & 0xffffffffL);
+			firstBlock[i] = getInt(records, p + recordSize - 4);
+		}
+		dirtyLow = Integer.MAX_VALUE;
+		dirtyHigh = -1;
+	}
+
+	/**
+	 * Writes the range of modified inodes back to the disk as one contiguous write.
+	 * @param cache block cache of the disk
+	 */
+	public synchronized void flush(BufferCache cache) {
+		if (dirtyHigh < 0)
+			return;
+		int count = dirtyHigh - dirtyLow + 1;
+		byte[] records = new byte[count * recordSize];
+		for (int i = 0, p = 0; i < count; i++, p += recordSize) {
+			records[p] = type[dirtyLow + i];
+			if (recordSize == RECORD_SIZE)
+				putInt(records, p + 1, (int) size[dirtyLow + i]);
+			else {
+				putInt(records, p + 1, (int) (size[dirtyLow + i] >>> 32));
+				putInt(records, p + 5, (int) size[dirtyLow + i]);
+			}
+			putInt(records, p + recordSize - 4, firstBlock[dirtyLow + i]);
+		}
+		cache.writeBytes(start + (long) dirtyLow * recordSize, records, 0, records.length);
+		dirtyLow = Integer.MAX_VALUE;
+		dirtyHigh = -1;
+	}
+
+	/**
+	 * Extends the dirty range so it includes the given inode.
+	 * @param index inode index
+	 */
+	private void markDirty(int index) {
+		if (index < dirtyLow)
+			dirtyLow = index;
+		if (index > dirtyHigh)
+			dirtyHigh = index;
+	}
+
+	/**
+	 * Replaces the whole record of an inode.
+	 * @param index inode index
+	 * @param t inode type
+	 * @param s file size
+	 * @param fb first block of the file
+	 * @throws InvalidValueException whenever the size does not fit in the records of the disk
+	 */
+	public synchronized void set(int index, int t, long s, int fb) throws InvalidValueException {
+		checkSize(s);
+		type[index] = (byte) t;
+		size[index] = s;
+		firstBlock[index] = fb;
+		markDirty(index);
+	}
+
+	/**
+	 * @param index inode index
+	 * @param t new inode type
+	 */
+	public synchronized void setType(int index, int t) {
+		type[index] = (byte) t;
+		markDirty(index);
+	}
+
+	/**
+	 * @param index inode index
+	 * @param s new file size
+	 * @throws InvalidValueException whenever the size does not fit in the records of the disk
+	 */
+	public synchronized void setSize(int index, long s) throws InvalidValueException {
+		checkSize(s);
+		size[index] = s;
+		markDirty(index);
+	}
+
+	/**
+	 * @param index inode index
+	 * @return inode type
+	 */
+	public int getType(int index) {
+		return type[index];
+	}
+
+	/**
+	 * @param index inode index
+	 * @return size of the file the inode holds
+	 */
+	public synchronized long getSize(int index) {
+		return size[index];
+	}
+
+	/**
+	 * @param index inode index
+	 * @return first block of the file the inode holds
+	 */
+	public int getFirstBlock(int index) {
+		return firstBlock[index];
+	}
+
+	/**
+	 * @return largest file size the records of the disk can hold
+	 */
+	public long getMaxSize() {
+		return recordSize == RECORD_SIZE ? Integer.MAX_VALUE : Long.MAX_VALUE;
+	}
+
+	private void checkSize(long s) throws InvalidValueException {
+		if (s > getMaxSize())
+			throw new InvalidValueException("File size " + s + " does not fit in the inodes of the disk");
+	}
+
+	/**
+	 * @return number of inodes in the table
+	 */
+	public int length() {
+		return type.length;
+	}
+
+	private static int getInt(byte[] b, int p) {
+		return ((b[p] & 0xff) << 24) | ((b[p+1] & 0xff) << 16) | ((b[p+2] & 0xff) << 8) | (b[p+3] & 0xff);
+	}
+
+	private static void putInt(byte[] b, int p, int value) {
+		b[p] = (byte) (value >> 24);
+		b[p+1] = (byte) (value >> 16);
+		b[p+2] = (byte) (value >> 8);
+		b[p+3] = (byte) value;
+	}
+}
@@ -0,0 +1,295 @@
+package diskUtilities;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of the metadata blocks of a disk, kept in a circular run of blocks
+ * of the disk itself. Each transaction holds the new content of every metadata block a
+ * command changed: one or more descriptor blocks, each listing the block numbers of the
+ * images that follow it, and a commit block with a checksum of the whole transaction.
+ * The first block of the run is the journal header: the position and sequence number of
+ * the first transaction that may not be in place yet. Mounting the disk replays, in order,
+ * every transaction from there whose commit block is complete and matches its checksum;
+ * replay stops at the first one that does not.
+ * A transaction is appended without forcing the device, so several of them reach the
+ * disk file with a single force (group commit). Their blocks may only be written in place
+ * after that force. When the journal has no room for the next transaction every block is
+ * written in place, the device is forced and the journal starts over (checkpoint).
+ * Writers of file content ask whether a block is logged while transactions are appended,
+ * so those methods are synchronized.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class Journal {
+
+	static final int MAGIC = 0x56444A4C;             // "VDJL", journal header and layout block
+	private static final int DESCRIPTOR = 0x56444A44; // "VDJD"
+	private static final int COMMIT = 0x56444A43;     // "VDJC"
+	private static final int DESCRIPTOR_HEADER = 12;  // magic, sequence, count
+
+	private BlockDevice device;
+	private int blockSize;
+	private int start;          // header block of the journal
+	private int length;         // blocks of the journal, header included
+	private int tail;           // record position of the first transaction not checkpointed
+	private int head;           // record position where the next transaction goes
+	private int used;           // record blocks between tail and head
+	private int sequence;       // sequence number of the next transaction
+	private HashSet<Integer> logged = new HashSet<Integer>();   // blocks logged since the checkpoint
+	private byte[] buffer;
+
+	/**
+	 * @param device device holding the disk, written directly
+	 * @param blockSize size of the blocks of the disk
+	 * @param start header block of the journal
+	 * @param length number of blocks of the journal, header included
+	 */
+	private Journal(BlockDevice device, int blockSize, int start, int length) {
+		this.device = device;
+		this.blockSize = blockSize;
+		this.start = start;
+		this.length = length;
+		this.buffer = new byte[blockSize];
+	}
+
+	/**
+	 * Writes the header of an empty journal in the given run of blocks.
+	 * @param device device holding the disk
+	 * @param blockSize size of the blocks of the disk
+	 * @param start first block of the run
+	 * @param length number of blocks of the run, at least 4
+	 * @return the new journal
+	 * @throws IOException
+	 */
+	public static Journal create(BlockDevice device, int blockSize, int start, int length) throws IOException {
+		Journal j = new Journal(device, blockSize, start, length);
+		j.sequence = 1;
+		j.writeHeader();
+		device.force();
+		return j;
+	}
+
+	/**
+	 * Opens the journal stored in the given run of blocks and replays the transactions
+	 * that may not be in place, writing their blocks to the disk through the given device.
+	 * The journal is empty afterwards.
+	 * @param device device holding the disk, the journal is read and written directly
+	 * @param disk device the replayed blocks are written to
+	 * @param blockSize size of the blocks of the disk
+	 * @param start header block of the journal
+	 * @param length number of blocks of the journal
+	 * @return the journal, or null if the run does not hold one
+	 * @throws IOException
+	 */
+	public static Journal open(BlockDevice device, BlockDevice disk, int blockSize, int start, int length)
+			throws IOException {
+		Journal j = new Journal(device, blockSize, start, length);
+		long pos = (long) start * blockSize;
+		if (device.readInt(pos) != MAGIC || device.readInt(pos + 4) != length)
+			return null;
+		j.tail = device.readInt(pos + 8);
+		j.sequence = device.readInt(pos + 12);
+		if (j.tail < 0 || j.tail >= length - 1)
+			j.tail = 0;
+		j.head = j.tail;
+		if (j.replay(disk) > 0)
+			disk.force();
+		j.tail = j.head;
+		j.writeHeader();
+		device.force();
+		return j;
+	}
+
+	/**
+	 * @return number of record blocks, the header excluded
+	 */
+	private int records() {
+		return length - 1;
+	}
+
+	/**
+	 * @param p record position
+	 * @return byte offset on the device of the record block at that position
+	 */
+	private long offset(int p) {
+		return (long) (start + 1 + p % records()) * blockSize;
+	}
+
+	private int perDescriptor() {
+		return (blockSize - DESCRIPTOR_HEADER) / 4;
+	}
+
+	/**
+	 * @param count number of blocks changed by a transaction
+	 * @return number of journal blocks the transaction takes
+	 */
+	public int blocksFor(int count) {
+		return count + (count + perDescriptor() - 1) / perDescriptor() + 1;
+	}
+
+	/**
+	 * @param count number of blocks changed by a transaction
+	 * @return true if the journal can ever hold such a transaction
+	 */
+	public boolean fits(int count) {
+		return blocksFor(count) <= records();
+	}
+
+	/**
+	 * @param count number of blocks changed by a transaction
+	 * @return true if the transaction fits in the journal without a checkpoint
+	 */
+	public boolean hasRoom(int count) {
+		return used + blocksFor(count) <= records();
+	}
+
+	/**
+	 * @param bn block number
+	 * @return true if an image of the block was logged since the last checkpoint, so the
+	 * block must not be written in place bypassing the journal
+	 */
+	public synchronized boolean isLogged(int bn) {
+		return logged.contains(bn);
+	}
+
+	/**
+	 * Appends a transaction. The device is not forced, so the transaction is durable
+	 * only after the next force of the device.
+	 * @param blocks numbers of the blocks changed
+	 * @param images new content of each block
+	 * @throws IOException
+	 */
+	public synchronized void append(ArrayList<Integer> blocks, ArrayList<byte[]> images) throws IOException {
+		CRC32 crc = new CRC32();
+		update(crc, sequence);
+		int per = perDescriptor();
+		for (int i = 0; i < blocks.size(); i += per) {
+			int n = Math.min(per, blocks.size() - i);
+			Arrays.fill(buffer, (byte) 0);
+			putInt(buffer, 0, DESCRIPTOR);
+			putInt(buffer, 4, sequence);
+			putInt(buffer, 8, n);
+			for (int k = 0; k < n; k++) {
+				putInt(buffer, DESCRIPTOR_HEADER + 4*k, blocks.get(i + k));
+				update(crc, blocks.get(i + k));
+			}
+			writeRecord(buffer);
+			for (int k = 0; k < n; k++) {
+				crc.update(images.get(i + k), 0, blockSize);
+				writeRecord(images.get(i + k));
+			}
+		}
+		Arrays.fill(buffer, (byte) 0);
+		putInt(buffer, 0, COMMIT);
+		putInt(buffer, 4, sequence);
+		putInt(buffer, 8, blocks.size());
+		putInt(buffer, 12, (int) crc.getValue());
+		writeRecord(buffer);
+		logged.addAll(blocks);
+		sequence++;
+	}
+
+	private void writeRecord(byte[] block) throws IOException {
+		device.write(offset(head), block, 0, blockSize);
+		head = (head + 1) % records();
+		used++;
+	}
+
+	/**
+	 * Empties the journal once every block it holds is in place and forced.
+	 * @throws IOException
+	 */
+	public synchronized void checkpoint() throws IOException {
+		tail = head;
+		used = 0;
+		logged.clear();
+		writeHeader();
+		device.force();
+	}
+
+	private void writeHeader() throws IOException {
+		Arrays.fill(buffer, (byte) 0);
+		putInt(buffer, 0, MAGIC);
+		putInt(buffer, 4, length);
+		putInt(buffer, 8, tail);
+		putInt(buffer, 12, sequence);
+		device.write((long) start * blockSize, buffer, 0, blockSize);
+	}
+
+	/**
+	 * Writes in place the blocks of every complete transaction from the tail on.
+	 * @param disk device the blocks are written to
+	 * @return number of transactions replayed
+	 */
+	private int replay(BlockDevice disk) throws IOException {
+		int replayed = 0;
+		while (true) {
+			ArrayList<Integer> blocks = new ArrayList<Integer>();
+			ArrayList<Integer> positions = new ArrayList<Integer>();
+			CRC32 crc = new CRC32();
+			update(crc, sequence);
+			int p = head;
+			int count = -1;
+			for (int read = 0; read < records(); ) {
+				device.read(offset(p), buffer, 0, blockSize);
+				int magic = getInt(buffer, 0);
+				if (getInt(buffer, 4) != sequence)
+					break;
+				if (magic == COMMIT) {
+					count = getInt(buffer, 8);
+					if (count != blocks.size() || getInt(buffer, 12) != (int) crc.getValue())
+						count = -1;
+					p++;
+					break;
+				}
+				int n = getInt(buffer, 8);
+				if (magic != DESCRIPTOR || n < 0 || n > perDescriptor())
+					break;
+				int[] bns = new int[n];
+				for (int k = 0; k < n; k++) {
+					bns[k] = getInt(buffer, DESCRIPTOR_HEADER + 4*k);
+					update(crc, bns[k]);
+				}
+				p++;
+				read++;
+				for (int k = 0; k < n && read < records(); k++, p++, read++) {
+					device.read(offset(p), buffer, 0, blockSize);
+					crc.update(buffer, 0, blockSize);
+					blocks.add(bns[k]);
+					positions.add(p);
+				}
+			}
+			if (count == -1)
+				return replayed;
+			for (int i = 0; i < blocks.size(); i++) {
+				device.read(offset(positions.get(i)), buffer, 0, blockSize);
+				disk.write((long) blocks.get(i) * blockSize, buffer, 0, blockSize);
+			}
+			head = p % records();
+			sequence++;
+			replayed++;
+		}
+	}
+
+	private static void update(CRC32 crc, int value) {
+		crc.update(value >>> 24);
+		crc.update(value >>> 16);
+		crc.update(value >>> 8);
+		crc.update(value);
+	}
+
+	private static void putInt(byte[] b, int p, int value) {
+		b[p] = (byte) (value >> 24);
+		b[p + 1] = (byte) (value >> 16);
+		b[p + 2] = (byte) (value >> 8);
+		b[p + 3] = (byte) value;
+	}
+
+	private static int getInt(byte[] b, int p) {
+		return ((b[p] & 0xff) << 24) | ((b[p + 1] & 0xff) << 16) | ((b[p + 2] & 0xff) << 8) | (b[p + 3] & 0xff);
+	}
+}
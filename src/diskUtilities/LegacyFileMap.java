@@ -0,0 +1,107 @@
+package diskUtilities;
+
+import java.util.ArrayList;
+
+/**
+ * Map of a file stored in the original block chain format. The first block holds
+ * blockSize-20 bytes of the file followed by four direct pointers and the pointer to the
+ * first indirect block; every indirect block holds blockSize/4-1 pointers followed by the
+ * pointer to the next indirect block. The chain is walked lazily and only as far as
+ * needed, and never past the number of blocks the file size calls for.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class LegacyFileMap extends FileMap {
+
+	private static final int POINTER_AREA = 20;  // direct pointers and indirect pointer
+
+	private int[] blocks;         // data blocks found so far
+	private int resolved;         // number of entries of blocks already known
+	private ArrayList<Integer> indexBlocks = new ArrayList<Integer>();
+	private VirtualDiskBlock pointers;   // null once the chain has no more pointer blocks
+	private int counter;          // position of the next pointer in the pointer block
+	private int inBlock;          // pointers taken from the current pointer block
+	private int perBlock;         // data pointers the current pointer block holds
+	private int next;             // next data block of the chain
+
+	/**
+	 * @param d disk holding the file
+	 * @param inode inode index of the file
+	 */
+	public LegacyFileMap(DiskUnit d, int inode) {
+		super(d, inode);
+		blocks = new int[getBlockCount()];
+		pointers = new VirtualDiskBlock(blockSize);
+		next = d.getInodeFBlock(inode);
+		d.read(next, pointers);
+		counter = blockSize - POINTER_AREA;
+		perBlock = 4;
+	}
+
+	public int getBlockCount() {
+		long first = blockSize - POINTER_AREA;
+		if (size <= first)
+			return 1;
+		return (int) (1 + (size - first + blockSize - 1) / blockSize);
+	}
+
+	public int getBlock(int index) {
+		while (resolved <= index && resolved < blocks.length && next != 0)
+			step();
+		return index < resolved ? blocks[index] : 0;
+	}
+
+	/**
+	 * Takes the next data block of the chain, moving to the next indirect block once the
+	 * pointers of the current one are used up.
+	 */
+	private void step() {
+		blocks[resolved++] = next;
+		if (resolved == blocks.length || pointers == null) {
+			next = 0;
+			return;
+		}
+		next = Utils.getIntFromBlock(pointers, counter);
+		if (next < 0 || next >= d.getCapacity())
+			next = 0;
+		counter += 4;
+		inBlock++;
+		if (inBlock >= perBlock) {
+			int indirect = Utils.getIntFromBlock(pointers, counter);
+			if (indirect <= 0 || indirect >= d.getCapacity()) {
+				pointers = null;      // no pointer follows the block in next
+				return;
+			}
+			indexBlocks.add(indirect);
+			d.read(indirect, pointers);
+			counter = 0;
+			inBlock = 0;
+			perBlock = blockSize / 4 - 1;
+		}
+	}
+
+	public int indexOf(long offset) {
+		long first = blockSize - POINTER_AREA;
+		if (offset < first)
+			return 0;
+		return (int) (1 + (offset - first) / blockSize);
+	}
+
+	public long offsetOf(int index) {
+		if (index == 0)
+			return 0;
+		return blockSize - POINTER_AREA + (long) (index - 1) * blockSize;
+	}
+
+	public int dataLength(int index) {
+		return index == 0 ? blockSize - POINTER_AREA : blockSize;
+	}
+
+	public void free() {
+		getBlock(blocks.length - 1);
+		for (int i = 0; i < resolved; i++)
+			d.registerFB(blocks[i]);
+		for (int bn : indexBlocks)
+			d.registerFB(bn);
+	}
+}
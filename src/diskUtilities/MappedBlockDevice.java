@@ -0,0 +1,163 @@
+package diskUtilities;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Block device backed by a memory mapped FileChannel. The file is mapped in segments of
+ * 1 GB, since a single mapping cannot go past 2 GB, so reads and writes are plain memory
+ * copies with no system call per block whatever the size of the disk. Ranges that cross
+ * from one segment to the next fall back to positional FileChannel reads and writes.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class MappedBlockDevice implements BlockDevice {
+
+	private static final int SEGMENT_SHIFT = 30;   // 1 GB per mapping
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private MappedByteBuffer[] segments;   // mappings of the file, the last one may be shorter
+
+	/**
+	 * Opens (or creates) the file with the given path and maps its current content.
+	 * @param path path of the file representing the disk
+	 * @throws IOException
+	 */
+	public MappedBlockDevice(String path) throws IOException {
+		file = new RandomAccessFile(path, "rw");
+		channel = file.getChannel();
+		remap();
+	}
+
+	/**
+	 * Maps the whole file in read/write mode, one segment at a time.
+	 * @throws IOException
+	 */
+	private void remap() throws IOException {
+		long size = channel.size();
+		int count = (int) ((size + (1L << SEGMENT_SHIFT) - 1) >>> SEGMENT_SHIFT);
+		MappedByteBuffer[] maps = new MappedByteBuffer[count];
+		for (int i = 0; i < count; i++) {
+			long start = (long) i << SEGMENT_SHIFT;
+			maps[i] = channel.map(FileChannel.MapMode.READ_WRITE, start,
+					Math.min(1L << SEGMENT_SHIFT, size - start));
+		}
+		segments = maps;
+	}
+
+	/**
+	 * @return the segment holding the whole range [position, position+length), or null if
+	 * the range is outside the file or crosses to another segment
+	 */
+	private MappedByteBuffer segment(long position, int length) {
+		if (position < 0 || length <= 0)
+			return null;
+		int i = (int) (position >>> SEGMENT_SHIFT);
+		if (i >= segments.length || (position + length - 1) >>> SEGMENT_SHIFT != i ||
+				offset(position) + length > segments[i].capacity())
+			return null;
+		return segments[i];
+	}
+
+	/**
+	 * @return position of the given byte inside its segment
+	 */
+	private static int offset(long position) {
+		return (int) (position & ((1L << SEGMENT_SHIFT) - 1));
+	}
+
+	public void read(long position, byte[] dst, int offset, int length) throws IOException {
+		MappedByteBuffer map = segment(position, length);
+		if (map != null) {
+			ByteBuffer view = map.duplicate();
+			view.position(offset(position));
+			view.get(dst, offset, length);
+			return;
+		}
+		ByteBuffer buf = ByteBuffer.wrap(dst, offset, length);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, position + buf.position() - offset) < 0)
+				break;
+		}
+	}
+
+	public void write(long position, byte[] src, int offset, int length) throws IOException {
+		MappedByteBuffer map = segment(position, length);
+		if (map != null) {
+			ByteBuffer view = map.duplicate();
+			view.position(offset(position));
+			view.put(src, offset, length);
+			return;
+		}
+		ByteBuffer buf = ByteBuffer.wrap(src, offset, length);
+		while (buf.hasRemaining())
+			channel.write(buf, position + buf.position() - offset);
+	}
+
+	public byte readByte(long position) throws IOException {
+		MappedByteBuffer map = segment(position, 1);
+		if (map != null)
+			return map.get(offset(position));
+		byte[] b = new byte[1];
+		read(position, b, 0, 1);
+		return b[0];
+	}
+
+	public void writeByte(long position, int value) throws IOException {
+		MappedByteBuffer map = segment(position, 1);
+		if (map != null) {
+			map.put(offset(position), (byte) value);
+			return;
+		}
+		write(position, new byte[] {(byte) value}, 0, 1);
+	}
+
+	public int readInt(long position) throws IOException {
+		MappedByteBuffer map = segment(position, 4);
+		if (map != null)
+			return map.getInt(offset(position));
+		byte[] b = new byte[4];
+		read(position, b, 0, 4);
+		return ByteBuffer.wrap(b).getInt();
+	}
+
+	public void writeInt(long position, int value) throws IOException {
+		MappedByteBuffer map = segment(position, 4);
+		if (map != null) {
+			map.putInt(offset(position), value);
+			return;
+		}
+		write(position, ByteBuffer.allocate(4).putInt(value).array(), 0, 4);
+	}
+
+	public long length() throws IOException {
+		return channel.size();
+	}
+
+	public synchronized void setLength(long length) throws IOException {
+		forceSegments();
+		file.setLength(length);
+		remap();
+	}
+
+	public synchronized void force() throws IOException {
+		forceSegments();
+		channel.force(false);
+	}
+
+	private void forceSegments() {
+		for (MappedByteBuffer map : segments)
+			map.force();
+	}
+
+	public synchronized void close() throws IOException {
+		force();
+		segments = new MappedByteBuffer[0];
+		channel.close();
+		file.close();
+	}
+}
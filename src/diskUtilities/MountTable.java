@@ -0,0 +1,146 @@
+package diskUtilities;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import exceptions.ExistingDiskException;
+import exceptions.NonExistingDiskException;
+
+/**
+ * Disks mounted at the same time by one process, by name. A snapshot mounted next to its
+ * live disk is kept under its own name, disk@snapshot, and the live disk cannot be
+ * unmounted before it. Every disk is a separate DiskUnit with its own device, cache and
+ * tables, so they can be used in any order. The table may be shared by sessions running
+ * on different threads.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class MountTable {
+
+	private LinkedHashMap<String, DiskUnit> disks = new LinkedHashMap<String, DiskUnit>();
+
+	/**
+	 * Mounts a disk and adds it to the table.
+	 * @param name name of the disk
+	 * @return the mounted disk
+	 * @throws ExistingDiskException if the disk is already mounted
+	 * @throws NonExistingDiskException if there is no such disk
+	 */
+	public synchronized DiskUnit mount(String name) throws NonExistingDiskException {
+		if (disks.containsKey(name))
+			throw new ExistingDiskException("Disk is already mounted : " + name);
+		DiskUnit d = DiskUnit.mount(name);
+		disks.put(name, d);
+		return d;
+	}
+
+	/**
+	 * Mounts a snapshot of a mounted disk, read-only, and adds it to the table.
+	 * @param live the live disk
+	 * @param name name of the snapshot
+	 * @return the mounted snapshot
+	 * @throws ExistingDiskException if the snapshot is already mounted
+	 * @throws NonExistingDiskException if the disk has no such snapshot
+	 */
+	public synchronized DiskUnit mountSnapshot(DiskUnit live, String name) throws NonExistingDiskException {
+		String full = live.getDiskName() + Snapshot.SEPARATOR + name;
+		if (disks.containsKey(full))
+			throw new ExistingDiskException("Snapshot is already mounted : " + full);
+		DiskUnit snap = live.mountSnapshot(name);
+		disks.put(full, snap);
+		return snap;
+	}
+
+	/**
+	 * Shuts a disk down and removes it from the table, once the commands of other
+	 * sessions using it have ended.
+	 * @param d a mounted disk
+	 * @return false if it is a live disk with snapshots still mounted, which is left alone
+	 */
+	public synchronized boolean unmount(DiskUnit d) {
+		if (!getSnapshotsOf(d).isEmpty())
+			return false;
+		disks.remove(d.getDiskName());
+		InodeLocks locks = d.getInodeLocks();
+		locks.lockDisk();
+		InodeLocks.Held held = locks.all(false);
+		try {
+			d.shutdown();
+		} finally {
+			held.release();
+			locks.unlockDisk();
+		}
+		return true;
+	}
+
+	/**
+	 * Unmounts every disk, the snapshots before their live disks.
+	 */
+	public synchronized void unmountAll() {
+		ArrayList<DiskUnit> all = getDisks();
+		for (DiskUnit d : all)
+			if (d.isReadOnly())
+				unmount(d);
+		for (DiskUnit d : all)
+			if (!d.isReadOnly())
+				unmount(d);
+	}
+
+	/**
+	 * @param name name of a disk, or disk@snapshot
+	 * @return the disk mounted with that name, null if it is not mounted
+	 */
+	public synchronized DiskUnit get(String name) {
+		return disks.get(name);
+	}
+
+	/**
+	 * @param name name of a disk
+	 * @return true if the disk or one of its snapshots is mounted
+	 */
+	public synchronized boolean isInUse(String name) {
+		for (String mounted : disks.keySet())
+			if (mounted.equals(name) || mounted.startsWith(name + Snapshot.SEPARATOR))
+				return true;
+		return false;
+	}
+
+	/**
+	 * @param d a mounted disk
+	 * @return the live disk of d if d is a snapshot, d otherwise
+	 */
+	public synchronized DiskUnit getLive(DiskUnit d) {
+		int sep = d.getDiskName().indexOf(Snapshot.SEPARATOR);
+		if (sep == -1)
+			return d;
+		DiskUnit live = disks.get(d.getDiskName().substring(0, sep));
+		return live == null ? d : live;
+	}
+
+	/**
+	 * @param d a mounted disk
+	 * @return the snapshots of d that are mounted
+	 */
+	public synchronized ArrayList<DiskUnit> getSnapshotsOf(DiskUnit d) {
+		ArrayList<DiskUnit> list = new ArrayList<DiskUnit>();
+		String prefix = d.getDiskName() + Snapshot.SEPARATOR;
+		for (DiskUnit m : disks.values())
+			if (m.getDiskName().startsWith(prefix))
+				list.add(m);
+		return list;
+	}
+
+	/**
+	 * @return the mounted disks, in the order they were mounted
+	 */
+	public synchronized ArrayList<DiskUnit> getDisks() {
+		return new ArrayList<DiskUnit>(disks.values());
+	}
+
+	/**
+	 * @return true if no disk is mounted
+	 */
+	public synchronized boolean isEmpty() {
+		return disks.isEmpty();
+	}
+}
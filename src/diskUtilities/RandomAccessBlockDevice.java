@@ -0,0 +1,81 @@
+package diskUtilities;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Block device backed by a RandomAccessFile. Every access is a positional read or write
+ * system call on the FileChannel of the file, which has no shared file pointer, so
+ * several threads can read and write at once. Kept as the fallback to the memory mapped
+ * device.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class RandomAccessBlockDevice implements BlockDevice {
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+
+	/**
+	 * Opens (or creates) the file with the given path for reading and writing.
+	 * @param path path of the file representing the disk
+	 * @throws IOException
+	 */
+	public RandomAccessBlockDevice(String path) throws IOException {
+		file = new RandomAccessFile(path, "rw");
+		channel = file.getChannel();
+	}
+
+	public void read(long position, byte[] dst, int offset, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(dst, offset, length);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, position + buf.position() - offset) < 0)
+				throw new EOFException();
+		}
+	}
+
+	public void write(long position, byte[] src, int offset, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(src, offset, length);
+		while (buf.hasRemaining())
+			channel.write(buf, position + buf.position() - offset);
+	}
+
+	public byte readByte(long position) throws IOException {
+		byte[] b = new byte[1];
+		read(position, b, 0, 1);
+		return b[0];
+	}
+
+	public void writeByte(long position, int value) throws IOException {
+		write(position, new byte[] {(byte) value}, 0, 1);
+	}
+
+	public int readInt(long position) throws IOException {
+		byte[] b = new byte[4];
+		read(position, b, 0, 4);
+		return ByteBuffer.wrap(b).getInt();
+	}
+
+	public void writeInt(long position, int value) throws IOException {
+		write(position, ByteBuffer.allocate(4).putInt(value).array(), 0, 4);
+	}
+
+	public long length() throws IOException {
+		return channel.size();
+	}
+
+	public synchronized void setLength(long length) throws IOException {
+		file.setLength(length);
+	}
+
+	public void force() throws IOException {
+		channel.force(true);
+	}
+
+	public synchronized void close() throws IOException {
+		file.close();
+	}
+}
@@ -0,0 +1,265 @@
+package diskUtilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Reference counts of the blocks shared by more than one file, kept next to the free
+ * space map. A block is normally owned by a single file and is not in the table; cloning
+ * a file adds one reference to every block of its extents. The table holds runs of
+ * consecutive blocks with the same number of extra references, so sharing a whole extent
+ * is one update whatever its length. Freeing a shared block only drops one reference; the
+ * block becomes free once its last owner frees it.
+ * On disk the table is a chain of blocks: bytes 0-3 hold the next block of the chain (0 in
+ * the last one), bytes 4-7 the number of runs in the block, followed by the runs as
+ * (first block, length, extra references).
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class RefCountTable {
+
+	private static final int HEADER = 8;   // next block and run count
+	private static final int RUN = 12;     // first block, length, extra references
+
+	// first block of a run -> {length, extra references}
+	private TreeMap<Integer, int[]> runs = new TreeMap<Integer, int[]>();
+	private ArrayList<Integer> blocks = new ArrayList<Integer>();   // chain on disk
+	private boolean dirty;
+
+	/**
+	 * Adds one reference to every block of a run.
+	 * @param start first block of the run
+	 * @param length number of blocks
+	 */
+	public void share(int start, int length) {
+		if (length <= 0)
+			return;
+		split(start);
+		split(start + length);
+		int bn = start;
+		int end = start + length;
+		while (bn < end) {
+			int[] run = runs.get(bn);
+			if (run != null) {
+				run[1]++;
+				bn += run[0];
+				continue;
+			}
+			Integer next = runs.ceilingKey(bn);
+			int gap = (next == null ? end : Math.min(end, next)) - bn;
+			runs.put(bn, new int[] {gap, 1});
+			bn += gap;
+		}
+		merge(start, end);
+		dirty = true;
+	}
+
+	/**
+	 * Drops the reference share added to every block of a run, for a share that cannot
+	 * be kept.
+	 * @param start first block of the run
+	 * @param length number of blocks
+	 */
+	public void unshare(int start, int length) {
+		if (length <= 0)
+			return;
+		split(start);
+		split(start + length);
+		for (Integer bn = start; bn != null && bn < start + length; bn = runs.higherKey(bn)) {
+			int[] run = runs.get(bn);
+			if (--run[1] == 0)
+				runs.remove(bn);
+		}
+		merge(start, start + length);
+		dirty = true;
+	}
+
+	/**
+	 * Takes the blocks the table needs on disk to hold its runs, so writing it when the
+	 * disk is committed never needs a new block. Called by the command changing the
+	 * table, where a full disk can be reported.
+	 * @param d disk holding the table
+	 * @throws exceptions.FullDiskException whenever the table needs a block and the disk is full
+	 */
+	public void reserve(DiskUnit d) {
+		int needed = blocksFor(d);
+		while (blocks.size() < needed) {
+			blocks.add(d.getFreeBN());
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Drops one reference to a block if it is shared.
+	 * @param bn block number
+	 * @return true if the block was shared, so another file still owns it and it must
+	 * not be marked free
+	 */
+	public boolean release(int bn) {
+		if (!isShared(bn))
+			return false;
+		split(bn);
+		split(bn + 1);
+		int[] run = runs.get(bn);
+		if (--run[1] == 0)
+			runs.remove(bn);
+		merge(bn, bn + 1);
+		dirty = true;
+		return true;
+	}
+
+	/**
+	 * @param bn block number
+	 * @return true if more than one file owns the block
+	 */
+	public boolean isShared(int bn) {
+		Map.Entry<Integer, int[]> e = runs.floorEntry(bn);
+		return e != null && bn < e.getKey() + e.getValue()[0];
+	}
+
+	/**
+	 * @param bn block number
+	 * @return number of files owning the block besides the first one
+	 */
+	public int getExtraReferences(int bn) {
+		Map.Entry<Integer, int[]> e = runs.floorEntry(bn);
+		return e != null && bn < e.getKey() + e.getValue()[0] ? e.getValue()[1] : 0;
+	}
+
+	/**
+	 * @return the runs of shared blocks, first block -> {length, extra references}
+	 */
+	public SortedMap<Integer, int[]> getRuns() {
+		return Collections.unmodifiableSortedMap(runs);
+	}
+
+	/**
+	 * Replaces the whole table.
+	 * @param extra block number -> number of files owning the block besides the first one
+	 */
+	public void rebuild(Map<Integer, Integer> extra) {
+		runs.clear();
+		for (Map.Entry<Integer, Integer> e : extra.entrySet())
+			if (e.getValue() > 0)
+				runs.put(e.getKey(), new int[] {1, e.getValue()});
+		if (!runs.isEmpty())
+			merge(runs.firstKey(), runs.lastKey());
+		dirty = true;
+	}
+
+	/**
+	 * @return blocks of the disk holding the table
+	 */
+	public ArrayList<Integer> getBlocks() {
+		return blocks;
+	}
+
+	/**
+	 * Reads the table stored in the chain starting at the given block.
+	 * @param d disk holding the table
+	 * @param first first block of the chain, 0 if the disk has no table
+	 */
+	public void load(DiskUnit d, int first) {
+		runs.clear();
+		blocks.clear();
+		VirtualDiskBlock vdb = d.getBlockPool().lease();
+		for (int bn = first; bn > 0 && bn < d.getCapacity(); bn = vdb.getInt(0)) {
+			d.read(bn, vdb);
+			blocks.add(bn);
+			int count = vdb.getInt(4);
+			for (int i = 0; i < count; i++) {
+				int p = HEADER + i * RUN;
+				runs.put(vdb.getInt(p), new int[] {vdb.getInt(p + 4), vdb.getInt(p + 8)});
+			}
+		}
+		d.getBlockPool().release(vdb);
+		dirty = false;
+	}
+
+	/**
+	 * Writes the table if it changed, in the blocks taken by reserve, and gives back the
+	 * blocks it no longer needs. No block is taken: if the table outgrew its reserved
+	 * blocks it is kept in memory only, and the table on disk is left as it was.
+	 * @param d disk holding the table
+	 * @return first block of the chain, 0 if the table is empty
+	 */
+	public int flush(DiskUnit d) {
+		int needed = blocksFor(d);
+		if (!dirty || blocks.size() < needed)
+			return blocks.isEmpty() ? 0 : blocks.get(0);
+		int perBlock = (d.getBlockSize() - HEADER) / RUN;
+		while (blocks.size() > needed)
+			d.registerFB(blocks.remove(blocks.size() - 1));
+
+		VirtualDiskBlock vdb = d.getBlockPool().leaseCleared();
+		int b = 0, i = 0;
+		for (Map.Entry<Integer, int[]> e : runs.entrySet()) {
+			int p = HEADER + i * RUN;
+			vdb.putInt(p, e.getKey());
+			vdb.putInt(p + 4, e.getValue()[0]);
+			vdb.putInt(p + 8, e.getValue()[1]);
+			if (++i == perBlock) {
+				writeChainBlock(d, vdb, b++, i);
+				i = 0;
+			}
+		}
+		if (i > 0)
+			writeChainBlock(d, vdb, b, i);
+		d.getBlockPool().release(vdb);
+		dirty = false;
+		return blocks.isEmpty() ? 0 : blocks.get(0);
+	}
+
+	/**
+	 * @return number of blocks of the chain holding the runs of the table
+	 */
+	private int blocksFor(DiskUnit d) {
+		int perBlock = (d.getBlockSize() - HEADER) / RUN;
+		return (runs.size() + perBlock - 1) / perBlock;
+	}
+
+	private void writeChainBlock(DiskUnit d, VirtualDiskBlock vdb, int b, int count) {
+		vdb.putInt(0, b + 1 < blocks.size() ? blocks.get(b + 1) : 0);
+		vdb.putInt(4, count);
+		d.write(blocks.get(b), vdb);
+		vdb.clear();
+	}
+
+	/**
+	 * Makes bn the first block of a run if a run goes across it.
+	 */
+	private void split(int bn) {
+		Map.Entry<Integer, int[]> e = runs.lowerEntry(bn);
+		if (e == null)
+			return;
+		int start = e.getKey();
+		int[] run = e.getValue();
+		if (bn >= start + run[0])
+			return;
+		runs.put(bn, new int[] {start + run[0] - bn, run[1]});
+		run[0] = bn - start;
+	}
+
+	/**
+	 * Joins the runs starting in [from, to], and the run before from, with the run
+	 * following each of them when they have the same count and touch.
+	 */
+	private void merge(int from, int to) {
+		Integer key = runs.lowerKey(from);
+		if (key == null)
+			key = runs.ceilingKey(from);
+		while (key != null && key <= to) {
+			int[] run = runs.get(key);
+			int[] next = runs.get(key + run[0]);
+			if (next != null && next[1] == run[1]) {
+				run[0] += next[0];
+				runs.remove(key + run[0] - next[0]);
+				continue;
+			}
+			key = runs.higherKey(key);
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package diskUtilities;
+
+import java.util.HashMap;
+
+/**
+ * Working state of one user of the mounted disks: the current disk and, on every disk the
+ * user went to, the current directory together with the directories left to reach it.
+ * A disk only holds what is stored on it, so any number of sessions can work on the same
+ * mounted disk without moving each other's current directory.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class Session {
+
+	private DiskUnit disk;    // current disk, null if there is none
+	private HashMap<DiskUnit, Position> positions = new HashMap<DiskUnit, Position>();
+
+	/**
+	 * Current directory on a disk, linked to the one it was entered from. Positions are
+	 * never changed, going back just returns to the previous one.
+	 */
+	private static class Position {
+		private final int dir;
+		private final String name;
+		private final Position previous;   // null at the root
+
+		private Position(int dir, String name, Position previous) {
+			this.dir = dir;
+			this.name = name;
+			this.previous = previous;
+		}
+	}
+
+	/**
+	 * @return the current disk, null if there is none
+	 */
+	public DiskUnit getDisk() {
+		return disk;
+	}
+
+	/**
+	 * Makes a disk the current one, keeping the directory the session had on it.
+	 * @param d a mounted disk, null for none
+	 */
+	public void setDisk(DiskUnit d) {
+		disk = d;
+	}
+
+	/**
+	 * @return inode index of the current directory on the current disk
+	 */
+	public int getDirectory() {
+		return getDirectory(disk);
+	}
+
+	/**
+	 * @param d a mounted disk
+	 * @return inode index of the current directory of the session on the disk, the root if
+	 * the session never left it
+	 */
+	public int getDirectory(DiskUnit d) {
+		return position(d).dir;
+	}
+
+	/**
+	 * @return path name of the current directory on the current disk, for the user
+	 */
+	public String getDirectoryName() {
+		return getDirectoryName(disk);
+	}
+
+	/**
+	 * @param d a mounted disk
+	 * @return path name of the current directory of the session on the disk, disk:/root/...
+	 */
+	public String getDirectoryName(DiskUnit d) {
+		return position(d).name;
+	}
+
+	/**
+	 * Moves into a directory of the current directory on a disk.
+	 * @param d a mounted disk
+	 * @param dir inode index of the directory
+	 * @param name name of the directory in the current one
+	 */
+	public void enter(DiskUnit d, int dir, String name) {
+		Position p = position(d);
+		positions.put(d, new Position(dir, p.name + "/" + name, p));
+	}
+
+	/**
+	 * Goes back to the directory the current one on a disk was entered from.
+	 * @param d a mounted disk
+	 * @return false if the current directory is the root
+	 */
+	public boolean back(DiskUnit d) {
+		Position p = position(d);
+		if (p.previous == null)
+			return false;
+		positions.put(d, p.previous);
+		return true;
+	}
+
+	/**
+	 * Goes back to the root directory of a disk, forgetting the directories left.
+	 * @param d a mounted disk
+	 */
+	public void toRoot(DiskUnit d) {
+		positions.remove(d);
+	}
+
+	/**
+	 * Drops everything the session keeps about a disk being unmounted.
+	 * @param d the disk
+	 */
+	public void forget(DiskUnit d) {
+		positions.remove(d);
+		if (disk == d)
+			disk = null;
+	}
+
+	/**
+	 * Goes back out of the directories other sessions removed, on every disk, to the
+	 * directory the first removed one was entered from.
+	 */
+	public void dropRemoved() {
+		for (DiskUnit d : positions.keySet()) {
+			Position live = positions.get(d);
+			for (Position p = live; p != null; p = p.previous)
+				if (d.isRemovedDirectory(p.dir))
+					live = p.previous;
+			positions.put(d, live);
+		}
+	}
+
+	private Position position(DiskUnit d) {
+		Position p = positions.get(d);
+		if (p == null) {
+			p = new Position(0, d.getDiskName() + DiskPath.DISK_SEPARATOR + "/root", null);
+			positions.put(d, p);
+		}
+		return p;
+	}
+}
@@ -0,0 +1,236 @@
+package diskUtilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Point-in-time image of a disk, kept as the blocks the live disk changed since the image
+ * was taken. Creating a snapshot only records which blocks were in use at that moment;
+ * the first time one of them is about to be overwritten, its old content is appended to
+ * the snapshot store (see CopyOnWriteBlockDevice). Every other block of the image is still
+ * the one on the live disk, so a snapshot takes room only for the blocks modified after it.
+ * The store is the file DiskUnits/disk@snapshot: a header with the magic number, block
+ * size, capacity and number of preserved blocks, followed by one record per preserved
+ * block made of its block number and its content.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class Snapshot {
+
+	public static final char SEPARATOR = '@';     // between disk and snapshot names
+	private static final int MAGIC = 0x5644534E;  // "VDSN"
+	private static final int HEADER = 16;         // magic, block size, capacity, count
+
+	private String diskName;
+	private String name;
+	private BlockDevice store;
+	private int blockSize;
+	private int capacity;
+	private int count;                            // preserved blocks
+	// block number -> index of the record holding its content at snapshot time
+	private HashMap<Integer, Integer> preserved = new HashMap<Integer, Integer>();
+	private byte[] inUse;                         // free space map at snapshot time
+
+	private Snapshot(String diskName, String name) {
+		this.diskName = diskName;
+		this.name = name;
+	}
+
+	/**
+	 * @param diskName name of a disk
+	 * @param name name of a snapshot of the disk
+	 * @return path of the file storing the snapshot
+	 */
+	public static String path(String diskName, String name) {
+		return "DiskUnits/" + diskName + SEPARATOR + name;
+	}
+
+	/**
+	 * @param name a name
+	 * @return true if the name can be used for a snapshot
+	 */
+	public static boolean isValidName(String name) {
+		return name.length() > 0 && name.indexOf(SEPARATOR) == -1 &&
+				name.indexOf('/') == -1 && name.indexOf(File.separatorChar) == -1;
+	}
+
+	/**
+	 * Creates an empty snapshot store. Nothing is copied: the live disk must be synced
+	 * before, and its blocks are preserved as they are overwritten from then on.
+	 * @param diskName name of the disk
+	 * @param name name of the new snapshot
+	 * @param blockSize size of the blocks of the disk
+	 * @param capacity number of blocks of the disk
+	 * @param inUse free space map of the disk at snapshot time, as stored on disk
+	 * @return the new snapshot
+	 * @throws IOException
+	 */
+	public static Snapshot create(String diskName, String name, int blockSize, int capacity,
+			byte[] inUse) throws IOException {
+		Snapshot s = new Snapshot(diskName, name);
+		s.blockSize = blockSize;
+		s.capacity = capacity;
+		s.inUse = inUse;
+		s.store = new RandomAccessBlockDevice(path(diskName, name));
+		s.store.setLength(HEADER);
+		s.store.writeInt(0, MAGIC);
+		s.store.writeInt(4, blockSize);
+		s.store.writeInt(8, capacity);
+		s.store.writeInt(12, 0);
+		s.store.force();
+		return s;
+	}
+
+	/**
+	 * Opens an existing snapshot store and reads which blocks were in use at snapshot
+	 * time from the free space map of the image itself.
+	 * @param diskName name of the disk
+	 * @param name name of the snapshot
+	 * @param live device of the live disk
+	 * @return the snapshot, or null if the file is not a snapshot store
+	 * @throws IOException
+	 */
+	public static Snapshot open(String diskName, String name, BlockDevice live) throws IOException {
+		Snapshot s = new Snapshot(diskName, name);
+		s.store = new RandomAccessBlockDevice(path(diskName, name));
+		if (s.store.length() < HEADER || s.store.readInt(0) != MAGIC) {
+			s.store.close();
+			return null;
+		}
+		s.blockSize = s.store.readInt(4);
+		s.capacity = s.store.readInt(8);
+		s.count = s.store.readInt(12);
+		for (int i = 0; i < s.count; i++) {
+			int bn = s.store.readInt(s.recordPosition(i));
+			if (!s.preserved.containsKey(bn))
+				s.preserved.put(bn, i);
+		}
+
+		BlockDevice view = new SnapshotBlockDevice(s, live);
+		int layout = view.readInt(24);
+		s.inUse = new byte[(s.capacity + 7) / 8];
+		if (layout > 0 && layout < s.capacity &&
+				view.readInt((long) layout*s.blockSize) == DiskUnit.LAYOUT_MAGIC) {
+			int mapStart = view.readInt((long) layout*s.blockSize + 4);
+			view.read((long) mapStart*s.blockSize, s.inUse, 0, s.inUse.length);
+		}
+		else
+			Arrays.fill(s.inUse, (byte) 0xff);   // no map: keep every block
+		return s;
+	}
+
+	/**
+	 * @param diskName name of a disk
+	 * @return names of the snapshot stores of the disk found in the DiskUnits folder
+	 */
+	public static ArrayList<String> list(String diskName) {
+		ArrayList<String> names = new ArrayList<String>();
+		String[] files = new File("DiskUnits").list();
+		if (files == null)
+			return names;
+		Arrays.sort(files);
+		String prefix = diskName + SEPARATOR;
+		for (String f : files)
+			if (f.startsWith(prefix) && f.length() > prefix.length())
+				names.add(f.substring(prefix.length()));
+		return names;
+	}
+
+	private long recordPosition(int i) {
+		return HEADER + (long) i * (4 + blockSize);
+	}
+
+	/**
+	 * @return name of the snapshot
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return name of the disk the snapshot was taken from
+	 */
+	public String getDiskName() {
+		return diskName;
+	}
+
+	/**
+	 * @return number of blocks copied into the snapshot store
+	 */
+	public int getPreservedCount() {
+		return count;
+	}
+
+	/**
+	 * @return size of a block of the disk
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Copies the content a block is about to lose into the store, unless the block was
+	 * free at snapshot time or its old content is already there.
+	 * @param bn block number about to be written
+	 * @param live device of the live disk, still holding the old content
+	 * @param buffer array of at least one block used to move the content
+	 * @throws IOException
+	 */
+	public void preserve(int bn, BlockDevice live, byte[] buffer) throws IOException {
+		if (bn < 0 || bn >= capacity || (inUse[bn >>> 3] & (1 << (bn & 7))) == 0 ||
+				preserved.containsKey(bn))
+			return;
+		live.read((long) bn*blockSize, buffer, 0, blockSize);
+		long pos = recordPosition(count);
+		store.writeInt(pos, bn);
+		store.write(pos + 4, buffer, 0, blockSize);
+		preserved.put(bn, count++);
+		store.writeInt(12, count);
+	}
+
+	/**
+	 * Reads the content a block had at snapshot time if the live disk changed it since.
+	 * @param bn block number
+	 * @param dst array where the content is copied
+	 * @param offset first index of dst to fill
+	 * @return true if the block was preserved and copied into dst, false if the live disk
+	 * still holds the content of the block
+	 * @throws IOException
+	 */
+	public boolean read(int bn, byte[] dst, int offset) throws IOException {
+		Integer i = preserved.get(bn);
+		if (i == null)
+			return false;
+		store.read(recordPosition(i) + 4, dst, offset, blockSize);
+		return true;
+	}
+
+	/**
+	 * Forces the preserved blocks to the store file.
+	 * @throws IOException
+	 */
+	public void force() throws IOException {
+		store.force();
+	}
+
+	/**
+	 * Closes the store file.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		store.close();
+	}
+
+	/**
+	 * Closes and deletes the store file.
+	 * @return true if the file was deleted
+	 * @throws IOException
+	 */
+	public boolean delete() throws IOException {
+		store.close();
+		return new File(path(diskName, name)).delete();
+	}
+}
@@ -0,0 +1,85 @@
+package diskUtilities;
+
+import java.io.IOException;
+
+/**
+ * Read-only device showing a disk as it was when a snapshot was taken: a block the live
+ * disk changed since then is read from the snapshot store, any other block from the live
+ * device. Writes are rejected. Closing the view leaves the live device open.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class SnapshotBlockDevice implements BlockDevice {
+
+	private Snapshot snapshot;
+	private BlockDevice live;
+	private int blockSize;
+	private byte[] buffer;
+
+	/**
+	 * @param snapshot snapshot shown by the device
+	 * @param live device of the live disk
+	 */
+	public SnapshotBlockDevice(Snapshot snapshot, BlockDevice live) {
+		this.snapshot = snapshot;
+		this.live = live;
+		this.blockSize = snapshot.getBlockSize();
+		this.buffer = new byte[blockSize];
+	}
+
+	/**
+	 * Reads block by block, taking each one from the snapshot store when it was preserved.
+	 */
+	public void read(long position, byte[] dst, int offset, int length) throws IOException {
+		while (length > 0) {
+			int bn = (int) (position / blockSize);
+			int inBlock = (int) (position % blockSize);
+			int n = Math.min(length, blockSize - inBlock);
+			if (snapshot.read(bn, buffer, 0))
+				System.arraycopy(buffer, inBlock, dst, offset, n);
+			else
+				live.read(position, dst, offset, n);
+			position += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	public byte readByte(long position) throws IOException {
+		byte[] b = new byte[1];
+		read(position, b, 0, 1);
+		return b[0];
+	}
+
+	public int readInt(long position) throws IOException {
+		byte[] b = new byte[4];
+		read(position, b, 0, 4);
+		return ((b[0] & 0xff) << 24) | ((b[1] & 0xff) << 16) | ((b[2] & 0xff) << 8) | (b[3] & 0xff);
+	}
+
+	public void write(long position, byte[] src, int offset, int length) throws IOException {
+		throw new IOException("Snapshot is read-only");
+	}
+
+	public void writeByte(long position, int value) throws IOException {
+		throw new IOException("Snapshot is read-only");
+	}
+
+	public void writeInt(long position, int value) throws IOException {
+		throw new IOException("Snapshot is read-only");
+	}
+
+	public long length() throws IOException {
+		return live.length();
+	}
+
+	public void setLength(long length) throws IOException {
+		throw new IOException("Snapshot is read-only");
+	}
+
+	public void force() {
+	}
+
+	public void close() {
+	}
+}
@@ -5,6 +5,9 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 
 /**
@@ -18,19 +21,13 @@ public class TextEditor {
 	}
 	
 	/**
-	 * Converts a file to string
+	 * Opens a file of the Files folder to be read as raw bytes
 	 * @param name name of file
-	 * @return returns an string of the specified file
-	 * @throws IOException
+	 * @return channel reading the file from its first byte
+	 * @throws IOException if the file does not exist or cannot be read
 	 */
-	public static String fileToSTring(String name) throws IOException{
-		BufferedReader text = new BufferedReader(new FileReader("Files/"+name));
-		String file = "", line;
-		while ((line = text.readLine()) != null) {
-			file += line;
-		}
-		text.close();
-		return file;
+	public static FileChannel openChannel(String name) throws IOException{
+		return FileChannel.open(Paths.get("Files", name), StandardOpenOption.READ);
 	}
 	/**
 	 * Writes strings to a text file, used to maintain the list of disks available
@@ -39,11 +39,7 @@ public class Utils {
 	 * @param value index of next free block
 	 */
 	public static void copyNextBNToBlock(VirtualDiskBlock vdb, int value) { 
-		int lastPos = vdb.getCapacity()-1;
-		for (int index = 0; index < 4; index++) { 
-			vdb.setElement(lastPos - index, (byte) (value & 0x000000ff)); 	
-			value = value >> 8; 
-		}
+		vdb.putInt(vdb.getCapacity() - INTSIZE, value);
 	}
 	
 	/**
@@ -52,11 +48,7 @@ public class Utils {
 	 * @param value index of the inode to write
 	 */
 	public static void copyNodeToBlock(VirtualDiskBlock vdb, int value) { 
-		int lastPos = vdb.getCapacity()-1;
-		for (int index = 0; index < 4; index++) { 
-			vdb.setElement(lastPos - index-4, (byte) (value & 0x000000ff)); 	
-			value = value >> 8; 
-		}
+		vdb.putInt(vdb.getCapacity() - 2*INTSIZE, value);
 	}
 	
 	/**
@@ -66,14 +58,7 @@ public class Utils {
 	 * @return number read
 	 */
 	public static int getIntFromBlock(VirtualDiskBlock vdb, int index) {  
-		int value = 0; 
-		int lSB; 
-		for (int i=0; i < INTSIZE; i++) { 
-			value = value << 8; 
-			lSB = 0x000000ff & vdb.getElement(index + i);
-			value = value | lSB; 
-		}
-		return value; 
+		return vdb.getInt(index);
 	}
 	
 	/**
@@ -113,10 +98,7 @@ public class Utils {
 	 * @param value number to be written
 	 */
 	public static void copyIntToBlock(VirtualDiskBlock vdb, int index, int value) { 
-		for (int i = INTSIZE-1; i >= 0; i--) { 
-			vdb.setElement(index+i, (byte) (value & 0x000000ff)); 	
-			value = value >> 8; 
-		}
+		vdb.putInt(index, value);
 	}
 	
 	/**
@@ -190,16 +172,7 @@ public class Utils {
 	 * @return next block number
 	 */
 	public static int getNextBNFromBlock(VirtualDiskBlock vdb) { 
-		int bsize = vdb.getCapacity(); 
-		int value = 0; 
-		int lSB; 
-		for (int index = 3; index >= 0; index--) { 
-			value = value << 8; 
-			lSB = 0x000000ff & vdb.getElement(bsize-1-index);
-			value = value | lSB; 
-		}
-		return value; 
-
+		return vdb.getInt(vdb.getCapacity() - INTSIZE);
 	}
 	
 
@@ -210,12 +183,7 @@ public class Utils {
 	 * @param value number to be written
 	 */
 	public static void copyIntToBlocks(VirtualDiskBlock vdb, int index, int value) { 
-
-		for (int i = INTSIZE-1; i >= 0; i--) { 
-			vdb.setElement(index+i, (byte) (value & 0x000000ff)); 	
-			value = value >> 8;
-		}
-		
+		vdb.putInt(index, value);
 	}
 	
 	/**
@@ -225,18 +193,34 @@ public class Utils {
 	 * @return next block number
 	 */
 	public static int getNextBNFromBlock2(VirtualDiskBlock vdb, int counter) { 
-		int bsize = vdb.getCapacity(); 
-		int value = 0; 
-		int lSB; 
-		for (int index = 0; index < 4; index++) {
-			value = value << 8; 
-			lSB = 0x000000ff & vdb.getElement(counter+index);
-			value = value | lSB;
-		}
-		return value; 
-
+		return vdb.getInt(counter);
 	}
 	
 	
 
+	/**
+	 * Converts the characters of a string to the bytes stored on disk, one byte per character
+	 * @param s string to convert
+	 * @return bytes of the string
+	 */
+	public static byte[] stringToBytes(String s) {
+		byte[] bytes = new byte[s.length()];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) s.charAt(i);
+		return bytes;
+	}
+	
+	/**
+	 * Converts bytes read from disk to a string, one character per byte
+	 * @param bytes bytes to convert
+	 * @param length number of bytes to convert
+	 * @return string made of the bytes
+	 */
+	public static String bytesToString(byte[] bytes, int length) {
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++)
+			sb.append((char) bytes[i]);
+		return sb.toString();
+	}
+
 }
@@ -1,20 +1,25 @@
 package diskUtilities;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
- * Object from this class creates a virtual disk block
+ * Object from this class creates a virtual disk block. Its bytes can be read and
+ * changed one at a time or, through the typed accessors, as big-endian integers and
+ * byte ranges at any offset, the way the disk structures store them.
  * @author Israel J.Lopez Toledo
  *
  */
 public class VirtualDiskBlock {
-	static int size; //number of bytes per block
+	private final int size; //number of bytes per block
 	byte [] block;   
+	private final ByteBuffer view;   // typed view of block
 	
 	 /**
 	  * creates a block of size equal to 256 bytes.
 	 */
 	public VirtualDiskBlock(){
-		size = 256;
-		block = new byte[size]; 
+		this(256);
 	}
 
 	 /**
@@ -24,6 +29,7 @@ public class VirtualDiskBlock {
 	public VirtualDiskBlock(int blockCapacity){
 		size=blockCapacity;
 		block = new byte[size];
+		view = ByteBuffer.wrap(block);
 	}
 	
 	 /**
@@ -52,4 +58,67 @@ public class VirtualDiskBlock {
 	public byte getElement(int index){
 		return block[index];
 	}
+
+	 /**
+	  * @param offset position of the first byte of the integer
+	  * @return the integer stored at offset
+	 */
+	public int getInt(int offset){
+		return view.getInt(offset);
+	}
+
+	 /**
+	  * Stores an integer in the four bytes starting at offset
+	  * @param offset position of the first byte of the integer
+	  * @param value integer to store
+	 */
+	public void putInt(int offset, int value){
+		view.putInt(offset, value);
+	}
+
+	 /**
+	  * @param offset position of the first byte of the long
+	  * @return the long stored at offset
+	 */
+	public long getLong(int offset){
+		return view.getLong(offset);
+	}
+
+	 /**
+	  * Stores a long in the eight bytes starting at offset
+	  * @param offset position of the first byte of the long
+	  * @param value long to store
+	 */
+	public void putLong(int offset, long value){
+		view.putLong(offset, value);
+	}
+
+	 /**
+	  * Copies length bytes of the block, starting at offset, into dst
+	  * @param offset first byte of the block to copy
+	  * @param dst destination array
+	  * @param dstOffset first index of dst to fill
+	  * @param length number of bytes to copy
+	 */
+	public void getBytes(int offset, byte[] dst, int dstOffset, int length){
+		System.arraycopy(block, offset, dst, dstOffset, length);
+	}
+
+	 /**
+	  * Copies length bytes of src into the block, starting at offset
+	  * @param offset first byte of the block to change
+	  * @param src source array
+	  * @param srcOffset first index of src to copy
+	  * @param length number of bytes to copy
+	 */
+	public void putBytes(int offset, byte[] src, int srcOffset, int length){
+		System.arraycopy(src, srcOffset, block, offset, length);
+	}
+
+	 /**
+	  * Fills the block with zeroes
+	 */
+	public void clear(){
+		Arrays.fill(block, (byte) 0);
+	}
 }
@@ -0,0 +1,103 @@
+package diskUtilities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Sequential reader of a file stored in a disk, usable both as an InputStream and as a
+ * ReadableByteChannel. Blocks are read as the position reaches them through the file's
+ * FileMap, which finds them lazily and reuses a single block buffer, so reading a file
+ * of any size takes memory proportional to the block size only.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class VirtualFileInputStream extends InputStream implements ReadableByteChannel {
+
+	private FileMap map;
+	private long position;        // offset of the next byte to read
+	private byte[] transfer;      // used for buffers without an accessible array
+	private boolean open = true;
+
+	/**
+	 * @param d disk holding the file
+	 * @param inode inode index of the file
+	 */
+	public VirtualFileInputStream(DiskUnit d, int inode) {
+		this(FileMap.open(d, inode));
+	}
+
+	/**
+	 * @param map map of the file to read
+	 */
+	public VirtualFileInputStream(FileMap map) {
+		this.map = map;
+	}
+
+	/**
+	 * @return number of bytes in the file
+	 */
+	public long getSize() {
+		return map.getSize();
+	}
+
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		if (len == 0)
+			return 0;
+		int n = map.readAt(position, b, off, len);
+		if (n > 0)
+			position += n;
+		return n;
+	}
+
+	public int read(ByteBuffer dst) throws IOException {
+		ensureOpen();
+		if (!dst.hasRemaining())
+			return 0;
+		if (dst.hasArray()) {
+			int n = read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+			if (n > 0)
+				dst.position(dst.position() + n);
+			return n;
+		}
+		if (transfer == null)
+			transfer = new byte[map.blockSize];
+		int n = read(transfer, 0, Math.min(transfer.length, dst.remaining()));
+		if (n > 0)
+			dst.put(transfer, 0, n);
+		return n;
+	}
+
+	public long skip(long n) throws IOException {
+		ensureOpen();
+		long skipped = Math.max(0, Math.min(n, map.getSize() - position));
+		position += skipped;
+		return skipped;
+	}
+
+	public int available() throws IOException {
+		ensureOpen();
+		return (int) Math.min(Integer.MAX_VALUE, map.getSize() - position);
+	}
+
+	public boolean isOpen() {
+		return open;
+	}
+
+	public void close() {
+		open = false;
+	}
+
+	private void ensureOpen() throws IOException {
+		if (!open)
+			throw new ClosedChannelException();
+	}
+}
@@ -41,8 +41,11 @@ public class OperandValidatorUtils {
 		if (op.equals("bsize")|| op.equals("nblocks"))
 			return IntOperandAnalyzer.getInstance(); 
 		else if (op.equals("disk_name")||op.equals("disk_name")||
-				op.equals("file_name")||op.equals("ext_file_name")||op.equals("file_name_1")||op.equals("file_name_2"))
+				op.equals("file_name")||op.equals("ext_file_name")||op.equals("file_name_1")||op.equals("file_name_2")||
+				op.equals("name"))
 			return NameOperandAnalyzer.getInstance(); 
+		else if (op.equals("opt_name"))
+			return OptionalNameOperandAnalyzer.getInstance(); 
 		
 		// need to expand the above if to include for other analyzers that
 		// are required...
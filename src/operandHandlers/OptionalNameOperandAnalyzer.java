@@ -0,0 +1,46 @@
+package operandHandlers;
+
+import java.util.ArrayList;
+
+import systemGeneralClasses.OperandAnalyzer;
+import systemGeneralClasses.StringCharactersExtractor;
+/**
+ * Analyzer of a name operand that may be left out. When the input has no more
+ * content the operand is accepted as an empty list of items, otherwise the next
+ * token must be a valid name.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class OptionalNameOperandAnalyzer implements OperandAnalyzer {
+
+	private static final OptionalNameOperandAnalyzer OPTNAMEOPANALIZER = new OptionalNameOperandAnalyzer(); 
+	
+	private StringCharactersExtractor sce; 
+	
+	private OptionalNameOperandAnalyzer() { 
+		
+	}
+	
+	public static OptionalNameOperandAnalyzer getInstance() { 
+		return OPTNAMEOPANALIZER; 
+	}
+	
+	public ArrayList<String> disectOperandFromInput(String is, int cp) {
+		sce = new StringCharactersExtractor(is, cp); 
+		ArrayList<String> opName = new ArrayList<String>(); 
+		if (!sce.hasMoreContent())
+			return opName;     // the operand was left out
+		
+		sce.skipSpaces(); 
+		String operand = sce.extractStringUpToWhiteSpaceChar(); 
+		if (!OperandValidatorUtils.isValidName(operand))
+			return null; 
+		opName.add(operand); 
+		return opName; 
+	}
+
+	public int currentIndexInInput() { 
+		return sce.currentIndexValue(); 
+	}
+
+}
@@ -31,6 +31,9 @@ public class SimpleOperandHandler {
 				tType.equals("file_name_1")||tType.equals("file_name_2")||
 				tType.equals("dir_name")||tType.equals("name")) 
 			return isValidName(token); 
+		else if (tType.equals("file_path")||tType.equals("file_path_1")||
+				tType.equals("file_path_2")||tType.equals("dir_path"))
+			return isValidPath(token); 
 		else if (tType.equals("bsize")|| tType.equals("nblocks"))
 			return isValidInt(token); 
 		else if (tType.equals("return"))
@@ -77,6 +80,32 @@ public class SimpleOperandHandler {
 
 	}
 
+	/**
+	 * A path is disk:/name/.../name, where the disk part, the leading slash and the 
+	 * names before the last one may be left out, or just disk: or disk:/. The disk 
+	 * may be a snapshot, disk@snapshot.
+	 */
+	private static boolean isValidPath(String operand) { 
+		String path = operand;
+		int colon = operand.indexOf(':');
+		if (colon != -1) { 
+			String disk = operand.substring(0, colon);
+			int at = disk.indexOf('@');
+			if (at == -1 ? !isValidName(disk) : 
+					!isValidName(disk.substring(0, at)) || !isValidName(disk.substring(at+1)))
+				return false;
+			path = operand.substring(colon+1);
+		}
+		if (path.startsWith("/"))
+			path = path.substring(1);
+		if (path.length() == 0)
+			return colon != -1 || operand.equals("/");
+		for (String name : path.split("/", -1))
+			if (!isValidName(name))
+				return false;
+		return true;
+	}
+
 	private static boolean isValidInt(String operand) { 
 		try { 
 			Integer.parseInt(operand); 
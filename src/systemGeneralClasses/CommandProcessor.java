@@ -1,7 +1,9 @@
 package systemGeneralClasses;
 
 
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import stack.IntStack;
 
@@ -30,6 +32,10 @@ public abstract class CommandProcessor {
 	// system. 
 	// 
 	
+	private ArrayList<HashMap<String, SystemCommand>> commandIndex; 
+	// The same commands by name, one table for each state, so
+	// finding the command of a line does not go through the list. 
+	
 	protected IntStack currentState; 
 	// In some ocasions it may be required to know the previous
 	// state ... just in case....
@@ -37,6 +43,9 @@ public abstract class CommandProcessor {
 	// Every command processor has at least one general state....
 	protected static final int GENERALSTATE = 0; 
 	
+	protected PrintStream out = System.out; 
+	// where commands showing their output directly write it
+	
 	/**
 	 * This method does some preliminary processing of the attempted 
 	 * command being read from user.Determines if a CommandLine object 
@@ -69,18 +78,26 @@ public abstract class CommandProcessor {
 	 * @return
 	 */
 	private SystemCommand searchCommand(String cname) {  
-		for (int i=0; i<commandList[currentState.top()].size(); i++)
-			if (commandList[currentState.top()].get(i).getName().equals(cname))
-				return commandList[currentState.top()].get(i); 
-		
-		return null; 
+		return commandIndex.get(currentState.top()).get(cname); 
 	}
 
 	
+	/**
+	 * Sets where the commands that show their output directly write it, 
+	 * the console by default. 
+	 * @param out the output stream
+	 */
+	public void setOutput(PrintStream out) { 
+		this.out = out; 
+	}
+	
 	protected void createCommandList(int nStates) { 
 		commandList = (ArrayList<SystemCommand>[]) new ArrayList[nStates]; 
-		for (int p=0; p<commandList.length; p++)
+		commandIndex = new ArrayList<HashMap<String, SystemCommand>>(nStates); 
+		for (int p=0; p<commandList.length; p++) { 
 			commandList[p] = new ArrayList<SystemCommand>(); 
+			commandIndex.add(new HashMap<String, SystemCommand>()); 
+		}
 	}
 	
 	protected void setCurrentState(int sc) { 
@@ -89,17 +106,13 @@ public abstract class CommandProcessor {
 	
 	protected void add(int state, SystemCommand sc) { 
 		commandList[state].add(sc); 
+		if (!commandIndex.get(state).containsKey(sc.getName()))   // the first one added is found
+			commandIndex.get(state).put(sc.getName(), sc); 
 	}
 	
 	protected SystemCommand getCommand(String cName) { 
-		
-		int nCommands = commandList[currentState.top()].size(); 
-		for (int i=0; i<nCommands; i++) { 
-			if (cName.equals(commandList[currentState.top()].get(i).getName())) 
-				return commandList[currentState.top()].get(i); 
-		}
-		// cName does not represent a valid command...
-		return null; 
+		// null if cName does not represent a valid command...
+		return commandIndex.get(currentState.top()).get(cName); 
 	}
 	
 	
@@ -129,10 +142,10 @@ public abstract class CommandProcessor {
 	protected class HelpProcessor implements CommandActionHandler { 
 		public HelpProcessor() {}
 		public ArrayList<String> execute(Command c) { 
-			System.out.println("Current state is " + currentState.top()); 
-			System.out.println("Available commands are: ");
+			out.println("Current state is " + currentState.top()); 
+			out.println("Available commands are: ");
 			for (int i=0; i<commandList[currentState.top()].size(); i++)
-				System.out.println("\t"+ commandList[currentState.top()].get(i)); 
+				out.println("\t"+ commandList[currentState.top()].get(i)); 
 				
 			return null; 
 		} 
@@ -1,5 +1,8 @@
 package systemGeneralClasses;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.util.ArrayList;
 
 import theSystem.IOCommandsProcessor;
@@ -15,20 +18,36 @@ import theSystem.SystemCommandsProcessor;
 public class SystemController {
 	private static final int PROCMODE = 0; 
 	private static final int OUTPUTMODE = 1; 
+	private static final int SCRIPT_COMMIT_EVERY = Integer.getInteger("script.commitEvery", 256); 
 	private SystemCommandsProcessor sys; 
 	private IOCommandsProcessor io; 
 	private CommandProcessor actualProcessor; 
 	private ArrayList<String> outputList; 
 	private int currentMode;
+	private PrintStream out; 
 	
 	public SystemController() { 
-	     sys = new SystemCommandsProcessor(); 
-	     io = new IOCommandsProcessor(); 
+	     this(new SystemCommandsProcessor(), new IOCommandsProcessor(), System.out); 
+	} 
+	
+	/**
+	 * Controller of a session other than the console's, reading and writing
+	 * through the given processors. 
+	 * @param sys processor of the system commands
+	 * @param io processor reading the commands and showing their output
+	 * @param out where the output of the system commands and the errors go
+	 */
+	public SystemController(SystemCommandsProcessor sys, IOCommandsProcessor io, PrintStream out) { 
+	     this.sys = sys; 
+	     this.io = io; 
+	     this.out = out; 
+	     sys.setOutput(out); 
 	     currentMode = PROCMODE; 
 	} 
 	
 	/**
-	 * starts execution of system's controller object.
+	 * starts execution of system's controller object, until the exit 
+	 * command or the end of the input.
 	 */
 	public void start() { 
 		CommandLine cLine; 
@@ -36,6 +55,8 @@ public class SystemController {
 		{
 			// read next command line
 			cLine = io.readCommandLine();  
+			if (cLine == null) 
+				break; 
 
 			// process the attempted command -- the content of cLine...
 			processCommand(cLine); 
@@ -44,6 +65,47 @@ public class SystemController {
 		
 	}    // end start
 
+	/**
+	 * Runs the commands of a script, one per line, showing all the output of 
+	 * each at once instead of paging it. Empty lines and lines starting with # 
+	 * are skipped. The commands of the script share journal transactions, and
+	 * the disks are unmounted at the end unless the script already exited. 
+	 * @param script the commands
+	 * @return number of commands run
+	 * @throws IOException if the script cannot be read
+	 */
+	public int runScript(BufferedReader script) throws IOException { 
+		sys.setCommitEvery(SCRIPT_COMMIT_EVERY); 
+		int count = 0; 
+		String line; 
+		while (!sys.inShutdownMode() && (line = script.readLine()) != null) { 
+			CommandLine cLine = new CommandLine(line); 
+			if (cLine.getNumberOfTokens() == 0 || cLine.getToken(1).startsWith("#")) 
+				continue; 
+			runLine(cLine); 
+			count++; 
+		}
+		if (!sys.inShutdownMode()) 
+			runLine(new CommandLine("exit")); 
+		out.flush(); 
+		return count; 
+	}
+	
+	private void runLine(CommandLine cLine) { 
+		ErrMsg errMsg = new ErrMsg(); 
+		sys.preProcessCommand(cLine, errMsg); 
+		out.print("COMMAND: "); 
+		if (cLine.getSc() == null) { 
+			out.println(!errMsg.isEmpty() ? errMsg.getMessage() : 
+				"Invalid command for the current system mode. "); 
+			return; 
+		}
+		ArrayList<String> results = sys.executeCommand(cLine.getSc(), makeCommand(cLine)); 
+		if (results != null) 
+			for (String result : results) 
+				out.println(result); 
+	}
+
 	/**
 	 * Initi
 	 * @param cLine
@@ -82,10 +144,10 @@ public class SystemController {
 			// the output here is direct since it is due to invalid commands
 			outputList = null;
 			if (!errMsg.isEmpty()) { 
-				System.out.println(errMsg.getMessage());
+				out.println(errMsg.getMessage());
 			}
 			else 
-				System.out.println("Invalid command for the current system mode. "); 
+				out.println("Invalid command for the current system mode. "); 
 		} 
 		
 	}
@@ -0,0 +1,131 @@
+package tester;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+import diskUtilities.BlockDevice;
+import diskUtilities.IOScheduler;
+
+/**
+ * Queues scattered block reads and writes on an IOScheduler over a device kept in memory
+ * that records every transfer, and checks they reach it sorted by block and merged into
+ * runs of consecutive blocks, with every future completed.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class IOSchedulerTester {
+
+	private static final int BLOCK_SIZE = 16;
+
+	/**
+	 * Device held in an array, recording the first block and the number of blocks of
+	 * each read and write.
+	 */
+	private static class RecordingDevice implements BlockDevice {
+		byte[] bytes = new byte[64 * BLOCK_SIZE];
+		ArrayList<int[]> reads = new ArrayList<int[]>();
+		ArrayList<int[]> writes = new ArrayList<int[]>();
+
+		public void read(long position, byte[] dst, int offset, int length) {
+			reads.add(new int[] {(int) position / BLOCK_SIZE, length / BLOCK_SIZE});
+			System.arraycopy(bytes, (int) position, dst, offset, length);
+		}
+
+		public void write(long position, byte[] src, int offset, int length) {
+			writes.add(new int[] {(int) position / BLOCK_SIZE, length / BLOCK_SIZE});
+			System.arraycopy(src, offset, bytes, (int) position, length);
+		}
+
+		public byte readByte(long position) {
+			return bytes[(int) position];
+		}
+
+		public void writeByte(long position, int value) {
+			bytes[(int) position] = (byte) value;
+		}
+
+		public int readInt(long position) throws IOException {
+			throw new IOException("not used by the scheduler");
+		}
+
+		public void writeInt(long position, int value) throws IOException {
+			throw new IOException("not used by the scheduler");
+		}
+
+		public long length() {
+			return bytes.length;
+		}
+
+		public void setLength(long length) {
+		}
+
+		public void force() {
+		}
+
+		public void close() {
+		}
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		RecordingDevice device = new RecordingDevice();
+		IOScheduler scheduler = new IOScheduler(device, BLOCK_SIZE);
+
+		// writes of 9, 3, 4, 20, 5, 10 and 3 again: runs 3-5, 9-10 and 20, the second
+		// write of block 3 kept
+		int[] order = {9, 3, 4, 20, 5, 10, 3};
+		ArrayList<CompletableFuture<byte[]>> done = new ArrayList<CompletableFuture<byte[]>>();
+		for (int i = 0; i < order.length; i++)
+			done.add(scheduler.write(order[i], block(order[i] * 10 + i)));
+		scheduler.dispatch();
+		checkRuns(device.writes, new int[][] {{3, 3}, {9, 2}, {20, 1}}, "writes");
+		for (CompletableFuture<byte[]> f : done)
+			check(f.isDone() && !f.isCompletedExceptionally(), "every write completed");
+		check(device.bytes[3 * BLOCK_SIZE] == (byte) 36, "last write of block 3 kept");
+		check(device.bytes[20 * BLOCK_SIZE] == (byte) 203, "block 20 written");
+
+		// reads of 10, 4, 21, 3 and 4 again: runs 3-4, 10 and 21, both reads of 4 served
+		int[] blocks = {10, 4, 21, 3, 4};
+		done.clear();
+		for (int bn : blocks)
+			done.add(scheduler.read(bn));
+		scheduler.dispatch();
+		checkRuns(device.reads, new int[][] {{3, 2}, {10, 1}, {21, 1}}, "reads");
+		for (int i = 0; i < blocks.length; i++) {
+			CompletableFuture<byte[]> f = done.get(i);
+			check(f.isDone() && !f.isCompletedExceptionally(), "every read completed");
+			byte[] data = f.join();
+			check(data.length == BLOCK_SIZE, "read returns one block");
+			for (int k = 0; k < BLOCK_SIZE; k++)
+				check(data[k] == device.bytes[blocks[i] * BLOCK_SIZE + k], "read of block " + blocks[i]);
+		}
+
+		check(scheduler.getRequests() == 12, "12 requests counted");
+		check(scheduler.getTransfers() == 6, "6 transfers counted");
+		System.out.println("IOScheduler: " + scheduler.getRequests() + " requests in "
+				+ scheduler.getTransfers() + " transfers, all checks passed");
+	}
+
+	private static byte[] block(int value) {
+		byte[] b = new byte[BLOCK_SIZE];
+		for (int i = 0; i < b.length; i++)
+			b[i] = (byte) value;
+		return b;
+	}
+
+	private static void checkRuns(ArrayList<int[]> got, int[][] expected, String what) {
+		check(got.size() == expected.length, what + ": " + expected.length + " transfers");
+		for (int i = 0; i < expected.length; i++)
+			check(got.get(i)[0] == expected[i][0] && got.get(i)[1] == expected[i][1],
+					what + ": transfer " + i + " is blocks " + expected[i][0] + " to "
+					+ (expected[i][0] + expected[i][1] - 1));
+	}
+
+	private static void check(boolean ok, String what) {
+		if (!ok)
+			throw new IllegalStateException("Failed: " + what);
+	}
+}
@@ -0,0 +1,71 @@
+package theSystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Plain client of a CommandServer: sends what it reads to the server and shows what the
+ * server answers, so a console or a script can use a shared server like the local shell.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class CommandClient {
+
+	private Socket socket;
+
+	/**
+	 * Connects to a server on the local host.
+	 * @param port port the server listens on
+	 * @throws IOException if there is no server on the port
+	 */
+	public CommandClient(int port) throws IOException {
+		socket = new Socket(InetAddress.getLoopbackAddress(), port);
+	}
+
+	/**
+	 * Sends every byte of the input to the server while its answers are copied to the
+	 * output, until the session ends or the input does.
+	 * @param in commands
+	 * @param out where the answers are shown
+	 * @throws IOException if the connection fails
+	 */
+	public void run(InputStream in, final PrintStream out) throws IOException {
+		final InputStream answers = socket.getInputStream();
+		Thread reader = new Thread() {
+			public void run() {
+				try {
+					copy(answers, out);
+				} catch (IOException e) {
+					// the connection was closed
+				}
+				out.flush();
+			}
+		};
+		reader.start();
+		try {
+			copy(in, socket.getOutputStream());
+			socket.shutdownOutput();   // the session ends at its next prompt
+		} catch (IOException e) {
+			// the server ended the session first
+		}
+		try {
+			reader.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		socket.close();
+	}
+
+	private static void copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = new byte[4096];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+			out.flush();
+		}
+	}
+}
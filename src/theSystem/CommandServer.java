@@ -0,0 +1,123 @@
+package theSystem;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import diskUtilities.MountTable;
+import systemGeneralClasses.SystemController;
+
+/**
+ * Serves the shell to clients connecting to a TCP port of the local host, so several
+ * users and scripts can work on the same disks at once. Every connection runs on its own
+ * thread with its own session: current disk and directories, command processors and
+ * paged output, exactly as on the console. The disks are mounted once, in a table shared
+ * by every session, and stay mounted until the server closes. exit only ends the session
+ * of the client giving it.
+ * @author Israel J.Lopez Toledo
+ *
+ */
+public class CommandServer {
+
+	public static final int DEFAULT_PORT = 7070;
+	private static final int BACKLOG = 1024;   // connections waiting to be accepted
+
+	private MountTable mounts = new MountTable();
+	private ServerSocket socket;
+	private ExecutorService sessions = Executors.newCachedThreadPool();
+	private Set<Socket> clients = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+
+	/**
+	 * Opens the server socket on the loopback address.
+	 * @param port port to listen on, 0 for any free one
+	 * @throws IOException if the port cannot be used
+	 */
+	public CommandServer(int port) throws IOException {
+		socket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+	}
+
+	/**
+	 * @return port the server listens on
+	 */
+	public int getPort() {
+		return socket.getLocalPort();
+	}
+
+	/**
+	 * Accepts connections and starts a session for each, until the server is closed.
+	 */
+	public void run() {
+		while (!socket.isClosed()) {
+			try {
+				final Socket client = socket.accept();
+				clients.add(client);
+				sessions.execute(new Runnable() {
+					public void run() {
+						serve(client);
+					}
+				});
+			} catch (IOException e) {
+				if (!socket.isClosed())
+					e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Runs the shell of one client until it exits or disconnects.
+	 */
+	private void serve(Socket client) {
+		try {
+			PrintStream out = new PrintStream(new BufferedOutputStream(client.getOutputStream()), true);
+			SystemController controller = new SystemController(new SystemCommandsProcessor(mounts),
+					new IOCommandsProcessor(client.getInputStream(), out), out);
+			try {
+				controller.start();
+			} catch (RuntimeException e) {
+				// only this session ends, the others and the disks go on
+				e.printStackTrace();
+				out.println("Session ended by an error: " + e);
+			}
+			out.println("+++++ SESSION CLOSED +++++");
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			clients.remove(client);
+			try {
+				client.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting connections, disconnects the clients once their running commands
+	 * end, and unmounts every disk.
+	 */
+	public void close() {
+		try {
+			socket.close();
+			for (Socket client : clients)
+				client.shutdownInput();   // the session ends at its next prompt
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		sessions.shutdown();
+		try {
+			sessions.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		mounts.unmountAll();
+	}
+}
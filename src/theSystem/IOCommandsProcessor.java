@@ -1,5 +1,7 @@
 package theSystem;
 
+import java.io.InputStream;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Scanner;
 
@@ -27,9 +29,21 @@ public class IOCommandsProcessor extends CommandProcessor {
 	// this field is false whenever there is no output in progress
 	
     // all input needed shall be done through this scanner
-	private Scanner in = new Scanner(System.in); 
+	private Scanner in; 
 	
-	public IOCommandsProcessor() { 		
+	public IOCommandsProcessor() { 
+		this(System.in, System.out); 
+	}
+	
+	/**
+	 * Reads the commands from, and shows the output on, the given streams
+	 * instead of the console. 
+	 * @param input where the commands are read from
+	 * @param output where the prompt and the output go
+	 */
+	public IOCommandsProcessor(InputStream input, PrintStream output) { 		
+		in = new Scanner(input); 
+		out = output; 
 		currentState = new IntStack(); 
 		
 		// the system starts in sate GENERALSTATE - upper class static field
@@ -54,12 +68,16 @@ public class IOCommandsProcessor extends CommandProcessor {
 	/**
 	 * Prompts and reads the next user's command. If needed, the reading is repeated
 	 * until the input has some content. 
-	 * @return The whole line of input as an object of type CommandLine. 
+	 * @return The whole line of input as an object of type CommandLine,
+	 * null once the input has ended. 
 	 */
 	public CommandLine readCommandLine() { 
 		CommandLine cLine; 
 		do { 
-			System.out.print("COMMAND: "); 
+			out.print("COMMAND: "); 
+			out.flush(); 
+			if (!in.hasNextLine())
+				return null; 
 			cLine = new CommandLine( in.nextLine() ); 
 		} while (cLine.getNumberOfTokens() == 0);
 		return cLine; 
@@ -105,14 +123,14 @@ public class IOCommandsProcessor extends CommandProcessor {
 		{ 
 			try { 
 				if (line <= lastLineToShow)
-					System.out.println(resultsList.get(line)); 
+					out.println(resultsList.get(line)); 
 				else { 
-					System.out.println("--END HAS ALREADY BEEN REACHED--"); 
+					out.println("--END HAS ALREADY BEEN REACHED--"); 
 					moreLinesToShow = false; 
 				}
 			}
 			catch (Exception e) { 
-				System.out.println(e); 
+				out.println(e); 
 			}
 		}				
 	}
@@ -132,14 +150,14 @@ public class IOCommandsProcessor extends CommandProcessor {
 		{ 
 			try { 
 				if (line <= lastLineToShow)
-					System.out.println(resultsList.get(line)); 
+					out.println(resultsList.get(line)); 
 				else { 
-					System.out.println("--TOP HAS ALREADY BEEN REACHED--"); 
+					out.println("--TOP HAS ALREADY BEEN REACHED--"); 
 					moreLinesToShow = false; 
 				}
 			}
 			catch (Exception e) { 
-				System.out.println(e); 
+				out.println(e); 
 			}
 		}				
 
@@ -207,7 +225,7 @@ public class IOCommandsProcessor extends CommandProcessor {
 
 	private void showAllOutput() {	
 		for (int line = 0; line < resultsList.size(); line++)
-			System.out.println(resultsList.get(line)); 
+			out.println(resultsList.get(line)); 
 	}
 
 	public boolean hasMoreOutputToProcess() {
@@ -3,8 +3,13 @@
  */
 package theSystem;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintStream;
 
 import systemGeneralClasses.SystemController;
 
@@ -16,16 +21,65 @@ import systemGeneralClasses.SystemController;
 public class MySystem {
 
 	/**
-	 * @param args
+	 * @param args none for the console shell, --server [port] to serve the shell to 
+	 * local clients, --connect [port] to be the client of such a server, --batch 
+	 * script [output] to run a script of commands and write their output to a file
 	 */
 	public static void main(String[] args) throws IOException  {
 		createTextFile();
+		if (args.length > 0 && args[0].equals("--server")) {
+			final CommandServer server = new CommandServer(port(args));
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				public void run() {
+					server.close();   // the disks are unmounted on Ctrl-C as well
+				}
+			});
+			System.out.println("Listening on port " + server.getPort());
+			server.run();
+			return;
+		}
+		if (args.length > 1 && args[0].equals("--batch")) {
+			runBatch(args[1], args.length > 2 ? args[2] : null);
+			return;
+		}
+		if (args.length > 0 && args[0].equals("--connect")) {
+			new CommandClient(port(args)).run(System.in, System.out);
+			return;
+		}
 		SystemController system = new SystemController(); 
 		system.start(); 
 		// the system is shutting down...
 		System.out.println("+++++ SYSTEM SHUTDOWN +++++"); 
 	}
 	
+	/**
+	 * Runs a script of commands without prompts or paging and reports how fast they ran.
+	 * @param script file with one command per line
+	 * @param output file the output of the commands goes to, null for the console
+	 * @throws IOException if the script cannot be read or the output written
+	 */
+	private static void runBatch(String script, String output) throws IOException {
+		PrintStream out = output == null ? System.out :
+			new PrintStream(new BufferedOutputStream(new FileOutputStream(output), 64*1024));
+		SystemController system = new SystemController(new SystemCommandsProcessor(),
+				new IOCommandsProcessor(), out);
+		int count;
+		long start = System.nanoTime();
+		try (BufferedReader in = new BufferedReader(new FileReader(script))) {
+			count = system.runScript(in);
+		} finally {
+			if (out != System.out)
+				out.close();
+		}
+		long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+		System.out.println("Ran " + count + " commands in " + millis + " ms, " +
+				count * 1000L / millis + " commands/sec");
+	}
+	
+	private static int port(String[] args) {
+		return args.length > 1 ? Integer.parseInt(args[1]) : CommandServer.DEFAULT_PORT;
+	}
+	
 	/**
 	 * Creates text file and directory for the list of disks at start of program
 	 * @throws IOException
@@ -2,15 +2,31 @@ package theSystem;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
+import java.util.HashSet;
 
 import diskUtilities.Directory;
+import diskUtilities.DirectoryEntry;
+import diskUtilities.DirectoryFile;
+import diskUtilities.DiskPath;
 import diskUtilities.DiskUnit;
+import diskUtilities.ExtentFileCopier;
+import diskUtilities.ExtentFileMap;
+import diskUtilities.ExtentFileWriter;
+import diskUtilities.FileMap;
 import diskUtilities.Find;
+import diskUtilities.Fsck;
+import diskUtilities.InodeLocks;
+import diskUtilities.MountTable;
+import diskUtilities.Session;
+import diskUtilities.Snapshot;
 import diskUtilities.TextEditor;
 import diskUtilities.Utils;
 import diskUtilities.VirtualDiskBlock;
+import diskUtilities.VirtualFileInputStream;
 import diskUtilities.iNode;
 import diskUtilities.iNodeList;
 import exceptions.EmptyStackException;
@@ -62,15 +78,28 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	
 	private iNodeList list;
 	
-	private int current;
-	
-	private boolean mounted;
-	
 	private TextEditor text = new TextEditor();
 	
+	// reused by every import of a host file, which is read through it a chunk at a time
+	private ByteBuffer importBuffer = ByteBuffer.allocateDirect(64*1024);
+	
 
 	
-	DiskUnit d, D;
+	// every disk mounted, operands name their files as disk:/path
+	private MountTable mounts;
+	
+	// false if the disks are shared with other sessions, which exit leaves mounted
+	private boolean ownsMounts;
+	
+	// current disk, the one names without a disk refer to, and current directory on each disk
+	private Session session = new Session();
+	
+	// disks used by the commands run since the last commit
+	private HashSet<DiskUnit> touched = new HashSet<DiskUnit>();
+	
+	// commands run since the last commit, and how many may share one
+	private int uncommitted;
+	private int commitEvery = 1;
 
 
 	/**
@@ -78,6 +107,21 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	 *  states the system can be in. 
 	 */
 	public SystemCommandsProcessor() {
+		this(new MountTable(), true);
+	}
+	
+	/**
+	 * Processor of one of the sessions working on disks mounted for several of them.
+	 * Its exit command ends the session and leaves the disks mounted.
+	 * @param mounts disks mounted, shared by the sessions
+	 */
+	public SystemCommandsProcessor(MountTable mounts) {
+		this(mounts, false);
+	}
+	
+	private SystemCommandsProcessor(MountTable mounts, boolean ownsMounts) {
+		this.mounts = mounts;
+		this.ownsMounts = ownsMounts;
 		
 		// stack of states
 		currentState = new IntStack(); 
@@ -105,21 +149,25 @@ public class SystemCommandsProcessor extends CommandProcessor {
 
 		add(GENERALSTATE, SystemCommand.getFLSC("ls", new ListDirectoryProcessor()));
 		add(GENERALSTATE, SystemCommand.getFLSC("find name", new FindProcessor()));
-		add(GENERALSTATE, SystemCommand.getFLSC("cd return", new  ChangeDirectoryProcessor()));
-		add(GENERALSTATE, SystemCommand.getFLSC("mkdir dir_name", new  CreateDirectoryProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("cd dir_path", new  ChangeDirectoryProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("mkdir dir_path", new  CreateDirectoryProcessor()));
 		add(GENERALSTATE, SystemCommand.getFLSC("drmdir dir_name", new RecursiveRemoveDirectoryProcessor()));
-		add(GENERALSTATE, SystemCommand.getFLSC("rmdir dir_name", new RemoveDirectoryProcessor()));
-		add(GENERALSTATE, SystemCommand.getFLSC("rm file_name_1", new RemoveFileProcessor()));
-		add(GENERALSTATE, SystemCommand.getFLSC("append ext_file_name file_name", new AppendFileProcessor()));
-		add(GENERALSTATE, SystemCommand.getFLSC("cp file_name_1 file_name_2", new CopyFileProcessor()));
-		add(GENERALSTATE, SystemCommand.getFLSC("loadfile file_name ext_file_name", new LoadFileProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("rmdir dir_path", new RemoveDirectoryProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("rm file_path", new RemoveFileProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("append file_path ext_file_name", new AppendFileProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("cp file_path_1 file_path_2", new CopyFileProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("clone file_path_1 file_path_2", new CloneFileProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("loadfile ext_file_name file_path", new LoadFileProcessor()));
 		add(GENERALSTATE, SystemCommand.getFLSC("createdisk disk_name nblocks bsize", new CreateDiskProcessor()));
 		add(GENERALSTATE, SystemCommand.getFLSC("unmount", new UnmountDiskProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("sync", new SyncDiskProcessor()));
 		add(GENERALSTATE, SystemCommand.getFLSC("mount disk_name", new MountDiskProcessor()));
-		add(GENERALSTATE, SystemCommand.getFLSC("cat file_name", new ShowFileProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("cat file_path", new ShowFileProcessor()));
 		add(GENERALSTATE, SystemCommand.getFLSC("showdisks", new ShowDiskProcessor()));
 		add(GENERALSTATE, SystemCommand.getFLSC("exit", new ShutDownProcessor())); 
 		add(GENERALSTATE, SystemCommand.getFLSC("deletedisk disk_name", new DeleteDiskProcessor())); 
+		add(GENERALSTATE, SystemCommand.getVLSC("snapshot name opt_name", new SnapshotProcessor())); 
+		add(GENERALSTATE, SystemCommand.getVLSC("fsck opt_name", new CheckDiskProcessor())); 
 				
 		// set to execute....
 		stopExecution = false; 
@@ -130,6 +178,146 @@ public class SystemCommandsProcessor extends CommandProcessor {
 		return resultsList; 
 	}
 	
+	/**
+	 * Executes a command and commits what it changed in each disk it used as one 
+	 * journal transaction of that disk, or as part of one shared with the next 
+	 * commands if they are grouped. A group is committed early when a disk ran out of 
+	 * blocks that its commit would free
+	 */
+	public ArrayList<String> executeCommand(SystemCommand sc, Command commandToE) {
+		if (session.getDisk() != null && mounts.get(session.getDisk().getDiskName()) != session.getDisk())
+			session.forget(session.getDisk()); //unmounted by another session
+		session.dropRemoved(); //current directories another session removed
+		ArrayList<String> results = super.executeCommand(sc, commandToE);
+		if (session.getDisk() != null)
+			touched.add(session.getDisk());
+		if (++uncommitted >= commitEvery || isShortOfBlocks())
+			commit();
+		return results;
+	}
+	
+	/**
+	 * Lets several commands share one journal transaction on each disk, which saves 
+	 * writing the inode table and free space map after every command of a script. A 
+	 * crash still loses whole commands only, at most the last n.
+	 * @param n number of commands committed together, 1 to commit each
+	 */
+	public void setCommitEvery(int n) {
+		commitEvery = Math.max(1, n);
+	}
+	
+	/**
+	 * @return true if a disk used since the last commit is waiting for it to free blocks
+	 */
+	private boolean isShortOfBlocks() {
+		for (DiskUnit disk : touched)
+			if (disk.isShortOfBlocks())
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Commits what the commands run since the last commit changed, on every disk
+	 * still mounted.
+	 */
+	public void commit() {
+		for (DiskUnit disk : touched)
+			if (mounts.get(disk.getDiskName()) == disk)
+				disk.commit();
+		touched.clear();
+		uncommitted = 0;
+	}
+	
+	/**
+	 * Adds a new file to a directory. If the directory needs a block and the disk is 
+	 * full, the file is freed and the failure added to the results.
+	 * @param dir directory receiving the file
+	 * @param disk disk holding both
+	 * @param name name of the file in the directory
+	 * @param inode inode index of the file
+	 * @return false if the file could not be added
+	 */
+	private boolean link(DirectoryFile dir, DiskUnit disk, String name, int inode) {
+		try{
+			dir.add(name, inode);
+			return true;
+		} catch(FullDiskException e){
+			FileMap.open(disk, inode).free(); //gives back every block the file took
+			disk.setInode(inode, 1, 1);
+			resultsList.add("Disk is full");
+			return false;
+		}
+	}
+	
+	/**
+	 * Finds the disk and directory of a path operand naming a file or directory. If
+	 * that fails the reason is added to the results.
+	 * @param path operand, disk:/dir/name or a name in the current directory
+	 * @param write true if the command changes the disk
+	 * @return the resolved path, null if the disk is not mounted, a directory of the
+	 * path does not exist, or the disk is a snapshot and write is true
+	 */
+	private DiskPath locate(String path, boolean write) {
+		DiskPath p = DiskPath.parse(path);
+		if (p==null || p.getName()==null){
+			resultsList.add("A file or directory name is required");
+			return null;
+		}
+		try{
+			if (!p.resolve(mounts, session)){
+				resultsList.add("Directory not found");
+				return null;
+			}
+		} catch(NonExistingDiskException e){
+			resultsList.add(p.getDiskName()==null ? "No disk mounted" : "Disk "+p.getDiskName()+" is not mounted");
+			return null;
+		}
+		if (write && p.getDisk().isReadOnly()){
+			resultsList.add("Snapshot is read-only");
+			return null;
+		}
+		touched.add(p.getDisk());
+		return p;
+	}
+	
+	/**
+	 * Locks the file a copy reads and its directory for reading, and the directory the
+	 * copy goes to for writing. Two disks are locked in the order of their names, so 
+	 * copies going both ways between them never wait for each other.
+	 * @return the locks held, released with release, or null if another session removed
+	 * one of the directories
+	 */
+	private ArrayList<InodeLocks.Held> lockCopy(DiskPath from, DiskPath to) {
+		ArrayList<InodeLocks.Held> held = new ArrayList<InodeLocks.Held>();
+		DiskUnit disk = from.getDisk();
+		DiskUnit target = to.getDisk();
+		InodeLocks.Held source;
+		if (disk == target){
+			source = from.lock(false, false, to.getDirectory());
+		}
+		else if (disk.getDiskName().compareTo(target.getDiskName()) < 0){
+			source = from.lock(false, false);
+			if (source!=null)
+				held.add(target.getInodeLocks().write(to.getDirectory()));
+		}
+		else{
+			held.add(target.getInodeLocks().write(to.getDirectory()));
+			source = from.lock(false, false);
+		}
+		if (source!=null)
+			held.add(source);
+		if (source==null || target.isRemovedDirectory(to.getDirectory())){
+			release(held);
+			return null;
+		}
+		return held;
+	}
+	
+	private void release(ArrayList<InodeLocks.Held> held) {
+		for (int i = held.size() - 1; i >= 0; i--)
+			held.get(i).release();
+	}
+	
 	// INNER CLASSES -- ONE FOR EACH VALID COMMAND --
 
 	/**
@@ -139,30 +327,34 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	private class FindProcessor implements CommandActionHandler {
 		public ArrayList<String> execute(Command c) { 
 			resultsList = new ArrayList<String>(); 
+			DiskUnit d = session.getDisk();
 			if (d==null){
 				resultsList.add("No disk mounted");
 				return resultsList;
 			}
 			FixedLengthCommand fc = (FixedLengthCommand) c;
 		    String name = fc.getOperand(1); 
+		    InodeLocks.Held held = d.getInodeLocks().all(false); //no directory changes while the tree is walked
+			try{
 		    
-		    Find findOp = new Find();
-		    ArrayList<String> list = new ArrayList<String>();   
-		    ArrayList<String> names = new ArrayList<String>();
-		    ArrayList<String> result = new ArrayList<String>();
+			    Find findOp = new Find();
+			    ArrayList<String> list = new ArrayList<String>();   
+			    ArrayList<String> names = new ArrayList<String>();
+			    ArrayList<String> result = new ArrayList<String>();
 		    
-		    list=findOp.createList(0, d);              //creates list of the content in root
-		    int currDir = d.getcurrentDir();          //saves current directory
-		    result=findOp.recFiles(list, d, 0, name, d.getDiskName()+":/root", names);  //find all instances with recursion
-		    if(result.isEmpty()){
-				resultsList.add("No instance found");
-				return resultsList;
-		    }
-		    for(int i=0; i<result.size(); i++){
-		    	System.out.println(result.get(i));
-		    }
-		    d.setDirectory(currDir);                  // return directory to where it was before looking for the instances
-			return resultsList;  
+			    list=findOp.createList(0, d);              //creates list of the content in root
+			    result=findOp.recFiles(list, d, 0, name, d.getDiskName()+":/root", names);  //find all instances with recursion
+			    if(result.isEmpty()){
+					resultsList.add("No instance found");
+					return resultsList;
+			    }
+			    for(int i=0; i<result.size(); i++){
+			    	out.println(result.get(i));
+			    }
+				return resultsList;  
+			} finally{
+				held.release();
+			}
 		}
 	}
 	
@@ -173,37 +365,48 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	private class RecursiveRemoveDirectoryProcessor implements CommandActionHandler {
 		public ArrayList<String> execute(Command c) { 
 			resultsList = new ArrayList<String>(); 
+			DiskUnit d = session.getDisk();
 			if (d==null){
 				resultsList.add("No disk mounted");
 				return resultsList;
 			}
+			if (d.isReadOnly()){
+				resultsList.add("Snapshot is read-only");
+				return resultsList;
+			}
 			FixedLengthCommand fc = (FixedLengthCommand) c;
 		    String name = fc.getOperand(1); 
+		    InodeLocks.Held held = d.getInodeLocks().all(true); //the whole tree below may go
+			try{
 		    
-		    Directory dirOp = new Directory();
-		    ArrayList<String> list = new ArrayList<String>();     
-		    int inodeIndex =dirOp.findFile(name, d);			//finds inode of directory to remove
-		    if(inodeIndex==-1){                              
-				resultsList.add("Directory not found");
-				return resultsList; 
-		    }
+			    Directory dirOp = new Directory();
+			    ArrayList<String> list = new ArrayList<String>();     
+			    int dir = session.getDirectory();
+			    int inodeIndex = d.isRemovedDirectory(dir) ? -1 : dirOp.findFile(name, d, dir); //finds inode of directory to remove
+			    if(inodeIndex==-1){                              
+					resultsList.add("Directory not found");
+					return resultsList; 
+			    }
 		    
-		    if(d.getInodeType(inodeIndex)!=0){
-				resultsList.add("Name provided does not correspond to a directory");
-				return resultsList; 
-		    }
+			    if(!d.isDirectory(inodeIndex)){
+					resultsList.add("Name provided does not correspond to a directory");
+					return resultsList; 
+			    }
+		    
+			    if(d.getInodeSize(inodeIndex)<=1){
+			    	dirOp.deleteDir(name, d, dir);
+					resultsList.add("Directory has been removed");
+					return resultsList; 
+			    }
 		    
-		    if(d.getInodeSize(inodeIndex)<=1){
-		    	dirOp.deleteDir(name, d);
+			    list=dirOp.createList(inodeIndex, d); //list of the content in directory to remove
+			    dirOp.deleteFiles(list, d, inodeIndex);  //recursive remove
+			    dirOp.deleteDir(name, d, dir);                                   //after every conten is removed, target directory can now be removed
 				resultsList.add("Directory has been removed");
 				return resultsList; 
-		    }
-		    
-		    list=dirOp.createList(inodeIndex, d); //list of the content in directory to remove
-		    dirOp.deleteFiles(list, d, inodeIndex, d.getcurrentDir());  //recursive remove
-		    dirOp.deleteDir(name, d);                                   //after every conten is removed, target directory can now be removed
-			resultsList.add("Directory has been removed");
-			return resultsList; 
+			} finally{
+				held.release();
+			}
 		}
 	}
 	
@@ -215,111 +418,42 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	private class RemoveDirectoryProcessor implements CommandActionHandler {
 		public ArrayList<String> execute(Command c) {
 			resultsList = new ArrayList<String>(); 
-			if (d==null){
-				resultsList.add("No disk mounted");
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			DiskPath p = locate(fc.getOperand(1), true);
+			if (p==null){
 				return resultsList;
 			}
-			FixedLengthCommand fc = (FixedLengthCommand) c;
-		    String name = fc.getOperand(1); 
-		    
-		    String nme = "";
-		    Utils util = new Utils();
-		    int directoryFirst = d.getInodeFBlock(d.getcurrentDir());
+			DiskUnit disk = p.getDisk();
+			InodeLocks.Held held = p.lock(true, true);
+			if (held==null){
+				resultsList.add("Directory not found");
+				return resultsList;
+			}
+			try{
+			    String name = p.getName(); 
 		    
-			VirtualDiskBlock vdm = new VirtualDiskBlock(d.getBlockSize());
-		    VirtualDiskBlock vdb = new VirtualDiskBlock(d.getBlockSize());
-			
-			int inodeIndex=0;
-			int prev=0;
-			int next;
-			int prevInode;
-		    int sizeD= d.getInodeSize(d.getcurrentDir());
-			int bn = d.getInodeFBlock(d.getcurrentDir()); 
-			
-			while (bn != 0) { //find target directory and removes from current directory, this removal is similar to a removal in a single linked list
-				d.read(bn, vdb);  
-				nme=util.stringFromVirtualDiskBlock(bn, vdb);
-				next= util.getNextBNFromBlock(vdb);
-				
-				if(nme.equals(name) && bn==directoryFirst && next==0){  //if target directory is the only one in the directory
-					inodeIndex = util.getIntFromBlock(vdb, (d.getBlockSize()-8));
-					if(d.getInodeType(inodeIndex)!=0){
-						resultsList.add("Name provided does not correspond to a directory");
-						return resultsList; 
-					}
-					if(d.getInodeSize(inodeIndex)>1){
-						resultsList.add("Directory is not Empty");
-						return resultsList; 
-					}
-					d.registerFB(bn);
-					d.setInode(d.getcurrentDir(), 1, 0);
-					break;
-				}
-				
-				if(nme.equals(name)&& bn==directoryFirst){   //if target directory is first in the directory
-					inodeIndex = util.getIntFromBlock(vdb, (d.getBlockSize()-8));
-					if(d.getInodeType(inodeIndex)!=0){
-						resultsList.add("Name provided does not correspond to a directory");
-						return resultsList; 
-					}
-					if(d.getInodeSize(inodeIndex)>1){
-						resultsList.add("Directory is not Empty");
-						return resultsList; 
-					}
-					d.registerFB(bn);
-					bn = util.getNextBNFromBlock(vdb);
-					d.setInode(d.getcurrentDir(), sizeD-d.getBlockSize(), bn);
-					break;
+			    DirectoryFile dir = new DirectoryFile(disk, p.getDirectory());
+				int inodeIndex = p.getInode(); //target directory in its parent directory
+				if(inodeIndex==-1){
+					resultsList.add("Directory not found");
+					return resultsList; 
 				}
-				
-				if(nme.equals(name)&& next==0){  //if target directory is last in the directory
-					inodeIndex = util.getIntFromBlock(vdb, (d.getBlockSize()-8));
-					if(d.getInodeType(inodeIndex)!=0){
-						resultsList.add("Name provided does not correspond to a directory");
-						return resultsList; 
-					}
-					if(d.getInodeSize(inodeIndex)>1){
-						resultsList.add("Directory is not Empty");
-						return resultsList; 
-					}
-					d.registerFB(bn);
-					d.read(prev, vdb);
-					util.copyNextBNToBlock(vdb, 0);
-					d.write(prev, vdb);
-					d.setInode(d.getcurrentDir(), sizeD-d.getBlockSize());
-					break;
+				if(!disk.isDirectory(inodeIndex)){
+					resultsList.add("Name provided does not correspond to a directory");
+					return resultsList; 
 				}
-				
-				if(nme.equals(name)){  //rest of the cases
-					inodeIndex = util.getIntFromBlock(vdb, (d.getBlockSize()-8));
-					if(d.getInodeType(inodeIndex)!=0){
-						resultsList.add("Name provided does not correspond to a directory");
-						return resultsList; 
-					}
-					if(d.getInodeSize(inodeIndex)>1){
-						resultsList.add("Directory is not Empty");
-						return resultsList; 
-					}
-					d.registerFB(bn);
-					d.read(prev, vdb);
-					util.copyNextBNToBlock(vdb, next);
-					d.write(prev, vdb);
-					d.setInode(d.getcurrentDir(), sizeD-d.getBlockSize());
-					break;
+				if(disk.getInodeSize(inodeIndex)>1){
+					resultsList.add("Directory is not Empty");
+					return resultsList; 
 				}
-				prev=bn;
-				bn = util.getNextBNFromBlock(vdb);
-			}
+				dir.remove(name); //removes target directory from its parent directory
 			
-			if(bn==0){
-				resultsList.add("Directory not found");
+				disk.setInode(inodeIndex, 1, 1);
+				resultsList.add("Directory has been removed");
 				return resultsList; 
-			}		
-			
-			d.setInode(inodeIndex, 1, 1);
-			d.setInodeToDirectory(d.getcurrentDir());
-			resultsList.add("Directory has been removed");
-			return resultsList; 
+			} finally{
+				held.release();
+			}
 		}
 	}
 	
@@ -331,63 +465,62 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	private class ChangeDirectoryProcessor implements CommandActionHandler {
 		public ArrayList<String> execute(Command c) {
 			resultsList = new ArrayList<String>(); 
-			if (d==null){
-				resultsList.add("No disk mounted");
-				return resultsList;
-			}
+			DiskUnit d = session.getDisk();
 			FixedLengthCommand fc = (FixedLengthCommand) c;
 		    String name = fc.getOperand(1);
-		    
-		    int prevDir;
-		    String prevName;
+		    DiskPath p = DiskPath.parse(name);
+		    DiskUnit disk = p==null || p.getDiskName()==null ? d : mounts.get(p.getDiskName());
+			if (disk==null){
+				resultsList.add(p==null || p.getDiskName()==null ? "No disk mounted" : "Disk "+p.getDiskName()+" is not mounted");
+				return resultsList;
+			}
 		    
 		    if(name.equals("..")){     
-				
-		    	prevDir=d.popDir();     //verifies if current directory is root 
-		    	prevName=d.popName();
-		    	if (prevDir == -1){
-					resultsList.add(d.getCurrentName());
-					return resultsList;
-		    	}
-		    	d.setDirectory(prevDir);    //goes to previous directory
-		    	d.setCurrentName(prevName); //keeps a string of the location for user display
-				resultsList.add(d.getCurrentName());
+		    	session.back(d);    //goes to previous directory, unless current directory is root
+				resultsList.add(session.getDirectoryName(d));
 				return resultsList; 
 		    }
-		    String nme = "";
-		    Utils util = new Utils();
-			int n = d.getInodeSize(d.getcurrentDir());
-			VirtualDiskBlock vdb = new VirtualDiskBlock(d.getBlockSize()); 
-			int inodeIndex=0;
-		    
-			int bn = d.getInodeFBlock(d.getcurrentDir()); //verifies if target directory is on the current directory
+			if(p==null){
+				resultsList.add("File not found");
+				return resultsList; 
+			}
 			
-			while (bn != 0) {
-				d.read(bn, vdb); 
-				nme=util.stringFromVirtualDiskBlock(bn, vdb);
-				if(nme.equals(name)){
-					inodeIndex = util.getIntFromBlock(vdb, (d.getBlockSize()-8));
-					break;
+			//finds every directory of the path before moving, so a bad path leaves the current one
+			ArrayList<Integer> dirs = new ArrayList<Integer>();
+			int dir = p.isAbsolute() ? 0 : session.getDirectory(disk);
+			for(String n : p.getNames()){
+				InodeLocks.Held held = disk.getInodeLocks().read(dir);
+				int inodeIndex;
+				try{
+					if(disk.isRemovedDirectory(dir)){ //removed by another session meanwhile
+						resultsList.add("Directory not found");
+						return resultsList;
+					}
+					inodeIndex = new DirectoryFile(disk, dir).lookup(n); //verifies if target directory is on the directory before it
+				} finally{
+					held.release();
 				}
-				bn = util.getNextBNFromBlock(vdb);
+				if(inodeIndex==-1){
+					resultsList.add("File not found");
+					return resultsList; 
+				}
+				if(!disk.isDirectory(inodeIndex)){
+					resultsList.add("Name provided is not a directory");
+					return resultsList; 
+				}
+				dirs.add(inodeIndex);
+				dir = inodeIndex;
 			}
 			
-			if(bn==0){
-				resultsList.add("File not found");
-				return resultsList; 
+			if(p.isAbsolute()){ //goes back to root, forgetting the directories left
+				session.toRoot(disk);
 			}
-			
-			if(d.getInodeType(inodeIndex)==1){
-				resultsList.add("Name provided is not a directory");
-				return resultsList; 
+			for(int i=0; i<dirs.size(); i++){
+				session.enter(disk, dirs.get(i), p.getNames().get(i)); //previous directory is kept to go back
 			}
-
-			d.pushDir(d.getcurrentDir()); //pushes previous directory and current directory changes to target directory
-			d.pushName(d.getCurrentName());
-			d.setDirectory(inodeIndex);
-			d.setCurrentName(d.getCurrentName()+"/"+name);
+			session.setDisk(disk); //a path on another disk makes it the current disk
 			
-			resultsList.add(d.getCurrentName());
+			resultsList.add(session.getDirectoryName(disk));
 			return resultsList; 
 		}
 	}
@@ -401,52 +534,45 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	private class CreateDirectoryProcessor implements CommandActionHandler {
 		public ArrayList<String> execute(Command c) {
 			resultsList = new ArrayList<String>(); 
-			if (d==null){
-				resultsList.add("No disk mounted");
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			DiskPath p = locate(fc.getOperand(1), true);
+			if (p==null){
 				return resultsList;
 			}
-			FixedLengthCommand fc = (FixedLengthCommand) c;
-		    String name = fc.getOperand(1); 
-		    String nme = "";
-		    Utils util = new Utils();
-			int n = d.getInodeSize(d.getcurrentDir());
-			VirtualDiskBlock vdb = new VirtualDiskBlock(d.getBlockSize()); 
-			int inodeIndex=0;
-		    
-			if(d.getInodeSize(d.getcurrentDir())<=1){ //if current directory is empty
-				int freeNode=d.getNextFreeNode();
-				
-				d.setInode(freeNode, 1, 1);
-				d.setInodeToDirectory(freeNode);
-				d.addTodirectory(n, name, freeNode); // creates directory in current directory
-				d.setInodeToDirectory(d.getcurrentDir());
-				
-				resultsList.add("Directory has been created");
-				return resultsList; 
+			DiskUnit disk = p.getDisk();
+			InodeLocks.Held held = p.lock(true, false);
+			if (held==null){
+				resultsList.add("Directory not found");
+				return resultsList;
 			}
-			
-			
-			int bn = d.getInodeFBlock(d.getcurrentDir()); //verifies if name is already used in directory
-			
-			while (bn != 0) {
-				d.read(bn, vdb); 
-				nme=util.stringFromVirtualDiskBlock(bn, vdb);
-				if(nme.equals(name)){
+			try{
+			    String name = p.getName(); 
+			    DirectoryFile dir = new DirectoryFile(disk, p.getDirectory());
+			    if(!dir.fits(name)){
+			    	resultsList.add("Name is too long");
+			    	return resultsList;
+			    }
+				if(p.getInode()!=-1){ //verifies if name is already used in directory
 					resultsList.add("Name is already in use");
 					return resultsList;
 				}
-				bn = util.getNextBNFromBlock(vdb);
-			}
 			
-			int freeNode=d.getNextFreeNode();
+				int freeNode=disk.getNextFreeNode();
 			
-			d.setInode(freeNode, 1, 1);
-			d.setInodeToDirectory(freeNode);
-			d.addTodirectory(n, name, freeNode); //sets new directory inode and adds to directory
-			d.setInodeToDirectory(d.getcurrentDir());
+				disk.setPackedDirectoryInode(freeNode, 1, 0);
+				try{
+					dir.add(name, freeNode); //sets new directory inode and adds to directory
+				} catch(FullDiskException e){
+					disk.setInode(freeNode, 1, 1);
+					resultsList.add("Disk is full");
+					return resultsList;
+				}
 			
-			resultsList.add("Directory has been created");
-			return resultsList; 
+				resultsList.add("Directory has been created");
+				return resultsList; 
+			} finally{
+				held.release();
+			}
 		}
 	}
 	
@@ -457,123 +583,40 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	private class RemoveFileProcessor implements CommandActionHandler {
 		public ArrayList<String> execute(Command c) {
 			resultsList = new ArrayList<String>(); 
-			if (d==null){
-				resultsList.add("No disk mounted");
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			DiskPath p = locate(fc.getOperand(1), true);
+			if (p==null){
 				return resultsList;
 			}
-			FixedLengthCommand fc = (FixedLengthCommand) c;
-		    String name = fc.getOperand(1); 
-		    
-		    String nme = "";
-		    Utils util = new Utils();
-		    int directoryFirst = d.getInodeFBlock(d.getcurrentDir());
+			DiskUnit disk = p.getDisk();
+			InodeLocks.Held held = p.lock(true, true);
+			if (held==null){
+				resultsList.add("Directory not found");
+				return resultsList;
+			}
+			try{
+			    String name = p.getName(); 
 		    
-			VirtualDiskBlock vdm = new VirtualDiskBlock(d.getBlockSize());
-		    VirtualDiskBlock vdb = new VirtualDiskBlock(d.getBlockSize());
-			
-			int inodeIndex=0;
-			int prev=0;
-			int next;
-			int prevInode;
-		    int sizeD= d.getInodeSize(d.getcurrentDir());
-			int bn = d.getInodeFBlock(d.getcurrentDir()); //finds file on directory
-			
-			while (bn != 0) { //find and erase from directory, removal is similar to that of a single linked list
-				d.read(bn, vdb);         //all removals consist on registering old blocks and inodes as free
-				nme=util.stringFromVirtualDiskBlock(bn, vdb);
-				next= util.getNextBNFromBlock(vdb);
-				
-				if(nme.equals(name) && bn==directoryFirst && next==0){ //if file is the only one on the directory
-					inodeIndex = util.getIntFromBlock(vdb, (d.getBlockSize()-8));
-					if(d.getInodeType(inodeIndex)==0){
-						resultsList.add("Name provided is not a file");
-						return resultsList; 
-					}
-					d.registerFB(bn);
-					d.setInode(d.getcurrentDir(), 1, 0);
-					break;
-				}
-				
-				if(nme.equals(name)&& bn==directoryFirst){//if file is the first one on the directory
-					inodeIndex = util.getIntFromBlock(vdb, (d.getBlockSize()-8));
-					if(d.getInodeType(inodeIndex)==0){
-						resultsList.add("Name provided is not a file");
-						return resultsList; 
-					}
-					d.registerFB(bn);
-					bn = util.getNextBNFromBlock(vdb);
-					d.setInode(d.getcurrentDir(), sizeD-d.getBlockSize(), bn);
-					break;
-				}
-				
-				if(nme.equals(name)&& next==0){////if file is the last one on the directory
-					inodeIndex = util.getIntFromBlock(vdb, (d.getBlockSize()-8));
-					if(d.getInodeType(inodeIndex)==0){
-						resultsList.add("Name provided is not a file");
-						return resultsList; 
-					}
-					d.registerFB(bn);
-					d.read(prev, vdb);
-					util.copyNextBNToBlock(vdb, 0);
-					d.write(prev, vdb);
-					d.setInode(d.getcurrentDir(), sizeD-d.getBlockSize());
-					break;
+			    DirectoryFile dir = new DirectoryFile(disk, p.getDirectory());
+				int inodeIndex = p.getInode(); //file on its directory
+				if(inodeIndex==-1){
+					resultsList.add("File not found");
+					return resultsList; 
 				}
-				
-				if(nme.equals(name)){//rest of the cases
-					inodeIndex = util.getIntFromBlock(vdb, (d.getBlockSize()-8));
-					if(d.getInodeType(inodeIndex)==0){
-						resultsList.add("Name provided is not a file");
-						return resultsList; 
-					}
-					d.registerFB(bn);
-					d.read(prev, vdb);
-					util.copyNextBNToBlock(vdb, next);
-					d.write(prev, vdb);
-					d.setInode(d.getcurrentDir(), sizeD-d.getBlockSize());
-					break;
+				if(disk.isDirectory(inodeIndex)){
+					resultsList.add("Name provided is not a file");
+					return resultsList; 
 				}
-				prev=bn;
-				bn = util.getNextBNFromBlock(vdb);
-			}
 			
-			if(bn==0){
-				resultsList.add("File not found");
-				return resultsList; 
-			}
-			
-			int fileStart = d.getInodeFBlock(inodeIndex); 
-			int fileStart2 = fileStart;
-			d.registerFB(fileStart);
+				dir.remove(name); //all removals consist on registering old blocks and inodes as free
+				FileMap.open(disk, inodeIndex).free(); //registers every block the file uses as free
 			
-			int counter=d.getBlockSize()-20;
-			int b2=0;
-			int b1=5;
-			d.read(fileStart, vdm);
-			
-			while (fileStart2!=0) {//finds file on disk using inode and registers every block the file uses
-				b2++;
-				fileStart2 = util.getNextBNFromBlock2(vdm, counter);
-				if(fileStart2!=0){
-					d.registerFB(fileStart2);
-				}
-				counter+=4;
-				if(b2>=b1-1){ //travels to the indirect block lists
-					fileStart = util.getNextBNFromBlock2(vdm, counter);
-					d.read(fileStart, vdm);
-					if(fileStart!=0){
-						d.registerFB(fileStart);
-					}
-					counter=0;
-					b2=0;
-					b1=(d.getBlockSize()/4);
-				}
+				disk.setInode(inodeIndex, 1, 1);
+				resultsList.add("File has been removed");
+				return resultsList; 
+			} finally{
+				held.release();
 			}
-			
-			d.setInode(inodeIndex, 1, 1);
-			d.setInodeToDirectory(d.getcurrentDir());
-			resultsList.add("File has been removed");
-			return resultsList; 
 		}
 	}
 	
@@ -584,347 +627,258 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	private class AppendFileProcessor implements CommandActionHandler {
 		public ArrayList<String> execute(Command c) {
 			resultsList = new ArrayList<String>(); 
-			if (d==null){
-				resultsList.add("No disk mounted");
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			DiskPath p = locate(fc.getOperand(1), true);
+			if (p==null){
 				return resultsList;
 			}
-			FixedLengthCommand fc = (FixedLengthCommand) c;
-		    String name = fc.getOperand(1); 
-		    String newName = fc.getOperand(2); 
+			DiskUnit disk = p.getDisk();
+			InodeLocks.Held held = p.lock(false, true);
+			if (held==null){
+				resultsList.add("Directory not found");
+				return resultsList;
+			}
+			try{
+			    String name = p.getName(); 
+			    String newName = fc.getOperand(2); 
 		    
-		    String nme = "";
-		    Utils util = new Utils();
-		    int directory = d.getInodeFBlock(d.getcurrentDir());
-			VirtualDiskBlock vdb = new VirtualDiskBlock(d.getBlockSize());
-			VirtualDiskBlock vdm = new VirtualDiskBlock(d.getBlockSize()); 
-			int inodeIndex=0;	    
-			int bn = d.getInodeFBlock(d.getcurrentDir()); 
-			
-			while (bn != 0) { //finds file in directory
-				d.read(bn, vdb); 
-				nme=util.stringFromVirtualDiskBlock(bn, vdb);
-				if(nme.equals(name)){
-					inodeIndex = util.getIntFromBlock(vdb, (d.getBlockSize()-8));
-					break;
+				int inodeIndex = p.getInode(); //file in its directory
+				if(inodeIndex==-1){
+					resultsList.add("File not found");
+					return resultsList; 
 				}
-				bn = util.getNextBNFromBlock(vdb);
-			}
-			if(bn==0){
-				resultsList.add("File not found");
-				return resultsList; 
-			}
-			
-			if(d.getInodeType(inodeIndex)==0){
-				resultsList.add("Name provided is not a file");
-				return resultsList; 
-			}
 			
-			int fileStart = d.getInodeFBlock(inodeIndex);
-			int fileStart2 = fileStart;
-			int fileStart3 = fileStart;
-
-			String file1="";
-			int counter=d.getBlockSize()-20;
-			int n1 = 20;
-			int b2=0;
-			int b1=5;
-			d.read(fileStart, vdm);
-			
-			while (fileStart2!=0) {//finds file on disk using inode and puts it in string in file1
-				b2++;
-				d.read(fileStart2, vdb);
-				file1=file1+util.stringFromVirtualDiskBlock2(vdb, n1);
-				n1=0;
-				fileStart2 = util.getNextBNFromBlock2(vdm, counter);
-				if(fileStart2!=0){
-					d.registerFB(fileStart2);
+				if(disk.isDirectory(inodeIndex)){
+					resultsList.add("Name provided is not a file");
+					return resultsList; 
 				}
-				counter+=4;
-				if(b2>=b1-1){
-					fileStart = util.getNextBNFromBlock2(vdm, counter);
-					d.read(fileStart, vdm);
-					if(fileStart!=0){
-						d.registerFB(fileStart);
+			
+				try (FileChannel file2 = TextEditor.openChannel(newName)) { //host file, read as raw bytes
+					//an extent file only gets its last block and the new blocks written; a file in
+					//the original format is rewritten once in extent format and its old blocks freed
+					FileMap old = null;
+					ExtentFileWriter writer;
+					if(disk.getInodeType(inodeIndex)==DiskUnit.TYPE_EXTENT_FILE){
+						try{
+							writer = ExtentFileWriter.append(disk, inodeIndex, 1 + file2.size());
+						} catch(FullDiskException e){
+							resultsList.add("Disk is full");
+							return resultsList;
+						}
+					}
+					else{
+						old = FileMap.open(disk, inodeIndex);
+						writer = new ExtentFileWriter(disk, old.getSize() + 1 + file2.size());
 					}
-					counter=0;
-					b2=0;
-					b1=(d.getBlockSize()/4);
+					int root;
+					try{
+						if(old!=null){
+							writer.copyFrom(new VirtualFileInputStream(old));
+						}
+						writer.write(new byte[] {'\n'}, 0, 1);
+						writer.copyFrom(file2, importBuffer);
+						root = writer.finish();
+					} catch(FullDiskException e){
+						writer.abort();
+						resultsList.add("Disk is full");
+						return resultsList;
+					} catch(IOException e){
+						writer.abort();
+						throw e;
+					}
+					if(old!=null){
+						old.free();
+					}
+					disk.setExtentFileInode(inodeIndex, writer.getSize(), root); //single inode update
+				} catch (IOException e) {
+					// TODO Auto-generated catch block
+					resultsList.add("File not Found");
+					return resultsList;
 				}
-			}
-			file1=file1.substring(0, d.getInodeSize(inodeIndex));
-			
-		   
-			try {
-				String file2 = text.fileToSTring(newName);
-				file1=file1+'\n'+file2;       //appends file1 and file2
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				resultsList.add("File not Found");
-				return resultsList;
-			}
-								
-			
-			//writes file on disk
-
-			
-			int block=d.getBlockSize();
-			VirtualDiskBlock vb = new VirtualDiskBlock(block);
-			VirtualDiskBlock vbm = new VirtualDiskBlock(block);
 
-			int blocknum = (file1.length()-(block-20))/block;
-
-			byte[] barr = new byte[block];
-			boolean done = false; 
-			
-			d.registerFB(fileStart3);
-			int freeblock = d.getFreeBN();
-			int chn = 0, bn1 = 0, index=0;
-			int nextFreeBlock=0; 
-
-			//sets file Inode
-
-			d.setInode(inodeIndex, file1.length());
-			
-			for (int i=0; i<(block-20) && chn < file1.length(); i++) { //this series of steps before the while is to write 
-			barr[i] = (byte) file1.charAt(chn);                        //the first N-20 bits
-			chn++; 
-			}
-
-			for (int i=0; i<(block-20) && i<barr.length; i++){  
-				vbm.setElement(i, barr[i]);
-			}
-
-			int counter1=block-20;
-			
-			int b=0;
-			
-			int b3=5;
-
-			if(file1.length()<block-20){
-				d.write(freeblock, vbm);
-			}
+				resultsList.add("Content has been appended to the file");
 			
-			while(!done && file1.length()>block-20){ //once the N-20 bits have been filled, we continue to write on this block
-				                                     //the block number where the other bits will be written
-				nextFreeBlock=d.getFreeBN();
-				
-				Utils.copyIntToBlocks(vbm, counter1, nextFreeBlock);
-				
-				counter1+=4;
-				b++;
-				
-				for (int i=0; i< block && chn < file1.length(); i++) { 
-					barr[i] = (byte) file1.charAt(chn); 
-					chn++; 
-				}
-				
-				for (int i=0; i<block; i++)  
-					vb.setElement(i, barr[i]);
-				
-				bn1++;
-
-				if ((chn >= file1.length() || bn1 > blocknum+1)) {
-					done = true;
-					Utils.copyIntToBlocks(vbm, counter, 0);
-					d.write(freeblock, vbm);
-				}
-				
-				d.write(nextFreeBlock, vb);
-
-				
-				if(b>=b3-1){ //if necessary create indirect blocks to point to remaining bits
-
-					int temp=d.getFreeBN();
-					Utils.copyIntToBlocks(vbm, counter1, temp);
-					d.write(freeblock, vbm);
-					freeblock=temp;
-					counter1=0;
-					b=0;
-					b3=(block/4);
-				}
-				
-
+				return resultsList; 
+			} finally{
+				held.release();
 			}
-
-			resultsList.add("Content has been appended to the file");
-			
-			return resultsList; 
 		}
 	}
 	
 
 	/**
 	 * Inner class takes care of taking a file making a copy with a different name and copies it
-	 * into disk.
+	 * into disk. The copy may go to another mounted disk.
 	 */
 	private class CopyFileProcessor implements CommandActionHandler {
 		public ArrayList<String> execute(Command c) {
 			resultsList = new ArrayList<String>(); 
-			if (d==null){
-				resultsList.add("No disk mounted");
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			DiskPath from = locate(fc.getOperand(1), false);
+			if (from==null){
 				return resultsList;
 			}
-			FixedLengthCommand fc = (FixedLengthCommand) c;
-		    String name = fc.getOperand(1); 
-		    String newName = fc.getOperand(2); 
+			DiskPath to = locate(fc.getOperand(2), true);
+			if (to==null){
+				return resultsList;
+			}
+			DiskUnit disk = from.getDisk();
+			DiskUnit target = to.getDisk();
+			ArrayList<InodeLocks.Held> held = lockCopy(from, to);
+			if (held==null){
+				resultsList.add("Directory not found");
+				return resultsList;
+			}
+			try{
+			    String newName = to.getName(); 
 		    
-		    //finds the file and converts it to a string
+			    //finds the file and converts it to a string
 		    
-		    String nme = "";
-		    Utils util = new Utils();
-		    int directory = d.getInodeFBlock(d.getcurrentDir());
-			VirtualDiskBlock vdb = new VirtualDiskBlock(d.getBlockSize());
-			VirtualDiskBlock vdm = new VirtualDiskBlock(d.getBlockSize()); 
-			int inodeIndex=0;	    
-			int bn = d.getInodeFBlock(d.getcurrentDir()); 
-			
-			while (bn != 0) { //finds file in directory
-				d.read(bn, vdb); 
-				nme=util.stringFromVirtualDiskBlock(bn, vdb);
-				if(nme.equals(name)){
-					inodeIndex = util.getIntFromBlock(vdb, (d.getBlockSize()-8));
-					break;
+				int inodeIndex = from.getInode(); //file in its directory
+				if(inodeIndex==-1){
+					resultsList.add("File not found");
+					return resultsList; 
 				}
-				bn = util.getNextBNFromBlock(vdb);
-			}
-			if(bn==0){
-				resultsList.add("File not found");
-				return resultsList; 
-			}
 			
-			if(d.getInodeType(inodeIndex)==0){
-				resultsList.add("Name provided is not a file");
-				return resultsList; 
-			}
+				if(disk.isDirectory(inodeIndex)){
+					resultsList.add("Name provided is not a file");
+					return resultsList; 
+				}
 			
-			int fileStart = d.getInodeFBlock(inodeIndex);
-			int fileStart2 = fileStart;
-
-			String file1="";
-			int counter=d.getBlockSize()-20;
-			int n1 = 20;
-			int b2=0;
-			int b1=5;
-			d.read(fileStart, vdm);
+				DirectoryFile dir = new DirectoryFile(target, to.getDirectory());
+				if(!dir.fits(newName)){
+					resultsList.add("Name is too long");
+					return resultsList;
+				}
 			
-			while (fileStart2!=0) {//finds file on disk using inode and puts string in file1
-				b2++;
-				d.read(fileStart2, vdb);
-				file1=file1+util.stringFromVirtualDiskBlock2(vdb, n1);
-				n1=0;
-				fileStart2 = util.getNextBNFromBlock2(vdm, counter);
-				counter+=4;
-				if(b2>=b1-1){
-					fileStart = util.getNextBNFromBlock2(vdm, counter);
-					d.read(fileStart, vdm);
-					counter=0;
-					b2=0;
-					b1=(d.getBlockSize()/4);
+				int freeNode = target.getNextFreeNode();
+				if(freeNode==0){
+					resultsList.add("Disk is full");
+					return resultsList;
 				}
-			}
-			file1=file1.substring(0, d.getInodeSize(inodeIndex));
-						
 			
-			//writes file on disk
+				FileMap source = FileMap.open(disk, inodeIndex);
+				if(source instanceof ExtentFileMap && target==disk){
+					//copies the raw blocks, consecutive stretches in bulk
+					try{
+						int root = new ExtentFileCopier(disk).copy((ExtentFileMap) source);
+						disk.setExtentFileInode(freeNode, source.getSize(), root);
+					} catch(FullDiskException e){
+						resultsList.add("Disk is full");
+						return resultsList;
+					}
+				}
+				else{
+					//a file in the original format, or on another disk, is streamed into a new one in extent format
+					VirtualFileInputStream in = new VirtualFileInputStream(source);
+					ExtentFileWriter writer = new ExtentFileWriter(target, in.getSize());
+					try{
+						writer.copyFrom(in);
+						target.setExtentFileInode(freeNode, writer.getSize(), writer.finish());
+					} catch(FullDiskException e){
+						writer.abort();
+						resultsList.add("Disk is full");
+						return resultsList;
+					} catch(IOException e){
+						writer.abort();
+						e.printStackTrace();
+						return resultsList;
+					}
+				}
 
-			int n = d.getInodeSize(d.getcurrentDir());
-			int freeNode = d.getNextFreeNode();
+				if(!link(dir, target, newName, freeNode)){ //adds file to directory
+					return resultsList;
+				}
 			
-			int block=d.getBlockSize();
-			VirtualDiskBlock vb = new VirtualDiskBlock(block);
-			VirtualDiskBlock vbm = new VirtualDiskBlock(block);
-
-			int blocknum = (file1.length()-(block-20))/block;
-
-			byte[] barr = new byte[block];
-			boolean done = false; 
-
-			int freeblock;
-			try{
-				 freeblock = d.getFreeBN();  /////
-			} catch(FullDiskException e){
-				resultsList.add("Disk is full");
-				return resultsList;
-			}
+				resultsList.add("File has been copied");
 			
-			int chn = 0, bn1 = 0, index=0;
-			int nextFreeBlock=0;
-			if(freeNode==0){
-				resultsList.add("Disk is full");
+				return resultsList; 
+			} finally{
+				release(held);
+			}
+		}
+	}
+	
+	/**
+	 * Inner class takes care of cloning a file: the clone shares the data blocks of the 
+	 * original and each block is copied only when one of the two files writes it
+	 */
+	private class CloneFileProcessor implements CommandActionHandler {
+		public ArrayList<String> execute(Command c) {
+			resultsList = new ArrayList<String>(); 
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			DiskPath from = locate(fc.getOperand(1), false);
+			if (from==null){
 				return resultsList;
 			}
-
-			//sets file Inode
-
-			d.setInode(freeNode, file1.length(), freeblock);
-			
-			for (int i=0; i<(block-20) && chn < file1.length(); i++) { //implementation of free blocks just like append and loadfile
-			barr[i] = (byte) file1.charAt(chn); 
-			chn++; 
+			DiskPath to = locate(fc.getOperand(2), true);
+			if (to==null){
+				return resultsList;
 			}
-
-			for (int i=0; i<(block-20) && i<barr.length; i++){  
-				vbm.setElement(i, barr[i]);
+			DiskUnit disk = from.getDisk();
+		    String newName = to.getName(); 
+		    
+			int found = from.lookup();
+			if(to.getDisk()!=disk || found!=-1 && !disk.isDirectory(found) && disk.getInodeType(found)!=DiskUnit.TYPE_EXTENT_FILE){
+				//a file in the original format has no extents to share, and blocks are not
+				//shared between disks, it is copied instead. This is decided before locking
+				//anything: new files are always in extent format, so it cannot change
+				return new CopyFileProcessor().execute(c);
 			}
-
-			int counter1=block-20;
 			
-			int b=0;
-			
-			int b3=5;
-
-			if(file1.length()<block-20){
-				d.write(freeblock, vbm);
+			InodeLocks.Held held = from.lock(false, false, to.getDirectory());
+			if (held!=null && to.getDisk().isRemovedDirectory(to.getDirectory())){
+				held.release();
+				held = null;
 			}
-			
-			while(!done && file1.length()>block-20){
-				
-				nextFreeBlock=d.getFreeBN();
-				
-				
-				Utils.copyIntToBlocks(vbm, counter1, nextFreeBlock);
-				
-				counter1+=4;
-				b++;
-				
-				for (int i=0; i< block && chn < file1.length(); i++) { 
-					barr[i] = (byte) file1.charAt(chn); 
-					chn++; 
+			if (held==null){
+				resultsList.add("Directory not found");
+				return resultsList;
+			}
+			try{
+				int inodeIndex = from.getInode(); //file in its directory
+				if(inodeIndex==-1){
+					resultsList.add("File not found");
+					return resultsList; 
 				}
 				
-				for (int i=0; i<block; i++)  
-					vb.setElement(i, barr[i]);
-				
-				bn1++;
-
-				if ((chn >= file1.length() || bn1 > blocknum+1)) {
-					done = true;
-					Utils.copyIntToBlocks(vbm, counter, 0);
-					d.write(freeblock, vbm);
+				if(disk.isDirectory(inodeIndex)){
+					resultsList.add("Name provided is not a file");
+					return resultsList; 
 				}
 				
-				d.write(nextFreeBlock, vb);
-
-				
-				if(b>=b3-1){
-
-					int temp=d.getFreeBN();
-					Utils.copyIntToBlocks(vbm, counter1, temp);
-					d.write(freeblock, vbm);
-					freeblock=temp;
-					counter1=0;
-					b=0;
-					b3=(block/4);
+				DirectoryFile dir = new DirectoryFile(disk, to.getDirectory());
+				if(!dir.fits(newName)){
+					resultsList.add("Name is too long");
+					return resultsList;
+				}
+			
+				int freeNode = disk.getNextFreeNode();
+				if(freeNode==0){
+					resultsList.add("Disk is full");
+					return resultsList;
+				}
+			
+				//only the extent tree is written, the data blocks gain one more owner
+				try{
+					ExtentFileMap source = new ExtentFileMap(disk, inodeIndex);
+					int root = new ExtentFileCopier(disk).cloneFile(source);
+					disk.setExtentFileInode(freeNode, source.getSize(), root);
+				} catch(FullDiskException e){
+					resultsList.add("Disk is full");
+					return resultsList;
 				}
-				
-
-			}
 
-			d.addTodirectory(n, newName, freeNode); //adds file to directory
+				if(!link(dir, disk, newName, freeNode)){ //adds file to directory
+					return resultsList;
+				}
 			
-			resultsList.add("File has been copied");
+				resultsList.add("File has been cloned");
 			
-			return resultsList; 
+				return resultsList; 
+			} finally{
+				held.release();
+			}
 		}
 	}
 	
@@ -937,84 +891,53 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	private class ShowFileProcessor implements CommandActionHandler {
 		public ArrayList<String> execute(Command c) {
 			resultsList = new ArrayList<String>(); 
-			if (d==null){
-				resultsList.add("No disk mounted");
-				return resultsList;
-			}
 			FixedLengthCommand fc = (FixedLengthCommand) c;
-		    String name = fc.getOperand(1); 
-		    String nme = "";
-		    Utils util = new Utils();
-		    int directory = d.getInodeFBlock(d.getcurrentDir());
-			VirtualDiskBlock vdm = new VirtualDiskBlock(d.getBlockSize()); 
-			VirtualDiskBlock vdb = new VirtualDiskBlock(d.getBlockSize()); 
-			int inodeIndex=0;
-		    
-			int bn = d.getInodeFBlock(d.getcurrentDir()); //finds file on directory
-			
-			while (bn != 0) { 
-				d.read(bn, vdb); 
-				nme=util.stringFromVirtualDiskBlock(bn, vdb);
-				if(nme.equals(name)){
-					inodeIndex = util.getIntFromBlock(vdb, (d.getBlockSize()-8));
-					break;
-				}
-				bn = util.getNextBNFromBlock(vdb);
-			}
-			
-			if(bn==0){
-				resultsList.add("File not found");
-				return resultsList; 
+			DiskPath p = locate(fc.getOperand(1), false);
+			if (p==null){
+				return resultsList;
 			}
-			int a = d.getInodeType(inodeIndex);
-			if(d.getInodeType(inodeIndex)==0){
-				resultsList.add("Name provided is not a file");
-				return resultsList; 
+			DiskUnit disk = p.getDisk();
+			InodeLocks.Held held = p.lock(false, false);
+			if (held==null){
+				resultsList.add("Directory not found");
+				return resultsList;
 			}
-	
-			int fileStart = d.getInodeFBlock(inodeIndex);
-			int fileStart2 = fileStart;
-
-			String file1="";
-			int counter=d.getBlockSize()-20;
-			int n = 20;
-			int b=0;
-			int b1=5;
-			d.read(fileStart, vdm);
+			try{
+			    String name = p.getName(); 
+				int inodeIndex = p.getInode(); //file in its directory
+				if(inodeIndex==-1){
+					resultsList.add("File not found");
+					return resultsList; 
+				}
 			
-			while (fileStart2!=0) {//finds file on disk using inode and prints it
-				b++;
-				d.read(fileStart2, vdb);
-				file1=file1+util.stringFromVirtualDiskBlock2(vdb, n);
-				n=0;
-				fileStart2 = util.getNextBNFromBlock2(vdm, counter);
-				counter+=4;
-				if(b>=b1-1){ //if file uses indirect blocks
-					fileStart = util.getNextBNFromBlock2(vdm, counter);
-					d.read(fileStart, vdm);
-					counter=0;
-					b=0;
-					b1=(d.getBlockSize()/4);
+				if(disk.isDirectory(inodeIndex)){
+					resultsList.add("Name provided is not a file");
+					return resultsList; 
 				}
-			}
-			//Display text
-			if(file1.length()>=d.getInodeSize(inodeIndex)){
-				file1=file1.substring(0, d.getInodeSize(inodeIndex));
-			}
-			int j;
-			int k=0;
-			for(int i=0; i<=(file1.length()/64)+1; i++){
-				j=k+64;
-				if(j>=file1.length()){
-					System.out.println(file1.substring(k, file1.length()));
-					break;
+	
+				//Display text, 64 characters per line, reading one line at a time
+				VirtualFileInputStream in = new VirtualFileInputStream(disk, inodeIndex);
+				byte[] line = new byte[64];
+				try{
+					int n;
+					do{
+						n = 0;
+						int r;
+						while(n<line.length && (r = in.read(line, n, line.length-n)) != -1){
+							n+=r;
+						}
+						if(n>0 || in.getSize()==0){
+							out.println(Utils.bytesToString(line, n));
+						}
+					} while(n==line.length && in.available()>0);
+				} catch(IOException e){
+					e.printStackTrace();
 				}
-				System.out.println(file1.substring(k, j));
-				k+=64;
-
-			}
 		    
-			return resultsList; 
+				return resultsList; 
+			} finally{
+				held.release();
+			}
 		}
 	}
 	
@@ -1026,33 +949,35 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	private class ListDirectoryProcessor implements CommandActionHandler { 
 		public ArrayList<String> execute(Command c) {
 			resultsList = new ArrayList<String>(); 
+			DiskUnit d = session.getDisk();
 			if(d==null){
 				resultsList.add("No disk mounted");
 				return resultsList;
 			}
-			int sizeD = d.getInodeSize(d.getcurrentDir());
+			int dir = session.getDirectory();
+			InodeLocks.Held held = d.getInodeLocks().read(dir);
+			try{
+				if(d.isRemovedDirectory(dir)){ //removed by another session meanwhile
+					resultsList.add("Directory not found");
+					return resultsList;
+				}
+				long sizeD = d.getInodeSize(dir);
 			
-			if(sizeD==1){ //if directory is empty
-				resultsList.add("Directory is Empty");
-				return resultsList;
-			}
+				if(sizeD==1){ //if directory is empty
+					resultsList.add("Directory is Empty");
+					return resultsList;
+				}
 
-			Utils util = new Utils();
-			VirtualDiskBlock vdb = new VirtualDiskBlock(d.getBlockSize()); 
-			int inodeIndex;
-		
-			System.out.println("Name - Size");
+				out.println("Name - Size");
 			
-			int bn = d.getInodeFBlock(d.getcurrentDir()); //finds directory file and displays it
-			while (bn != 0) { 
-				d.read(bn, vdb); 
-				util.showVirtualDiskBlock(bn, vdb);
-				inodeIndex = util.getIntFromBlock(vdb, (d.getBlockSize()-8));
-				System.out.println(" "+d.getInodeSize(inodeIndex));//!!!!!
-				bn = util.getNextBNFromBlock(vdb);			
-			}
+				for(DirectoryEntry entry : new DirectoryFile(d, dir).entries()){ //finds directory file and displays it
+					out.println(entry.getName()+" "+d.getInodeSize(entry.getInode()));
+				}
 			
-			return resultsList; 
+				return resultsList; 
+			} finally{
+				held.release();
+			}
 		}
 	}
 	
@@ -1064,119 +989,63 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	private class LoadFileProcessor implements CommandActionHandler { 
 		public ArrayList<String> execute(Command c) {
 			resultsList = new ArrayList<String>(); 
-			if (d==null){
-				resultsList.add("No disk mounted");
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+			DiskPath p = locate(fc.getOperand(2), true);
+			if (p==null){
 				return resultsList;
 			}
-			FixedLengthCommand fc = (FixedLengthCommand) c;
-			String name = fc.getOperand(1);
-			String newName = fc.getOperand(2);
-			int n = d.getInodeSize(d.getcurrentDir());
-			int freeNode = d.getNextFreeNode();
-			
-			
-			int block=d.getBlockSize();
-			VirtualDiskBlock vb = new VirtualDiskBlock(block);
-			VirtualDiskBlock vbm = new VirtualDiskBlock(block);
-			try {
-				String file = text.fileToSTring(name); //converts file to string
-				int blocknum = (file.length()-(block-20))/block;
-				
-				byte[] barr = new byte[block];
-				boolean done = false; 
-				Utils util = new Utils();
-				int freeblock;
-				try{
-					 freeblock = d.getFreeBN();  
-				} catch(FullDiskException e){
-					resultsList.add("Disk is full");
-					return resultsList;
-				}
-				int chn = 0, bn = 0, index=0;
-				int nextFreeBlock=0;
-				if(freeNode==0){
-					resultsList.add("Disk is full");
-					return resultsList;
-				}
-
-				d.setInode(freeNode, file.length(), freeblock);
-				
-				//writes file using new file block implementation 
-				
-				for (int i=0; i<(block-20) && chn < file.length(); i++) { //implementation of free blocks just like append and copy file
-				barr[i] = (byte) file.charAt(chn); 
-				chn++; 
+			DiskUnit disk = p.getDisk();
+			InodeLocks.Held held = p.lock(true, false);
+			if (held==null){
+				resultsList.add("Directory not found");
+				return resultsList;
 			}
-				for (int i=0; i<(block-20) && i<barr.length; i++){  
-					vbm.setElement(i, barr[i]);
-				}
-				
-				int counter=block-20;
-				
-				int b=0;
-				
-				int b1=5;
-				
-				if(file.length()<block-20){
-					d.write(freeblock, vbm);
+			try{
+				String name = fc.getOperand(1);
+				String newName = p.getName();
+				DirectoryFile dir = new DirectoryFile(disk, p.getDirectory());
+				if(!dir.fits(newName)){
+					resultsList.add("Name is too long");
+					return resultsList;
 				}
-				
-				while(!done && file.length()>block-20){
-					
-					nextFreeBlock=d.getFreeBN();
-		
-					Utils.copyIntToBlocks(vbm, counter, nextFreeBlock);
-					
-					counter+=4;
-					b++;
-					
-					for (int i=0; i< block && chn < file.length(); i++) { 
-						barr[i] = (byte) file.charAt(chn); 
-						chn++; 
-					}
-					
-					for (int i=0; i<block; i++)  
-						vb.setElement(i, barr[i]);
-					
-					bn++;
-
-					if ((chn >= file.length() || bn > blocknum+1)) {
-						done = true;
-						Utils.copyIntToBlocks(vbm, counter, 0);
-						d.write(freeblock, vbm);
-					}
-					try {
-					d.write(nextFreeBlock, vb);
-					} catch (InvalidBlockNumberException e){
-						resultsList.add("Disk full");
+				int freeNode = disk.getNextFreeNode();
+			
+				try (FileChannel in = TextEditor.openChannel(name)) { //host file, read as raw bytes
+					if(freeNode==0){
+						resultsList.add("Disk is full");
 						return resultsList;
 					}
-					
-					if(b>=b1-1){
-
-						int temp=d.getFreeBN();
-						Utils.copyIntToBlocks(vbm, counter, temp);
-						d.write(freeblock, vbm);
-						freeblock=temp;
-						counter=0;
-						b=0;
-						b1=(block/4);
+				
+					//streams the file into extents, taking runs of consecutive free blocks
+					ExtentFileWriter writer = new ExtentFileWriter(disk, in.size());
+					try{
+						writer.copyFrom(in, importBuffer);
+						disk.setExtentFileInode(freeNode, writer.getSize(), writer.finish());
+					} catch(FullDiskException e){
+						writer.abort();
+						resultsList.add("Disk is full");
+						return resultsList;
+					} catch(IOException e){
+						writer.abort();
+						throw e;
 					}
-					
-
-				}
 				
-			  d.addTodirectory(n, newName, freeNode);
+				  if(!link(dir, disk, newName, freeNode)){
+					  return resultsList;
+				  }
 			
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				resultsList.add("File not Found");
-				return resultsList;
-			}
+				} catch (IOException e) {
+					// TODO Auto-generated catch block
+					resultsList.add("File not Found");
+					return resultsList;
+				}
 			
-			resultsList.add("File has been loaded");
+				resultsList.add("File has been loaded");
 			
-			return resultsList; 
+				return resultsList; 
+			} finally{
+				held.release();
+			}
 		}
 	}
 	
@@ -1187,10 +1056,6 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	private class CreateDiskProcessor implements CommandActionHandler {
 		public ArrayList<String> execute(Command c) {
 			resultsList = new ArrayList<String>();
-			if(d!=null){
-				resultsList.add("Please unmount first");
-				return resultsList;
-			}
 			FixedLengthCommand fc = (FixedLengthCommand) c;
 		    String name = fc.getOperand(1);
 		    String diskSize = fc.getOperand(2);
@@ -1219,46 +1084,87 @@ public class SystemCommandsProcessor extends CommandProcessor {
 		}
 	}
 	/**
-	 * Unmounts disk
+	 * Unmounts the current disk. A snapshot gives the current disk back to its live disk,
+	 * any other disk to the last disk mounted
 	 *
 	 */
 	private class UnmountDiskProcessor implements CommandActionHandler {
 		public ArrayList<String> execute(Command c) {
 			resultsList = new ArrayList<String>(); 
-		    if(d!=null){
-		    	d.shutdown(); //shutdowns disk, saves important parameters before closing
-				resultsList.add("Disk has been unmounted");
-				d=null;
-		    }
-		    else{
+			DiskUnit d = session.getDisk();
+		    if(d==null){
 		    	resultsList.add("No available disk to unmount");
+		    	return resultsList;
+		    }
+		    DiskUnit live = mounts.getLive(d);
+		    if(!mounts.unmount(d)){ //shutdowns disk, saves important parameters before closing
+		    	resultsList.add("Unmount the snapshots of the disk first");
+		    	return resultsList;
+		    }
+		    session.forget(d);
+		    if(live!=d){ //the live disk stays mounted
+				resultsList.add("Snapshot has been unmounted");
+				session.setDisk(live);
+				return resultsList;
 		    }
+			resultsList.add("Disk has been unmounted");
+			ArrayList<DiskUnit> left = mounts.getDisks();
+			d = left.isEmpty() ? null : left.get(left.size()-1);
+			session.setDisk(d);
+			if(d!=null){
+				resultsList.add("Current disk is "+d.getDiskName());
+			}
 
 			return resultsList; 
 		}
 	}
 	
 	/**
-	 * Mounts disk
+	 * Writes every modified cached block of the mounted disk back to the disk file
 	 *
 	 */
-	private class MountDiskProcessor implements CommandActionHandler {
+	private class SyncDiskProcessor implements CommandActionHandler {
 		public ArrayList<String> execute(Command c) {
-			resultsList = new ArrayList<String>();
-		    if(d!=null){
-				resultsList.add("Unmount current disk first");
+			resultsList = new ArrayList<String>(); 
+			DiskUnit d = session.getDisk();
+		    if(d==null){
+				resultsList.add("No disk mounted");
+				return resultsList;
+		    }
+		    if(d.isReadOnly()){
+				resultsList.add("Snapshot is read-only");
 				return resultsList;
 		    }
+		    d.sync(); //saves disk parameters and writes back modified blocks
+			resultsList.add("Disk has been synchronized");
+			resultsList.add("Cache hits: "+d.getCacheHits()+" misses: "+d.getCacheMisses());
+			resultsList.add("Blocks written back or prefetched: "+d.getScheduledBlocks()+" in "+d.getTransfers()+" transfers");
+			return resultsList; 
+		}
+	}
+	
+	/**
+	 * Mounts disk next to the ones already mounted and makes it the current disk. A disk
+	 * already mounted, by any session, just becomes the current disk
+	 *
+	 */
+	private class MountDiskProcessor implements CommandActionHandler {
+		public ArrayList<String> execute(Command c) {
+			resultsList = new ArrayList<String>();
 			FixedLengthCommand fc = (FixedLengthCommand) c;
 		    String name = fc.getOperand(1); 
 		    try{
-				d=DiskUnit.mount(name); //mounts disk and loads important parameters
-				d.setDirectory(0);
-				
-				d.setCurrentName(name+":/"+"root");
+				session.setDisk(mounts.mount(name)); //mounts disk and loads important parameters, at its root
 				resultsList.add("Disk has been mounted");
-				current=0;
-				mounted=true;
+		    }
+		    catch(ExistingDiskException e){
+		    	DiskUnit d = mounts.get(name); //mounted by this or another session, shared by all
+		    	if (d==null){
+		    		resultsList.add("Disk is already mounted"); //and unmounted again meanwhile
+		    		return resultsList;
+		    	}
+		    	session.setDisk(d);
+		    	resultsList.add("Disk is already mounted, it is now the current disk");
 		    }
 		    catch(NonExistingDiskException e){
 		    	resultsList.add("Disk was not found");
@@ -1274,12 +1180,12 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	private class DeleteDiskProcessor implements CommandActionHandler {
 		public ArrayList<String> execute(Command c) {
 			resultsList = new ArrayList<String>(); 
-			if(d!=null){
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+		    String name = fc.getOperand(1);
+			if(mounts.isInUse(name)){
 				resultsList.add("Please unmount first");
 				return resultsList;
 			}
-			FixedLengthCommand fc = (FixedLengthCommand) c;
-		    String name = fc.getOperand(1);
 		    
 		    if(DiskUnit.deleteDisk(name)){
 		    	System.gc();
@@ -1300,6 +1206,119 @@ public class SystemCommandsProcessor extends CommandProcessor {
 		}
 	}
 	
+	/**
+	 * Manages the snapshots of the current disk: snapshot create, list, mount and delete.
+	 * A snapshot is mounted read-only as disk@snapshot and becomes the current disk; its
+	 * disk stays mounted and is current again once the snapshot is unmounted
+	 */
+	private class SnapshotProcessor implements CommandActionHandler {
+		public ArrayList<String> execute(Command c) {
+			resultsList = new ArrayList<String>(); 
+			DiskUnit d = session.getDisk();
+			if (d==null){
+				resultsList.add("No disk mounted");
+				return resultsList;
+			}
+			VariableLengthCommand vc = (VariableLengthCommand) c;
+			String op = vc.getItemsForOperand(1).get(0);
+			ArrayList<String> names = vc.getItemsForOperand(2);
+			DiskUnit disk = mounts.getLive(d);
+			
+			if (op.equals("list")){
+				if (disk.getSnapshots().isEmpty())
+					resultsList.add("Disk has no snapshots");
+				for (Snapshot s : disk.getSnapshots())
+					resultsList.add(s.getName()+" : "+s.getPreservedCount()+" blocks preserved");
+				return resultsList;
+			}
+			if (!op.equals("create") && !op.equals("mount") && !op.equals("delete")){
+				resultsList.add("Snapshot operation must be create, list, mount or delete");
+				return resultsList;
+			}
+			if (names.isEmpty()){
+				resultsList.add("Snapshot name is required");
+				return resultsList;
+			}
+			String name = names.get(0);
+			
+			if (op.equals("create")){
+				try {
+					disk.createSnapshot(name); //syncs the disk, no block is copied
+					resultsList.add("Snapshot has been created");
+				}
+				catch(ExistingDiskException e){
+					resultsList.add("Snapshot name is already used");
+				}
+				catch(InvalidParameterException e){
+					resultsList.add("Invalid snapshot name");
+				}
+			}
+			else if (op.equals("mount")){
+				try {
+					session.setDisk(mounts.mountSnapshot(disk, name));
+					resultsList.add("Snapshot has been mounted read-only");
+				}
+				catch(ExistingDiskException e){
+					resultsList.add("Snapshot is already mounted");
+				}
+				catch(NonExistingDiskException e){
+					resultsList.add("Snapshot was not found");
+				}
+			}
+			else {
+				if (mounts.get(disk.getDiskName()+Snapshot.SEPARATOR+name)!=null){
+					resultsList.add("Unmount the snapshot first");
+					return resultsList;
+				}
+				if (disk.deleteSnapshot(name))
+					resultsList.add("Snapshot has been deleted");
+				else
+					resultsList.add("Snapshot was not found");
+			}
+			return resultsList;
+		}
+	}
+	
+	/**
+	 * Checks the consistency of the mounted disk, and with "repair" rebuilds its free
+	 * space map and reference counts
+	 *
+	 */
+	private class CheckDiskProcessor implements CommandActionHandler {
+		public ArrayList<String> execute(Command c) {
+			resultsList = new ArrayList<String>(); 
+			DiskUnit d = session.getDisk();
+			if (d==null){
+				resultsList.add("No disk mounted");
+				return resultsList;
+			}
+			VariableLengthCommand vc = (VariableLengthCommand) c;
+			ArrayList<String> op = vc.getItemsForOperand(1);
+			boolean repair = !op.isEmpty();
+			if (repair && !op.get(0).equals("repair")){
+				resultsList.add("Only the repair option is accepted");
+				return resultsList;
+			}
+			if (repair && d.isReadOnly()){
+				resultsList.add("Snapshot is read-only");
+				return resultsList;
+			}
+			
+			Fsck fsck = new Fsck(d);
+			fsck.check();
+			resultsList.addAll(fsck.getReport());
+			if (repair && fsck.getProblemCount()>0){
+				if(fsck.repair()){
+					resultsList.add("Free space map and reference counts have been rebuilt");
+				}
+				else{
+					resultsList.add("Free space map has been rebuilt, disk is full: reference counts are only kept in memory");
+				}
+			}
+			return resultsList;
+		}
+	}
+	
 	/**
 	 * Ends program
 	 *
@@ -1307,10 +1326,17 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	private class ShutDownProcessor implements CommandActionHandler { 
 		public ArrayList<String> execute(Command c) {
 			resultsList = new ArrayList<String>(); 
-			if(d!=null){
-		    	d.shutdown();
+			if(!ownsMounts){
+				resultsList.add("Session has ended");
+				stopExecution = true;
+				return resultsList;
+			}
+			if(!mounts.isEmpty()){
+		    	for(DiskUnit disk : mounts.getDisks()){
+		    		session.forget(disk);
+		    	}
+		    	mounts.unmountAll();
 				resultsList.add("Disk has been unmounted");
-				d=null;
 			}
 
 			resultsList.add("SYSTEM IS SHUTTING DOWN!!!!");
@@ -1320,7 +1346,8 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	}
 	
 	/**
-	 * Shows a list of disks with its block size and capacity
+	 * Shows a list of disks with its block size and capacity. A disk not mounted is
+	 * opened on its own instance just to read them
 	 *
 	 */
 	private class ShowDiskProcessor implements CommandActionHandler {
@@ -1328,18 +1355,20 @@ public class SystemCommandsProcessor extends CommandProcessor {
 			resultsList = new ArrayList<String>();
 			int blockSize;
 			int capacity;
-			if(d!=null){
-				resultsList.add("Please unmount first");
-				return resultsList;
-			}
 			try {
 				ArrayList<String> list = TextEditor.currentDiskList();
 				for(int i=0; i<list.size(); i++){
-					D=DiskUnit.mount(list.get(i));
-					blockSize=D.getBlockSize();
-					capacity=D.getCapacity();
-					resultsList.add(list.get(i)+" : BlockSize is "+blockSize+" Capacity is "+capacity);
-					D.shutdown();
+					DiskUnit disk = mounts.get(list.get(i));
+					boolean isMounted = disk!=null;
+					if(!isMounted){
+						disk=DiskUnit.mount(list.get(i));
+					}
+					blockSize=disk.getBlockSize();
+					capacity=disk.getCapacity();
+					resultsList.add(list.get(i)+" : BlockSize is "+blockSize+" Capacity is "+capacity+(isMounted ? " (mounted)" : ""));
+					if(!isMounted){
+						disk.shutdown();
+					}
 				}
 			} catch (IOException e) {
 				// TODO Auto-generated catch block